@@ -17,6 +17,15 @@ public record IntRangeLiteral(int start, Token operator, int end, int step)
         this(start, operator, end, start <= end ? 1 : -1);
     }
 
+    // number of values the range produces. computed on longs so that bounds close to
+    // Integer.MIN_VALUE or MAX_VALUE can't overflow; a step pointing away from the end
+    // produces nothing
+    public long count() {
+        final long span = (long) end - start;
+        if (span != 0 && (span < 0) != (step < 0)) return 0;
+        return span / step + 1;
+    }
+
     @Override
     public Iterator iterator() {
         return new Iterator();
@@ -3,18 +3,26 @@ package com.maruseron.zeron;
 import com.maruseron.zeron.analize.ResolutionError;
 import com.maruseron.zeron.analize.Resolver;
 import com.maruseron.zeron.ast.Parser;
+import com.maruseron.zeron.compile.BatchCompiler;
 import com.maruseron.zeron.compile.Compiler;
+import com.maruseron.zeron.interpret.Interpreter;
+import com.maruseron.zeron.interpret.NodeInterpreter;
 import com.maruseron.zeron.interpret.RuntimeError;
+import com.maruseron.zeron.optimize.Optimizer;
 import com.maruseron.zeron.scan.Scanner;
 import com.maruseron.zeron.scan.Token;
 import com.maruseron.zeron.scan.TokenType;
+import com.maruseron.zeron.vm.VirtualMachine;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.lang.IO.println;
 
@@ -23,17 +31,99 @@ public class Zeron {
     static boolean hadRuntimeError = false;
     static boolean hadResolutionError = false;
 
+    // which backend runs a resolved program
+    enum Engine { COMPILER, INTERPRETER, NODES, VM, TIERED }
+    static Engine engine = Engine.COMPILER;
+    // compiler engine only: write ZeronMain.class to the working directory instead of
+    // running the script in memory
+    static boolean emit = false;
+    // compiler and tiered engines: size budget of inlined functions, in bytes of
+    // bytecode. null keeps the compiler's default, 0 turns inlining off
+    static Integer inlineBudget = null;
+    // batch mode: compile every script under the directory argument into this jar, on
+    // this many threads, with this script class as the entry point (see BatchCompiler)
+    static Path jar = null;
+    static int jobs = Runtime.getRuntime().availableProcessors();
+    static String entry = null;
+    // compiler engine and batch mode: directory of the compiled function cache, so
+    // functions that didn't change since the last compile aren't compiled again
+    static Path cache = null;
+    // compiler engine and batch mode: initialize globals on first use and split the
+    // functions into classes loaded on first call, see Compiler.setLazy
+    static boolean lazy = false;
+    // compiler engine and batch mode: count calls and time every function, reported at
+    // exit, see Compiler.setProfile
+    static boolean profile = false;
+    // compiler engine: print the bytes the peephole pass saved in every method, see
+    // Compiler.peepholeSavings
+    static boolean peephole = false;
+
+    // batch mode: the script each worker thread is compiling, so reports say which file
+    // they're about, and every script that reported something
+    private static final ThreadLocal<Path> currentScript = new ThreadLocal<>();
+    private static final Set<Path> failedScripts = ConcurrentHashMap.newKeySet();
+
     static void main(final String... args) throws IOException {
-        if (args.length > 1) {
-            println("Usage: zeron [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        var first = 0;
+        while (first < args.length && args[first].startsWith("--")) {
+            final var option = args[first++];
+            if (option.startsWith("--engine=")) {
+                engine = Engine.valueOf(option.substring("--engine=".length()).toUpperCase());
+            } else if (option.equals("--emit")) {
+                emit = true;
+            } else if (option.startsWith("--inline=")) {
+                inlineBudget = Integer.parseInt(option.substring("--inline=".length()));
+            } else if (option.startsWith("--jar=")) {
+                jar = Paths.get(option.substring("--jar=".length()));
+            } else if (option.startsWith("--jobs=")) {
+                jobs = Integer.parseInt(option.substring("--jobs=".length()));
+            } else if (option.equals("--lazy")) {
+                lazy = true;
+            } else if (option.equals("--profile")) {
+                profile = true;
+            } else if (option.equals("--peephole")) {
+                peephole = true;
+            } else if (option.startsWith("--cache=")) {
+                cache = Paths.get(option.substring("--cache=".length()));
+            } else if (option.startsWith("--main=")) {
+                entry = option.substring("--main=".length());
+            } else {
+                usage();
+            }
+        }
+
+        if (jar != null) {
+            if (args.length - first != 1 || jobs < 1) usage();
+            runBatch(Paths.get(args[first]));
+        } else if (args.length - first > 1) {
+            usage();
+        } else if (args.length - first == 1) {
+            runFile(args[first]);
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        println("Usage: zeron [--engine=compiler|interpreter|nodes|vm|tiered] [--emit] [--inline=bytes] [--cache=dir] [--lazy] [--profile] [--peephole] [script]");
+        println("       zeron --jar=out.jar [--jobs=n] [--main=class] [--inline=bytes] [--cache=dir] [--lazy] [--profile] directory");
+        System.exit(64);
+    }
+
+    private static void runBatch(final Path sources) throws IOException {
+        if (!Files.isDirectory(sources)) usage();
+
+        final var batch = new BatchCompiler(sources, jobs);
+        batch.setInlineBudget(inlineBudget);
+        batch.setEntry(entry);
+        batch.setCache(cache);
+        batch.setLazy(lazy);
+        batch.setProfile(profile);
+        if (batch.compileTo(jar)) return;
+
+        System.exit(hadResolutionError ? 71 : 65);
+    }
+
     private static void runFile(final String path) throws IOException {
         final var bytes = Files.readAllBytes(Paths.get(path));
 
@@ -64,12 +154,49 @@ public class Zeron {
 
         if (hadError) return;
 
-        final var compiler = new Compiler(stmts);
-        compiler.resolve();
+        if (engine == Engine.COMPILER) {
+            final var compiler = new Compiler(stmts);
+            if (inlineBudget != null) compiler.setInlineBudget(inlineBudget);
+            compiler.setCache(cache);
+            compiler.setLazy(lazy);
+            compiler.setProfile(profile);
+            compiler.resolve();
+
+            if (hadResolutionError) return;
+
+            if (emit) {
+                compiler.compile();
+            } else {
+                compiler.run();
+            }
+            if (peephole) {
+                compiler.peepholeSavings().forEach((method, bytes) ->
+                        println("peephole: " + method + ": " + bytes + " bytes saved"));
+            }
+            return;
+        }
+
+        final var resolver = new Resolver();
+        resolver.resolve(stmts);
 
         if (hadResolutionError) return;
 
-        compiler.compile();
+        // every engine runs the optimized program; the compiler optimizes its own
+        final var program = new Optimizer().optimize(stmts);
+
+        switch (engine) {
+            case INTERPRETER -> new Interpreter(resolver.symbols).interpret(program);
+            case NODES       -> new NodeInterpreter(resolver.symbols).interpret(program);
+            case VM          -> new VirtualMachine(resolver.symbols).interpret(program);
+            // starts in the interpreter and moves hot functions to hidden classes. the
+            // compiler works on the program being run, as it was resolved here
+            case TIERED      -> {
+                final var compiler = Compiler.ofResolved(program, resolver.symbols);
+                if (inlineBudget != null) compiler.setInlineBudget(inlineBudget);
+                new Interpreter(resolver.symbols, compiler::compileHidden).interpret(program);
+            }
+            default          -> throw new IllegalStateException("unreachable");
+        }
     }
 
     public static void error(final int line, final String message) {
@@ -77,7 +204,7 @@ public class Zeron {
     }
 
     private static void report(final int line, final String where, final String message) {
-        println("[line " + line + "] Error" + where + ": " + message);
+        println(blame() + "[line " + line + "] Error" + where + ": " + message);
         hadError = true;
     }
 
@@ -95,8 +222,30 @@ public class Zeron {
     }
 
     public static void resolutionError(final ResolutionError error) {
-        println(error.getMessage() + "\n[line " + error.token.line() + "]");
+        println(blame() + error.getMessage() + "\n[line " + error.token.line() + "]");
         hadResolutionError = true;
         throw error;
     }
+
+    public static void enterScript(final Path script) {
+        currentScript.set(script);
+    }
+
+    // whether the script this thread is compiling has reported an error
+    public static boolean scriptFailed() {
+        final var script = currentScript.get();
+        return script != null && failedScripts.contains(script);
+    }
+
+    public static void leaveScript() {
+        currentScript.remove();
+    }
+
+    // marks the current script, if any, as failed and returns the prefix of its reports
+    private static String blame() {
+        final var script = currentScript.get();
+        if (script == null) return "";
+        failedScripts.add(script);
+        return script + ": ";
+    }
 }
@@ -13,6 +13,10 @@ public final class Resolver {
     // this table stores every name related to a type to avoid name collisions
     public final SymbolTable symbols = new SymbolTable();
     public final Set<String> types   = new HashSet<>();
+    // declared return type of every function and lambda being resolved, innermost first
+    private final Deque<TypeDescriptor> returnTypes = new ArrayDeque<>();
+    // and their names, SYNTHETIC_IDENTIFIER for lambdas, to find self tail calls
+    private final Deque<Token> enclosing = new ArrayDeque<>();
 
     public static final Token SYNTHETIC_IDENTIFIER = new Token(
             TokenType.IDENTIFIER,"<synthetic>", null, -1);
@@ -52,17 +56,18 @@ public final class Resolver {
                 declareFunction(fn, fn.name(), fn.typeDescriptor());
                 resolveFunction(fn);
             }
-            case Stmt.For(Token iterationBind, Token _, Expr iterable, Stmt body) -> {
+            case Stmt.For loop -> {
                 beginScope();
-                final var iterableType = resolve(iterable);
+                final var iterableType = resolve(loop.iterable());
                 ensureIterable(iterableType);
                 // iterable is @ 1 Iterable TYPE. we extract TYPE by doing
                 // iterableType.typeParameters() and getting the first (and only)
                 assert iterableType != null;
                 final var typeParameter = ((GenericDescriptor) iterableType).typeParameters().getFirst();
-                declare(SYNTHETIC_VAR, iterationBind, typeParameter, true);
-                define(iterationBind);
-                resolve(body);
+                declare(SYNTHETIC_VAR, loop.iterationBind(), typeParameter, true);
+                define(loop.iterationBind());
+                loop.setSlot(symbols.slotOf(loop.iterationBind()));
+                resolve(loop.body());
                 endScope();
             }
             case Stmt.If(Token _, Expr condition, Stmt thenBranch, Stmt elseBranch) -> {
@@ -75,7 +80,8 @@ public final class Resolver {
             }
             case Stmt.Return(Expr value) -> {
                 if (value != null) {
-                    resolve(value);
+                    resolve(value, returnTypes.peek());
+                    markTailCalls(value, enclosing.peek());
                 }
             }
             case Stmt.Var var -> {
@@ -94,7 +100,7 @@ public final class Resolver {
 
                 // let x = expression; OR let x: T = expression;
                 if (var.initializer() != null) {
-                    resolvedType = resolve(var.initializer());
+                    resolvedType = resolve(var.initializer(), var.type());
                     resolvedType = ensureAssignable(var.type(), resolvedType);
                     // replaces <infer> with resolved type for the symbol
                     if (var.type() instanceof InferDescriptor)
@@ -115,6 +121,7 @@ public final class Resolver {
                 }
 
                 define(var.name());
+                var.setAddress(symbols.depthOf(var.name()), symbols.slotOf(var.name()));
             }
             case Stmt.While(Token _, Expr condition, Stmt body) -> {
                 resolve(condition);
@@ -139,10 +146,16 @@ public final class Resolver {
             // return the assigned type (the resolved one)
             case Expr.Assignment assignment -> {
                 final var expectedType = getSymbol(assignment.name);
-                final var resolvedType = resolve(assignment.value);
+                final var resolvedType = resolve(assignment.value, expectedType);
                 ensureAssignable(expectedType, resolvedType);
+                if (symbols.getSymbol(assignment.name).isFinal()) {
+                    Zeron.resolutionError(new ResolutionError(assignment.name,
+                            "Cannot reassign final variable '" + assignment.name.lexeme() + "'."));
+                }
 
-                assignment.setType(resolvedType);
+                // tagged with the type of the bind, which decides how its slot is stored
+                assignment.setType(expectedType.orElse(resolvedType));
+                assignment.setAddress(symbols.depthOf(assignment.name), symbols.slotOf(assignment.name));
                 yield resolvedType;
             }
             // |> a + b ::= when predicate x is Infer, TypeParam
@@ -157,7 +170,12 @@ public final class Resolver {
                 final var rightType = resolve(binary.right);
                 System.out.println("resolving binary   " + leftType + " " + binary.operator.lexeme() + " " + rightType);
                 ensureExact(binary.operator, leftType, rightType);
-                final var resolvedType = leftType.orElse(rightType);
+                // comparisons and equality take exact operands but always produce a Boolean
+                final var resolvedType = switch (binary.operator.type()) {
+                    case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL,
+                         EQUAL_EQUAL, BANG_EQUAL -> TypeDescriptor.ofBoolean();
+                    default -> leftType.orElse(rightType);
+                };
 
                 binary.setType(resolvedType);
                 yield resolvedType;
@@ -177,6 +195,7 @@ public final class Resolver {
                     final var symbol = getSymbol(call.callee);
                     if (symbol instanceof FunctionDescriptor f) {
                         descriptor = f;
+                        call.setAddress(symbols.depthOf(call.callee), symbols.slotOf(call.callee));
                     } else {
                         Zeron.resolutionError(new ResolutionError(call.callee,
                                 "Callee is not a function."));
@@ -201,17 +220,22 @@ public final class Resolver {
                     descriptor = resolveCallWithTypes(call.callee, call.arguments);
                 } else {
                     for (var i = 0; i < call.arguments.size(); i++) {
-                        ensureAssignable(parameters.get(i), resolve(call.arguments.get(i)));
+                        ensureAssignable(parameters.get(i),
+                                resolve(call.arguments.get(i), parameters.get(i)));
                     }
                 }
 
+                call.setType(descriptor.returnType());
                 yield descriptor.returnType();
             }
             // |> (a) ::= typeof a
             // suggested type for groupings will always be inferred,
             // just unbox and send the expression down the resolution pipeline
-            case Expr.Grouping grouping ->
-                    resolve(grouping.expression);
+            case Expr.Grouping grouping -> {
+                final var resolvedType = resolve(grouping.expression);
+                grouping.setType(resolvedType);
+                yield resolvedType;
+            }
             // suggested type for if expressions will always be inferred,
             // resolve the condition, ensure it is a boolean,
             // resolve each branch, ensure they have a common parent, and
@@ -221,8 +245,31 @@ public final class Resolver {
                 ensureBoolean(resolve(iff.condition));
                 final var then = resolve(iff.thenExpr);
                 ensureCommonParent(iff.paren, then, resolve(iff.elseExpr));
+                iff.setType(then);
                 yield then;
             }
+            // suggested type for match expressions will always be inferred,
+            // resolve the subject, ensure every pattern can match it, once,
+            // resolve each arm, ensure they have a common parent, and
+            // return the expression tagged with the resolved type
+            case Expr.Match match -> {
+                final var subject = resolve(match.subject);
+                final var constants = new HashSet<Object>();
+                TypeDescriptor resolvedType = null;
+                for (final var arm : match.arms) {
+                    for (final var pattern : arm.patterns()) {
+                        ensureMatches(subject, pattern, constants);
+                    }
+                    final var armType = resolve(arm.body());
+                    if (resolvedType == null) resolvedType = armType;
+                    else ensureCommonParent(match.keyword, resolvedType, armType);
+                }
+                final var otherwise = resolve(match.otherwise);
+                if (resolvedType == null) resolvedType = otherwise;
+                else ensureCommonParent(match.keyword, resolvedType, otherwise);
+                match.setType(resolvedType);
+                yield resolvedType;
+            }
             // suggested type for lambdas will always be inferred,
             // but they need to be structurally inferred. we can extract
             // arity from the parameter count and infer a return type from
@@ -231,10 +278,21 @@ public final class Resolver {
                     TypeDescriptor.ofInfer();
             case Expr.Literal literal ->
                     literal.getType();
-            case Expr.Logical _ ->
-                    TypeDescriptor.ofBoolean();
-            case Expr.Unary unary ->
-                    resolve(unary.right);
+            case Expr.Logical logical -> {
+                ensureBoolean(resolve(logical.left));
+                ensureBoolean(resolve(logical.right));
+                yield TypeDescriptor.ofBoolean();
+            }
+            case Expr.Unary unary -> {
+                final var operandType = resolve(unary.right);
+                final var resolvedType = switch (unary.operator.type()) {
+                    case NOT    -> TypeDescriptor.ofBoolean();
+                    case TYPEOF -> TypeDescriptor.ofString();
+                    default     -> operandType;
+                };
+                unary.setType(resolvedType);
+                yield resolvedType;
+            }
             case Expr.Variable variable -> {
                 final var name = variable.name;
                 System.out.print("resolving lookup   " + name.lexeme());
@@ -244,6 +302,8 @@ public final class Resolver {
                 }
 
                 System.out.println(" -> " + getSymbol(name));
+                variable.setType(getSymbol(name));
+                variable.setAddress(symbols.depthOf(name), symbols.slotOf(name));
                 yield getSymbol(name);
             }
         };
@@ -263,11 +323,11 @@ public final class Resolver {
         symbols.declareFunction(declaration, name, type);
     }
 
-    private void declare(final Stmt declaration,
-                         final Token name,
-                         final TypeDescriptor type,
-                         final boolean isFinal) {
-        symbols.declareSymbol(declaration, name, type, isFinal);
+    private int declare(final Stmt declaration,
+                        final Token name,
+                        final TypeDescriptor type,
+                        final boolean isFinal) {
+        return symbols.declareSymbol(declaration, name, type, isFinal);
     }
 
     private void define(final Token name) {
@@ -286,6 +346,42 @@ public final class Resolver {
         return symbols.getSymbol(name).declaration();
     }
 
+    // a lambda takes its type from where it goes: a typed bind, a parameter or a return
+    private TypeDescriptor resolve(final Expr expr, final TypeDescriptor expected) {
+        if (expr instanceof Expr.Lambda lambda && expected instanceof FunctionDescriptor type) {
+            return resolveLambda(lambda, type);
+        }
+        return resolve(expr);
+    }
+
+    // resolves the body of a lambda against the function type it's expected to have. the
+    // body gets a frame of its own, see SymbolTable
+    private FunctionDescriptor resolveLambda(final Expr.Lambda lambda,
+                                             final FunctionDescriptor expected) {
+        final var arity = lambda.param == null ? 0 : 1;
+        if (expected.arity() != arity) {
+            Zeron.resolutionError(new ResolutionError(lambda.arrow,
+                    "Expected a lambda of " + expected.arity() + " parameters, found " + arity));
+        }
+
+        symbols.beginLambdaFrame();
+        beginScope();
+        if (lambda.param != null) {
+            declare(SYNTHETIC_VAR, lambda.param, expected.parameters().getFirst(), true);
+            define(lambda.param);
+        }
+        returnTypes.push(expected.returnType());
+        enclosing.push(SYNTHETIC_IDENTIFIER);
+        resolveStmts(lambda.body);
+        enclosing.pop();
+        returnTypes.pop();
+        endScope();
+        lambda.setFrameSize(symbols.endLambdaFrame());
+
+        lambda.setType(expected);
+        return expected;
+    }
+
     // TODO: fix
     private FunctionDescriptor resolveLambda(final Expr.Lambda lambda) {
         beginScope();
@@ -335,7 +431,28 @@ public final class Resolver {
         return resolveLambda(candidate);
     }
 
+    // a returned call of the enclosing function to itself, through the branches of if
+    // and match expressions. a bind of the same name shadows the function, so its calls don't count
+    private static void markTailCalls(final Expr value, final Token function) {
+        switch (value) {
+            case Expr.Call call when !call.callsBind()
+                    && call.callee.lexeme().equals(function.lexeme()) ->
+                    call.setTailCall(true);
+            case Expr.Grouping grouping -> markTailCalls(grouping.expression, function);
+            case Expr.If iff -> {
+                markTailCalls(iff.thenExpr, function);
+                markTailCalls(iff.elseExpr, function);
+            }
+            case Expr.Match match -> {
+                for (final var arm : match.arms) markTailCalls(arm.body(), function);
+                markTailCalls(match.otherwise, function);
+            }
+            default -> {}
+        }
+    }
+
     private void resolveFunction(final Stmt.Function function) {
+        symbols.beginFrame();
         beginScope();
         final var paramNames = function.parameters();
         final var params = function.typeDescriptor().parameters();
@@ -343,16 +460,21 @@ public final class Resolver {
             declare(SYNTHETIC_VAR, paramNames.get(i), params.get(i), true);
             define(paramNames.get(i));
         }
+        returnTypes.push(function.typeDescriptor().returnType());
+        enclosing.push(function.name());
         resolveStmts(function.body());
         final var resolvedType = ensureReturns(
                 function.name(),
                 function.typeDescriptor().returnType(),
                 function.body());
+        enclosing.pop();
+        returnTypes.pop();
         if (function.typeDescriptor().returnType() instanceof InferDescriptor) {
             symbols.setResolvedReturnType(function.name(), resolvedType);
         }
         System.out.println(" resolved function " + function.name().lexeme() + " -> " + symbols.getFunction(function.name()).type());
         endScope();
+        symbols.endFrame(function.name());
     }
 
     public TypeDescriptor ensureReturns(final Token where,
@@ -361,7 +483,7 @@ public final class Resolver {
         var currentType = expectedType;
         for (final var statement : statements) {
             if (statement instanceof Stmt.Return(Expr value)) {
-                var returnType = resolve(value);
+                var returnType = resolve(value, currentType);
                 if (currentType instanceof InferDescriptor)
                     currentType = returnType;
                 else
@@ -405,6 +527,35 @@ public final class Resolver {
         return expectedType instanceof InferDescriptor ? resolvedType : expectedType;
     }
 
+    // there's no subtyping yet: a pattern has to be of the subject's own type, a null
+    // pattern needs a nullable subject, and a constant may appear only once
+    public void ensureMatches(final TypeDescriptor subject,
+                              final Expr.Match.Pattern pattern,
+                              final Set<Object> constants) {
+        if (pattern instanceof Expr.Match.TypeTest typeTest) {
+            if (!typeTest.type().name().equals(subject.name())) {
+                Zeron.resolutionError(new ResolutionError(typeTest.token(),
+                        "A value of type " + subject.name() + " is never a "
+                                + typeTest.type().name() + "."));
+            }
+            return;
+        }
+
+        final var constant = (Expr.Match.Constant) pattern;
+        if (constant.value() == null && !subject.isNullable()) {
+            Zeron.resolutionError(new ResolutionError(constant.token(),
+                    "A value of type " + subject.name() + " is never null."));
+        } else if (constant.value() != null && !constant.type().name().equals(subject.name())) {
+            Zeron.resolutionError(new ResolutionError(constant.token(),
+                    "A " + constant.type().name() + " pattern never matches a value of type "
+                            + subject.name() + "."));
+        }
+        if (!constants.add(constant.value())) {
+            Zeron.resolutionError(new ResolutionError(constant.token(),
+                    "Pattern " + constant.token().lexeme() + " appears more than once."));
+        }
+    }
+
     public void ensureBoolean(TypeDescriptor type) { }
 
     public void ensureIterable(TypeDescriptor type) { }
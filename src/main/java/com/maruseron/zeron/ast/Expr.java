@@ -1,9 +1,19 @@
 package com.maruseron.zeron.ast;
 
+import com.maruseron.zeron.UnitLiteral;
+import com.maruseron.zeron.domain.BooleanDescriptor;
+import com.maruseron.zeron.domain.FloatDescriptor;
+import com.maruseron.zeron.domain.IntDescriptor;
+import com.maruseron.zeron.domain.StringDescriptor;
+import com.maruseron.zeron.domain.SymbolTable;
 import com.maruseron.zeron.domain.TypeDescriptor;
+import com.maruseron.zeron.domain.UnitDescriptor;
 import com.maruseron.zeron.scan.Token;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 public sealed interface Expr {
@@ -15,6 +25,9 @@ public sealed interface Expr {
         public final Token name;
         public final Expr value;
         private TypeDescriptor type;
+        // frame address of the assigned bind, set by the resolver
+        private int depth = SymbolTable.GLOBAL;
+        private int slot = -1;
 
         public Assignment(Token name, Expr value, TypeDescriptor type) {
             this.name = name;
@@ -30,6 +43,19 @@ public sealed interface Expr {
             this.type = type;
         }
 
+        public int getDepth() {
+            return depth;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public void setAddress(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
         public boolean equals(Object obj) {
             if (obj == this) return true;
             if (!(obj instanceof Assignment that)) return false;
@@ -98,6 +124,15 @@ public sealed interface Expr {
         public final Token paren;
         public final List<Expr> arguments;
         private TypeDescriptor type;
+        // inline cache: the callee this call site bound to the first time it ran
+        private Object target;
+        // frame address of the callee when it's a bind holding a lambda, set by the
+        // resolver. a slot of -1 means the callee is a top level function
+        private int depth = SymbolTable.GLOBAL;
+        private int slot = -1;
+        // a call of a function to itself whose value is what the function returns, set
+        // by the resolver. backends run these as a jump back to the start of the body
+        private boolean tailCall = false;
 
         public Call(Token callee, Token paren, List<Expr> arguments, TypeDescriptor type) {
             this.callee = callee;
@@ -114,6 +149,39 @@ public sealed interface Expr {
             this.type = type;
         }
 
+        public Object getTarget() {
+            return target;
+        }
+
+        public void setTarget(Object target) {
+            this.target = target;
+        }
+
+        public boolean callsBind() {
+            return slot >= 0;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public void setAddress(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        public boolean isTailCall() {
+            return tailCall;
+        }
+
+        public void setTailCall(boolean tailCall) {
+            this.tailCall = tailCall;
+        }
+
         public boolean equals(Object obj) {
             if (obj == this) return true;
             if (!(obj instanceof Call that)) return false;
@@ -227,6 +295,8 @@ public sealed interface Expr {
         public final Token param;
         public final List<Stmt> body;
         private TypeDescriptor type;
+        // slots of the lambda's own frame, parameter included, set by the resolver
+        private int frameSize = 0;
 
         public Lambda(Token arrow, Token param, List<Stmt> body, TypeDescriptor type) {
             this.arrow = arrow;
@@ -243,6 +313,14 @@ public sealed interface Expr {
             this.type = type;
         }
 
+        public int getFrameSize() {
+            return frameSize;
+        }
+
+        public void setFrameSize(int frameSize) {
+            this.frameSize = frameSize;
+        }
+
         public boolean equals(Object obj) {
             if (obj == this) return true;
             if (!(obj instanceof Lambda that)) return false;
@@ -265,6 +343,115 @@ public sealed interface Expr {
         }
     }
 
+    /*
+        match (subject) { pattern | pattern -> value, ..., else -> value }. A pattern is a
+    constant, compared with equals (null included), or `is Type`, which matches any value
+    of the type. The first arm with a matching pattern gives the value, else the else arm.
+
+        The arms the constants select are worked out here, once: picking an arm is a single
+    lookup in the jump map however many arms there are. Type patterns are tried in order,
+    and only those ahead of the arm the lookup found.
+     */
+    final class Match implements Expr {
+        public final Token keyword;
+        public final Expr subject;
+        public final List<Arm> arms;
+        public final Expr otherwise;
+        private TypeDescriptor type;
+        // constant -> first arm it appears in, and the arms with a type pattern, in order
+        private final Map<Object, Integer> jumps = new HashMap<>();
+        private final List<Integer> typeTests = new ArrayList<>();
+
+        public sealed interface Pattern {
+            Token token();
+        }
+
+        public record Constant(Token token, Object value, TypeDescriptor type) implements Pattern {}
+
+        public record TypeTest(Token token, TypeDescriptor type) implements Pattern {}
+
+        public record Arm(List<Pattern> patterns, Expr body) {}
+
+        public Match(Token keyword, Expr subject, List<Arm> arms, Expr otherwise,
+                     TypeDescriptor type) {
+            this.keyword = keyword;
+            this.subject = subject;
+            this.arms = arms;
+            this.otherwise = otherwise;
+            this.type = type;
+            for (int i = 0; i < arms.size(); i++) {
+                for (final var pattern : arms.get(i).patterns()) {
+                    switch (pattern) {
+                        case Constant constant -> jumps.putIfAbsent(constant.value(), i);
+                        case TypeTest _ -> {
+                            if (typeTests.isEmpty() || typeTests.getLast() != i) typeTests.add(i);
+                        }
+                    }
+                }
+            }
+        }
+
+        public TypeDescriptor getType() {
+            return type;
+        }
+
+        public void setType(TypeDescriptor type) {
+            this.type = type;
+        }
+
+        // index of the arm a value selects: arms.size() for the else arm
+        public int armOf(final Object value) {
+            final int arm = jumps.getOrDefault(value, arms.size());
+            for (final var test : typeTests) {
+                if (test >= arm) break;
+                for (final var pattern : arms.get(test).patterns()) {
+                    if (pattern instanceof TypeTest typeTest && isInstance(typeTest.type(), value)) {
+                        return test;
+                    }
+                }
+            }
+            return arm;
+        }
+
+        public Expr bodyOf(final int arm) {
+            return arm == arms.size() ? otherwise : arms.get(arm).body();
+        }
+
+        private static boolean isInstance(final TypeDescriptor type, final Object value) {
+            return switch (type) {
+                case IntDescriptor _     -> value instanceof Integer;
+                case FloatDescriptor _   -> value instanceof Double;
+                case BooleanDescriptor _ -> value instanceof Boolean;
+                case StringDescriptor _  -> value instanceof String;
+                case UnitDescriptor _    -> value instanceof UnitLiteral;
+                default                  -> false;
+            };
+        }
+
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (!(obj instanceof Match that)) return false;
+            return  Objects.equals(this.keyword,   that.keyword)   &&
+                    Objects.equals(this.subject,   that.subject)   &&
+                    Objects.equals(this.arms,      that.arms)      &&
+                    Objects.equals(this.otherwise, that.otherwise) &&
+                    Objects.equals(this.type,      that.type)      ;
+        }
+
+        public int hashCode() {
+            return Objects.hash(keyword, subject, arms, otherwise, type);
+        }
+
+        public String toString() {
+            return "Match[" +
+                    "keyword=" + keyword + ", " +
+                    "subject=" + subject + ", " +
+                    "arms=" + arms + ", " +
+                    "otherwise=" + otherwise + ", " +
+                    "type=" + type + ']';
+        }
+    }
+
     final class Literal implements Expr {
         public final Object value;
         private TypeDescriptor type;
@@ -382,6 +569,9 @@ public sealed interface Expr {
     final class Variable implements Expr {
         public final Token name;
         private TypeDescriptor type;
+        // frame address of the read bind, set by the resolver
+        private int depth = SymbolTable.GLOBAL;
+        private int slot = -1;
 
         public Variable(Token name, TypeDescriptor type) {
             this.name = name;
@@ -396,6 +586,19 @@ public sealed interface Expr {
             this.type = type;
         }
 
+        public int getDepth() {
+            return depth;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public void setAddress(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
         public boolean equals(Object obj) {
             if (obj == this) return true;
             if (!(obj instanceof Variable that)) return false;
@@ -495,6 +495,30 @@ public final class Parser {
             return new Expr.If(paren, condition, thenExpr, elseExpr, TypeDescriptor.ofInfer());
         }
 
+        if (match(MATCH)) {
+            final var keyword = previous();
+            consume(LEFT_PAREN, "Expect '(' after 'match'.");
+            final var subject = expression();
+            consume(RIGHT_PAREN, "Expect ')' after match subject.");
+            consume(LEFT_BRACE, "Expect '{' before match arms.");
+            // arms end at the else arm, which every match has
+            final var arms = new ArrayList<Expr.Match.Arm>();
+            while (!match(ELSE)) {
+                final var patterns = new ArrayList<Expr.Match.Pattern>();
+                do {
+                    patterns.add(pattern());
+                } while (match(PIPE));
+                consume(ARROW, "Expect '->' after pattern.");
+                arms.add(new Expr.Match.Arm(patterns, expression()));
+                consume(COMMA, "Expect ',' after match arm.");
+            }
+            consume(ARROW, "Expect '->' after 'else'.");
+            final var otherwise = expression();
+            match(COMMA);
+            consume(RIGHT_BRACE, "Expect '}' after match arms.");
+            return new Expr.Match(keyword, subject, arms, otherwise, TypeDescriptor.ofInfer());
+        }
+
         if (match(IDENTIFIER)) {
             // `a -> ...` lambda
             final var ident = previous();
@@ -563,6 +587,32 @@ public final class Parser {
         throw error(peek(), "Expect expression.");
     }
 
+    // a constant (Int, String, Boolean or null) or `is Type`
+    private Expr.Match.Pattern pattern() {
+        if (match(IS)) return new Expr.Match.TypeTest(previous(), collectType());
+        if (match(NULL)) {
+            return new Expr.Match.Constant(previous(), null, TypeDescriptor.ofNever().toNullable());
+        }
+        if (match(TRUE, FALSE)) {
+            return new Expr.Match.Constant(
+                    previous(), previous().type() == TRUE, TypeDescriptor.ofBoolean());
+        }
+        if (match(STRING)) {
+            return new Expr.Match.Constant(
+                    previous(), previous().literal(), TypeDescriptor.ofString());
+        }
+        if (match(MINUS)) {
+            final var number = consume(INT, "Expect Int after '-' in pattern.");
+            return new Expr.Match.Constant(
+                    number, -(Integer) number.literal(), TypeDescriptor.ofInt());
+        }
+        if (match(INT)) {
+            return new Expr.Match.Constant(
+                    previous(), previous().literal(), TypeDescriptor.ofInt());
+        }
+        throw error(peek(), "Expect pattern.");
+    }
+
     private Expr.Lambda finishLambda(final Token param) {
         final var arrow = consume(ARROW, "Expect '->' after ')'.");
         levelMarker = new LevelMarker(levelMarker);
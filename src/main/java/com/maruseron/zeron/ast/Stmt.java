@@ -1,10 +1,12 @@
 package com.maruseron.zeron.ast;
 
 import com.maruseron.zeron.domain.FunctionDescriptor;
+import com.maruseron.zeron.domain.SymbolTable;
 import com.maruseron.zeron.domain.TypeDescriptor;
 import com.maruseron.zeron.scan.Token;
 
 import java.util.List;
+import java.util.Objects;
 
 public sealed interface Stmt {
     sealed interface Decl {}
@@ -15,7 +17,67 @@ public sealed interface Stmt {
 
     record Expression(Expr expression) implements Stmt {}
 
-    record For(Token iterationBind, Token in, Expr iterable, Stmt body) implements Stmt {}
+    final class For implements Stmt {
+        private final Token iterationBind;
+        private final Token in;
+        private final Expr iterable;
+        private final Stmt body;
+        // frame slot of the iteration bind, assigned by the resolver
+        private int slot = -1;
+
+        public For(Token iterationBind, Token in, Expr iterable, Stmt body) {
+            this.iterationBind = iterationBind;
+            this.in = in;
+            this.iterable = iterable;
+            this.body = body;
+        }
+
+        public Token iterationBind() {
+            return iterationBind;
+        }
+
+        public Token in() {
+            return in;
+        }
+
+        public Expr iterable() {
+            return iterable;
+        }
+
+        public Stmt body() {
+            return body;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public void setSlot(int slot) {
+            this.slot = slot;
+        }
+
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (!(obj instanceof For that)) return false;
+            return  Objects.equals(this.iterationBind, that.iterationBind) &&
+                    Objects.equals(this.in,            that.in)            &&
+                    Objects.equals(this.iterable,      that.iterable)      &&
+                    Objects.equals(this.body,          that.body)          ;
+        }
+
+        public int hashCode() {
+            return Objects.hash(iterationBind, in, iterable, body);
+        }
+
+        public String toString() {
+            return "For[" +
+                    "iterationBind=" + iterationBind + ", " +
+                    "in=" + in + ", " +
+                    "iterable=" + iterable + ", " +
+                    "body=" + body + ", " +
+                    "slot=" + slot + ']';
+        }
+    }
 
     record Function(Token name, List<Token> parameters,
                     FunctionDescriptor typeDescriptor, List<Stmt> body) implements Stmt, Decl {}
@@ -26,7 +88,75 @@ public sealed interface Stmt {
 
     record Return(Expr value) implements Stmt {}
 
-    record Var(Token name, TypeDescriptor type, Expr initializer, boolean isFinal) implements Stmt, Decl {}
+    final class Var implements Stmt, Decl {
+        private final Token name;
+        private final TypeDescriptor type;
+        private final Expr initializer;
+        private final boolean isFinal;
+        // frame address of the declared bind, assigned by the resolver.
+        // depth is SymbolTable.GLOBAL for top level binds
+        private int depth = SymbolTable.GLOBAL;
+        private int slot = -1;
+
+        public Var(Token name, TypeDescriptor type, Expr initializer, boolean isFinal) {
+            this.name = name;
+            this.type = type;
+            this.initializer = initializer;
+            this.isFinal = isFinal;
+        }
+
+        public Token name() {
+            return name;
+        }
+
+        public TypeDescriptor type() {
+            return type;
+        }
+
+        public Expr initializer() {
+            return initializer;
+        }
+
+        public boolean isFinal() {
+            return isFinal;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public void setAddress(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (!(obj instanceof Var that)) return false;
+            return  Objects.equals(this.name,        that.name)        &&
+                    Objects.equals(this.type,        that.type)        &&
+                    Objects.equals(this.initializer, that.initializer) &&
+                    this.isFinal == that.isFinal;
+        }
+
+        public int hashCode() {
+            return Objects.hash(name, type, initializer, isFinal);
+        }
+
+        public String toString() {
+            return "Var[" +
+                    "name=" + name + ", " +
+                    "type=" + type + ", " +
+                    "initializer=" + initializer + ", " +
+                    "isFinal=" + isFinal + ", " +
+                    "depth=" + depth + ", " +
+                    "slot=" + slot + ']';
+        }
+    }
 
     record While(Token keyword, Expr condition, Stmt body) implements Stmt {}
 }
@@ -0,0 +1,271 @@
+package com.maruseron.zeron.compile;
+
+import com.maruseron.zeron.Zeron;
+import com.maruseron.zeron.analize.ResolutionError;
+import com.maruseron.zeron.ast.Parser;
+import com.maruseron.zeron.scan.Scanner;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/*
+    Compiles every .zn script under a directory into a single runnable jar. Each script
+is scanned, parsed, resolved and generated on its own, on a fixed pool of workers, into
+a class named after its path: util/math.zn becomes util.math, with anything that isn't
+a Java identifier replaced by '_'. Scripts share nothing while they compile, so the
+build scales with the pool.
+
+    The jar holds the script classes, the runtime they link against (this compiler's
+own classes: Natives, the literals) and a manifest whose Main-Class is the entry script,
+either the one asked for or the only script that has a main. Nothing is written if any
+script fails, or if there's no entry script; every failure is reported, not just the
+first.
+ */
+public final class BatchCompiler {
+    private final Path sources;
+    private final int jobs;
+    private Integer inlineBudget = null;
+    private String entry = null;
+    private Path cache = null;
+    private boolean lazy = false;
+    private boolean profile = false;
+
+    private record Compiled(String className, Map<String, byte[]> classes, boolean hasMain) {}
+
+    public BatchCompiler(final Path sources, final int jobs) {
+        this.sources = sources;
+        this.jobs = jobs;
+    }
+
+    // see Compiler.setInlineBudget. null keeps the compiler's default
+    public void setInlineBudget(final Integer bytes) {
+        inlineBudget = bytes;
+    }
+
+    // see Compiler.setCache. every worker shares the directory
+    public void setCache(final Path directory) {
+        cache = directory;
+    }
+
+    // see Compiler.setLazy
+    public void setLazy(final boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    // see Compiler.setProfile
+    public void setProfile(final boolean profile) {
+        this.profile = profile;
+    }
+
+    // class name of the script the jar runs
+    public void setEntry(final String className) {
+        entry = className;
+    }
+
+    // writes the jar, or returns false if some script didn't compile or there's no entry
+    // point for it. the reasons have been reported by then
+    public boolean compileTo(final Path jar) throws IOException {
+        final var scripts = findScripts();
+        if (scripts == null) return false;
+
+        final var compiled = new ArrayList<Compiled>();
+        var failed = false;
+        try (final var pool = Executors.newFixedThreadPool(jobs)) {
+            final var results = new ArrayList<Future<Compiled>>();
+            scripts.forEach((className, path) ->
+                    results.add(pool.submit(() -> compile(path, className))));
+            for (final var result : results) {
+                final var script = join(result);
+                if (script == null) {
+                    failed = true;
+                } else {
+                    compiled.add(script);
+                }
+            }
+        }
+        if (failed) return false;
+
+        final var manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        // the jar is runnable or it isn't written
+        final var main = mainClassOf(compiled);
+        if (main == null) return false;
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, main);
+
+        try (final var out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            for (final var script : compiled) {
+                for (final var generated : script.classes().entrySet()) {
+                    write(out,
+                          generated.getKey().replace('.', '/') + ".class",
+                          generated.getValue());
+                }
+            }
+            writeRuntime(out);
+        }
+        return true;
+    }
+
+    // class name to path of every script, or null if two of them map to the same class
+    private Map<String, Path> findScripts() throws IOException {
+        final List<Path> paths;
+        try (final var walk = Files.walk(sources)) {
+            paths = walk.filter(path -> path.toString().endsWith(".zn")
+                            && Files.isRegularFile(path))
+                    .sorted()
+                    .toList();
+        }
+
+        final var scripts = new TreeMap<String, Path>();
+        var clash = false;
+        for (final var path : paths) {
+            final var className = classNameOf(sources.relativize(path));
+            final var other = scripts.putIfAbsent(className, path);
+            if (other != null) {
+                System.out.println(path + ": compiles to " + className + ", as " + other + " does");
+                clash = true;
+            }
+        }
+        return clash ? null : scripts;
+    }
+
+    private static String classNameOf(final Path relative) {
+        final var name = new StringJoiner(".");
+        for (int i = 0; i < relative.getNameCount(); i++) {
+            var segment = relative.getName(i).toString();
+            if (i == relative.getNameCount() - 1) {
+                segment = segment.substring(0, segment.length() - ".zn".length());
+            }
+            name.add(identifierOf(segment));
+        }
+        return name.toString();
+    }
+
+    private static String identifierOf(final String segment) {
+        final var identifier = new StringBuilder();
+        if (segment.isEmpty() || !Character.isJavaIdentifierStart(segment.charAt(0))) {
+            identifier.append('_');
+        }
+        for (final var c : segment.toCharArray()) {
+            identifier.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        return identifier.toString();
+    }
+
+    // ---------------------------------------------------------------- workers
+
+    // null if the script didn't compile, after reporting why
+    private Compiled compile(final Path path, final String className) {
+        Zeron.enterScript(path);
+        try {
+            final var source = Files.readString(path, Charset.defaultCharset());
+            final var statements = Parser.of(Scanner.from(source).scanTokens()).parse();
+            if (Zeron.scriptFailed()) return null;
+
+            final var compiler = new Compiler(statements, className);
+            if (inlineBudget != null) compiler.setInlineBudget(inlineBudget);
+            compiler.setCache(cache);
+            compiler.setLazy(lazy);
+            compiler.setProfile(profile);
+            compiler.resolve();
+            return new Compiled(className, compiler.build(), compiler.hasMain());
+        } catch (ResolutionError _) {
+            // reported when thrown
+            return null;
+        } catch (IOException | RuntimeException e) {
+            System.out.println(path + ": " + e.getMessage());
+            return null;
+        } finally {
+            Zeron.leaveScript();
+        }
+    }
+
+    private static Compiled join(final Future<Compiled> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // ---------------------------------------------------------------- packaging
+
+    private String mainClassOf(final List<Compiled> compiled) {
+        if (entry != null) {
+            if (compiled.stream().anyMatch(script -> script.className().equals(entry))) {
+                return entry;
+            }
+            System.out.println("No script compiles to " + entry + ".");
+            return null;
+        }
+
+        final var mains = compiled.stream().filter(Compiled::hasMain).toList();
+        if (mains.size() == 1) return mains.getFirst().className();
+        System.out.println("No entry point: " + mains.size()
+                + " scripts have a main, pick one with --main.");
+        return null;
+    }
+
+    // generated code calls into the compiler's own classes, so they go in the jar too:
+    // from the compiler's jar, or its classes directory when it runs from a build
+    private static void writeRuntime(final JarOutputStream out) throws IOException {
+        final Path location;
+        try {
+            location = Paths.get(Compiler.class.getProtectionDomain()
+                    .getCodeSource()
+                    .getLocation()
+                    .toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (Files.isDirectory(location)) {
+            writeClasses(out, location);
+        } else {
+            try (final var jar = FileSystems.newFileSystem(location)) {
+                writeClasses(out, jar.getPath("/"));
+            }
+        }
+    }
+
+    private static void writeClasses(final JarOutputStream out, final Path root)
+            throws IOException {
+        final var runtime = root.resolve(Zeron.class.getPackageName().replace('.', '/'));
+        final List<Path> classes;
+        try (final var walk = Files.walk(runtime)) {
+            classes = walk.filter(path -> path.toString().endsWith(".class")).sorted().toList();
+        }
+        final var separator = root.getFileSystem().getSeparator();
+        for (final var path : classes) {
+            write(out,
+                  root.relativize(path).toString().replace(separator, "/"),
+                  Files.readAllBytes(path));
+        }
+    }
+
+    private static void write(final JarOutputStream out, final String name, final byte[] bytes)
+            throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        out.write(bytes);
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,84 @@
+package com.maruseron.zeron.compile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassModel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/*
+    On-disk cache of compiled functions. An entry holds the class file a function was
+compiled into on its own (its method and the synthetic methods of its lambdas, all
+owned by the script class) and the size the inliner measured it at. Entries are named
+after a hash of everything the function's code depends on, see Compiler.cacheKeyOf,
+so they're never invalidated: a changed function just hashes somewhere else.
+
+    Entries are written to a temporary file and moved into place, so compilers running
+side by side (see BatchCompiler) can share a directory.
+ */
+final class CompileCache {
+    // part of every key. bump it whenever the compiler changes the code it generates
+    static final int FORMAT = 2;
+
+    private final Path directory;
+
+    record Entry(int measuredSize, ClassModel model) {}
+
+    CompileCache(final Path directory) {
+        this.directory = directory;
+    }
+
+    static String hash(final String content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // null if there's no entry, or it can't be read
+    Entry load(final String key) {
+        try (final var in = new DataInputStream(Files.newInputStream(pathOf(key)))) {
+            final var measuredSize = in.readInt();
+            return new Entry(measuredSize, ClassFile.of().parse(in.readAllBytes()));
+        } catch (IOException | IllegalArgumentException e) {
+            // missing, truncated or not a class file: compile the function, which
+            // overwrites it
+            return null;
+        }
+    }
+
+    // measuredSize is -1 for a function the inliner didn't measure. the cache is only
+    // an accelerator: failing to write it doesn't fail the compile
+    void store(final String key, final int measuredSize, final byte[] bytes) {
+        Path temporary = null;
+        try {
+            final var content = new ByteArrayOutputStream(bytes.length + Integer.BYTES);
+            try (final var out = new DataOutputStream(content)) {
+                out.writeInt(measuredSize);
+                out.write(bytes);
+            }
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temporary, content.toByteArray());
+            Files.move(temporary, pathOf(key), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                if (temporary != null) Files.deleteIfExists(temporary);
+            } catch (IOException _) {}
+        }
+    }
+
+    private Path pathOf(final String key) {
+        return directory.resolve(key + ".zc");
+    }
+}
@@ -1,24 +1,39 @@
 package com.maruseron.zeron.compile;
 
+import com.maruseron.zeron.IntRangeLiteral;
 import com.maruseron.zeron.UnitLiteral;
 import com.maruseron.zeron.analize.Resolver;
 import com.maruseron.zeron.ast.*;
 import com.maruseron.zeron.domain.*;
 import com.maruseron.zeron.domain.FloatDescriptor;
+import com.maruseron.zeron.optimize.Optimizer;
 import com.maruseron.zeron.scan.Token;
+import com.maruseron.zeron.scan.TokenType;
 
 import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.classfile.*;
 import java.lang.classfile.attribute.ConstantValueAttribute;
+import java.lang.classfile.attribute.NestHostAttribute;
+import java.lang.classfile.attribute.NestMembersAttribute;
 import java.lang.classfile.constantpool.ConstantPoolBuilder;
 import java.lang.classfile.constantpool.FieldRefEntry;
 import java.lang.classfile.constantpool.MethodRefEntry;
+import java.lang.classfile.instruction.IncrementInstruction;
+import java.lang.classfile.instruction.LoadInstruction;
+import java.lang.classfile.instruction.ReturnInstruction;
+import java.lang.classfile.instruction.StoreInstruction;
+import java.lang.classfile.instruction.SwitchCase;
 import java.lang.constant.*;
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public final class Compiler {
     // private final List<Local> locals = new ArrayList<>();
@@ -26,141 +41,972 @@ public final class Compiler {
     private final ClassFile classFile = ClassFile.of();
     private final MethodHandles.Lookup lookup = MethodHandles.lookup();
     private final Resolver resolver = new Resolver();
-    private final List<Stmt> declarations;
-    private final String MAIN_NAME = "ZeronMain";
+    private List<Stmt> declarations;
+    // binary name of the class a script compiles to
+    private final String className;
     private SymbolTable symbols = null;
     private TypeDescriptor lastEmittedType = null;
     private FunctionModel currentFunction = null;
+    // set while compiling a lone function into a hidden class, where there's no ZeronMain
+    private boolean standalone = false;
+    // the hot function being compiled, the call sites of the functions it may call, and
+    // the ones it does call, which become the hidden class's data (see HotCalls)
+    private String hotFunction = null;
+    private Function<String, MethodHandle> hotCallees = null;
+    private final Map<String, MethodHandle> hotLinks = new LinkedHashMap<>();
+    // exit label of every loop being emitted, innermost first: where break jumps to
+    private final Deque<Label> breakLabels = new ArrayDeque<>();
+    // inlining, see Inliner. every inlined body being emitted, innermost first, and the
+    // parameters of the innermost one that were bound to literal arguments
+    private int inlineBudget = Inliner.DEFAULT_BUDGET;
+    private Inliner inliner = null;
+    private final Deque<Inlined> inlines = new ArrayDeque<>();
+    private Map<String, Expr.Literal> inlinedConstants = Map.of();
+
+    // where a return inside an inlined body jumps to, with its value on the stack
+    private record Inlined(Label exit, TypeDescriptor returnType) {}
+    // self tail calls of the function being emitted store their arguments over its
+    // parameters and jump back to its start, see emitReturn. null in lambdas
+    private TailCalls tailCalls = null;
+
+    private record TailCalls(String function, Label start,
+                             List<Integer> slots, List<TypeKind> kinds) {}
+    // class the code being emitted lives in: the script's, or a hot function's hidden class
+    private ClassDesc owner;
+    // lambdas emitted so far whose synthetic method is yet to be generated
+    private final Deque<PendingLambda> pendingLambdas = new ArrayDeque<>();
+    // lambdas are named after the declaration they're in, lambda$f$0, lambda$f$1..., so
+    // one function's code doesn't depend on how many lambdas came before it
+    private String lambdaPrefix = "lambda$";
+    private int lambdaCount = 0;
+    // incremental compilation, see CompileCache: the key of every function of the class
+    // being generated, and the entries found for them
+    private CompileCache cache = null;
+    private Map<String, String> cacheKeys = Map.of();
+    private final Map<String, CompileCache.Entry> cached = new HashMap<>();
+    // lazy mode, see setLazy: the class of every function and global that doesn't live
+    // in the script class, and the classes generated next to it, by binary name
+    private boolean lazy = false;
+    // instrumentation, see setProfile
+    private boolean profiling = false;
+    private Map<String, String> functionOwners = Map.of();
+    private Map<String, String> globalOwners = Map.of();
+    private final Map<String, byte[]> companions = new LinkedHashMap<>();
+    // bytes the peephole pass took off every method compiled, see peepholeSavings
+    private final Map<String, Integer> peepholeSavings = new LinkedHashMap<>();
+
+    // a global whose initializer doesn't fold to a constant, set in <clinit>
+    private record Initializer(Token name, TypeDescriptor type, Expr initializer,
+                               boolean isFinal) {}
+
+    private record PendingLambda(String name, Expr.Lambda lambda,
+                                 List<Token> captures, List<TypeDescriptor> captureTypes) {}
+    // method splitting, see Outliner: regions outlined so far whose helper is yet to be
+    // generated. off while measuring, so the inliner sees how big a function really is
+    private boolean outlining = true;
+    private final Deque<PendingPart> pendingParts = new ArrayDeque<>();
+
+    private record PendingPart(String name, List<Stmt> statements,
+                               List<Token> captures, List<TypeDescriptor> captureTypes) {}
+
+    private static final DirectMethodHandleDesc MAKE_CONCAT = MethodHandleDesc.ofMethod(
+            DirectMethodHandleDesc.Kind.STATIC,
+            ClassDesc.of("java.lang.invoke.StringConcatFactory"),
+            "makeConcatWithConstants",
+            MethodTypeDesc.of(
+                    ConstantDescs.CD_CallSite,
+                    ConstantDescs.CD_MethodHandles_Lookup,
+                    ConstantDescs.CD_String,
+                    ConstantDescs.CD_MethodType,
+                    ConstantDescs.CD_String,
+                    ConstantDescs.CD_Object.arrayType()));
+    private static final ClassDesc SYSTEM = ClassDesc.of("java.lang.System");
+    private static final ClassDesc PROFILE = ClassDesc.of(Profile.class.getName());
+    private static final ClassDesc PROFILE_COUNTER = ClassDesc.of(Profile.Counter.class.getName());
+    private static final String PROFILE_PREFIX = "profile$";
+
+    // StringConcatFactory takes at most 200 argument slots per call site
+    private static final int MAX_CONCAT_SLOTS = 200;
+
+    private static final DirectMethodHandleDesc HOT_CALL = MethodHandleDesc.ofMethod(
+            DirectMethodHandleDesc.Kind.STATIC,
+            ClassDesc.of(HotCalls.class.getName()),
+            "link",
+            MethodTypeDesc.of(
+                    ConstantDescs.CD_CallSite,
+                    ConstantDescs.CD_MethodHandles_Lookup,
+                    ConstantDescs.CD_String,
+                    ConstantDescs.CD_MethodType));
+
+    private static final DirectMethodHandleDesc LAMBDA_METAFACTORY = MethodHandleDesc.ofMethod(
+            DirectMethodHandleDesc.Kind.STATIC,
+            ClassDesc.of("java.lang.invoke.LambdaMetafactory"),
+            "metafactory",
+            MethodTypeDesc.of(
+                    ConstantDescs.CD_CallSite,
+                    ConstantDescs.CD_MethodHandles_Lookup,
+                    ConstantDescs.CD_String,
+                    ConstantDescs.CD_MethodType,
+                    ConstantDescs.CD_MethodType,
+                    ConstantDescs.CD_MethodHandle,
+                    ConstantDescs.CD_MethodType));
 
     public Compiler(List<Stmt> declarations) {
+        this(declarations, "ZeronMain");
+    }
+
+    public Compiler(final List<Stmt> declarations, final String className) {
         this.declarations = declarations;
+        this.className = className;
+        this.owner = ClassDesc.of(className);
+    }
+
+    // a compiler for a program that's already resolved and optimized, sharing its symbol
+    // table instead of resolving it again: the tiered engine's, see compileHidden
+    public static Compiler ofResolved(final List<Stmt> program, final SymbolTable symbols) {
+        final var compiler = new Compiler(program);
+        compiler.symbols = symbols;
+        return compiler;
+    }
+
+    // size budget, in bytes of bytecode, of the functions whose calls get inlined. 0
+    // compiles every call as a call
+    public void setInlineBudget(final int bytes) {
+        inlineBudget = bytes;
+    }
+
+    // directory of the compiled function cache, see CompileCache. null compiles
+    // everything every time
+    public void setCache(final Path directory) {
+        cache = directory == null ? null : new CompileCache(directory);
+    }
+
+    /*
+        Lazy mode. A global whose initializer doesn't fold to a constant gets a holder
+    class of its own, so the initializer runs when the global is first read or written
+    instead of when the script starts, and never for a global the run doesn't touch.
+    Functions are split into partitions (see Partitioner), classes the JVM only loads,
+    verifies and initializes once one of their functions is called. Everything stays in
+    the script class otherwise.
+     */
+    public void setLazy(final boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /*
+        Instrumentation. Every function reads System.nanoTime() on entry and reports the
+    call to a Profile.Counter before each return, see Profile. The counters live in the
+    script class, one static final field per function, profile$<function>. Calls that
+    throw aren't counted, and a self tail call is a jump, so it counts as part of the
+    call that made it. Inlining is off: an inlined call would never reach its counter,
+    and the JIT inlines functions that small on its own anyway. Off by default, and off
+    the generated code is the same as without this.
+     */
+    public void setProfile(final boolean profiling) {
+        this.profiling = profiling;
     }
 
+    // resolves the program and replaces it with its optimized form, see Optimizer
     public void resolve() {
         resolver.resolve(declarations);
         symbols = resolver.symbols;
+        declarations = new Optimizer().optimize(declarations);
     }
 
     public void compile() throws IOException {
-        classFile.buildTo(
-                Paths.get(MAIN_NAME + ".class").toAbsolutePath(),
-                ClassDesc.of(MAIN_NAME),
-                cb -> {
-                    generateClass(cb, declarations);
-                });
+        for (final var generated : build().entrySet()) {
+            Files.write(
+                    Paths.get(generated.getKey() + ".class").toAbsolutePath(),
+                    generated.getValue());
+        }
     }
 
-    public void generateClass(final ClassBuilder classBuilder, final List<Stmt> declarations) {
-        record Initializer(Token name, TypeDescriptor type, Expr initializer) {}
+    // the class files of the script by binary name, the script class first, for callers
+    // that package them themselves (see BatchCompiler)
+    public Map<String, byte[]> build() {
+        companions.clear();
+        peepholeSavings.clear();
+        final var classes = new LinkedHashMap<String, byte[]>();
+        classes.put(className, classFile.build(
+                ClassDesc.of(className),
+                cb -> generateClass(cb, declarations)));
+        classes.putAll(companions);
+        return classes;
+    }
+
+    /*
+        Compiles the script and runs it in this JVM, without touching the disk. Every
+    script gets its own ScriptLoader, so several ZeronMain classes can be live at once
+    without clashing, and each one goes away with its loader. Loading initializes the
+    class, which runs the global initializers, and then main runs if the script has one.
+    The loader defines every other class of the script when it's first needed.
+     */
+    public void run() {
+        final MethodHandle main;
+        try {
+            final var loader = new ScriptLoader(Compiler.class.getClassLoader(), build());
+            final var script = Class.forName(className, true, loader);
+            if (!hasMain()) return;
+
+            main = MethodHandles.privateLookupIn(script, lookup)
+                    .findStatic(script, "main", MethodType.methodType(void.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+
+        try {
+            main.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    // bytes the peephole pass took off each method of the last build, by method name, in
+    // the order they were compiled. functions loaded from the cache weren't compiled, so
+    // they aren't here
+    public Map<String, Integer> peepholeSavings() {
+        return Collections.unmodifiableMap(peepholeSavings);
+    }
+
+    public boolean hasMain() {
+        return declarations.stream().anyMatch(declaration ->
+                declaration instanceof Stmt.Function function
+                        && function.name().lexeme().equals("main"));
+    }
+
+    // one loader per script. the parent is the compiler's own loader, so generated code
+    // links against the runtime it calls into (see Natives)
+    private static final class ScriptLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
 
-        var hasMain = false;
+        ScriptLoader(final ClassLoader parent, final Map<String, byte[]> classes) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(final String name) throws ClassNotFoundException {
+            final var bytes = classes.get(name);
+            if (bytes == null) throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    public void generateClass(final ClassBuilder classBuilder, final List<Stmt> declarations) {
+        Stmt.Function main = null;
         final var initializers = new ArrayList<Initializer>();
+        planLazy(declarations);
+        cacheKeys = cache == null ? Map.of() : cacheKeysOf(declarations);
+        cached.clear();
+        measureFunctions(declarations);
+        final var partitions = new LinkedHashMap<String, List<Stmt.Function>>();
         // pass to emit declarations: variables as static fields, functions as static methods
         for (final var declaration : declarations) {
             switch (declaration) {
-                case Stmt.Var(Token name, _, Expr initializer, boolean isFinal) -> {
+                case Stmt.Var var when globalOwners.containsKey(var.name().lexeme()) ->
+                        generateHolder(var);
+                case Stmt.Var var -> {
+                    final var name = var.name();
+                    final var initializer = var.initializer();
                     // attempt to prefold the initializer to set as a constant value attribute in
                     // case it's applicable
                     final ConstantDesc value = tryFold(initializer);
                     final var type = symbols.getSymbol(name).type();
-                    // set field
-                    classBuilder.withField(
-                            name.lexeme(),
-                            TypeDescriptor.toJavaClassDesc(type),
-                            fieldBuilder -> {
-                                fieldBuilder.withFlags(isFinal
-                                        ? ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC | ClassFile.ACC_FINAL
-                                        : ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC);
-
-                                // if the initializer could be folded to a constant expression,
-                                // set it as a constant value attribute of the field.
-                                // else, add it to the unfolded initializer list
-                                if (value != null) {
-                                    fieldBuilder.with(
-                                            ConstantValueAttribute.of(value));
-                                } else {
-                                    initializers.add(new Initializer(name, type, initializer));
-                                }
-                            });
+                    // if the initializer could be folded to a constant expression, set it as
+                    // a constant value attribute of the field. else, add it to the unfolded
+                    // initializer list, and the field is declared along with <clinit>
+                    if (value != null) {
+                        classBuilder.withField(
+                                name.lexeme(),
+                                TypeDescriptor.toJavaClassDesc(type),
+                                fieldBuilder -> {
+                                    fieldBuilder.withFlags(globalFlags(var.isFinal()));
+                                    fieldBuilder.with(ConstantValueAttribute.of(value));
+                                });
+                    } else {
+                        initializers.add(new Initializer(name, type, initializer, var.isFinal()));
+                    }
                 }
-                case Stmt.Function(Token name, List<Token> parameters,
-                                   FunctionDescriptor typeDescriptor, List<Stmt> body) -> {
-                    if (name.lexeme().equals("main")) hasMain = true;
-                    classBuilder.withMethodBody(
-                            name.lexeme(),
-                            toJavaMethodDescriptor((FunctionDescriptor)symbols.getFunction(name).type()),
-                            ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC | ClassFile.ACC_FINAL,
-                            composer -> {
-                                beginScope();
-                                final var paramTypes = typeDescriptor.parameters();
-                                for (int i = 0; i < parameters.size(); i++) {
-                                    symbols.declareSymbol(
-                                            declaration,
-                                            parameters.get(i),
-                                            paramTypes.get(i),
-                                            true);
-                                    symbols.define(parameters.get(i));
-                                }
-
-                                currentFunction = new FunctionModel(
-                                        name.lexeme(),
-                                        symbols.getFunctionType(name));
-
-                                composer.transforming(
-                                        (builder, element) -> {
-                                            if (element instanceof Instruction i) {
-                                                currentFunction.add(i, i.opcode().kind(), null, null, null);
-                                            }
-                                            builder.with(element);
-                                        },
-                                        builder -> emitStmts(builder, body));
-
-                                if ((symbols.getFunctionType(name)).returnType() instanceof UnitDescriptor) {
-                                    composer.aconst_null();
-                                    composer.areturn();
-                                }
-
-                                endScope();
-                                System.out.println(currentFunction);
-                            });
+                case Stmt.Function function
+                        when functionOwners.containsKey(function.name().lexeme()) ->
+                        partitions.computeIfAbsent(
+                                functionOwners.get(function.name().lexeme()),
+                                _ -> new ArrayList<>()).add(function);
+                case Stmt.Function function -> {
+                    if (function.name().lexeme().equals("main")) main = function;
+                    generateTopLevel(classBuilder, function);
                 }
                 default -> {}
             }
         }
-        if (hasMain) {
+        partitions.forEach(this::generatePartition);
+        if (!companions.isEmpty()) {
+            classBuilder.with(NestMembersAttribute.ofSymbols(
+                    companions.keySet().stream().map(ClassDesc::of).toList()));
+        }
+        // a Unit main compiles to main()V and already is the JVM entry point. any other
+        // main gets a ()V bridge that drops its result
+        final var mainType = main == null
+                ? null
+                : toJavaMethodDescriptor(symbols.getFunctionType(main.name()));
+        if (mainType != null && !mainType.equals(emptyVoidMethod())) {
             classBuilder.withMethodBody(
                     "main",
                     emptyVoidMethod(),
                     ClassFile.ACC_STATIC,
                     composer -> {
-                        composer.invokestatic(composer.constantPool().methodRefEntry(
-                                ClassDesc.of(MAIN_NAME),
-                                "main",
-                                MethodTypeDesc.of(ConstantDescs.CD_Void)));
+                        composer.invokestatic(ClassDesc.of(className), "main", mainType);
+                        // a Float takes two stack slots, see discard
+                        if (mainType.returnType().descriptorString().equals("D")) composer.pop2();
+                        else composer.pop();
                         composer.return_();
                     });
         }
         // static initializer !
-        if (!initializers.isEmpty()) {
+        final var profiled = new ArrayList<String>();
+        if (profiling) {
+            for (final var declaration : declarations) {
+                if (declaration instanceof Stmt.Function function) {
+                    profiled.add(function.name().lexeme());
+                    classBuilder.withField(
+                            PROFILE_PREFIX + function.name().lexeme(),
+                            PROFILE_COUNTER,
+                            ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC | ClassFile.ACC_FINAL);
+                }
+            }
+        }
+        if (!initializers.isEmpty() || !profiled.isEmpty()) {
+            final var outlined = generateStaticInitializer(classBuilder, profiled, initializers);
+            for (final var initializer : initializers) {
+                classBuilder.withField(
+                        initializer.name().lexeme(),
+                        TypeDescriptor.toJavaClassDesc(initializer.type()),
+                        globalFlags(initializer.isFinal() && !outlined));
+            }
+        }
+    }
+
+    private static int globalFlags(final boolean isFinal) {
+        return isFinal
+                ? ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC | ClassFile.ACC_FINAL
+                : ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC;
+    }
+
+    /*
+        The unfolded global initializers, in order, after the profile counters if any.
+    Like any other method, a <clinit> past HugeMethodLimit is never JIT compiled, and a
+    data table script can spend all its time in one: the initializers are moved in runs
+    to helper methods, static$part$0, static$part$1..., called from <clinit> in order.
+    Only <clinit> may set a final static field, so the globals they set lose ACC_FINAL,
+    which the resolver enforces anyway. Returns whether that happened.
+     */
+    private boolean generateStaticInitializer(final ClassBuilder classBuilder,
+                                              final List<String> profiled,
+                                              final List<Initializer> initializers) {
+        lambdaPrefix = "lambda$static$";
+        lambdaCount = 0;
+        final var runs = new ArrayList<List<Initializer>>();
+        classBuilder.withMethodBody(
+                "<clinit>",
+                emptyVoidMethod(),
+                ClassFile.ACC_STATIC,
+                composer -> {
+                    // counters first: initializers may call functions
+                    for (final var function : profiled) {
+                        composer.ldc(className);
+                        composer.ldc(function);
+                        composer.invokestatic(PROFILE, "counter", MethodTypeDesc.of(
+                                PROFILE_COUNTER, ConstantDescs.CD_String, ConstantDescs.CD_String));
+                        composer.putstatic(ClassDesc.of(className),
+                                PROFILE_PREFIX + function, PROFILE_COUNTER);
+                    }
+                    // buffered, and measured one initializer at a time
+                    final var code = new ArrayList<CodeElement>();
+                    final var sizes = new ArrayList<Integer>();
+                    composer.transforming(
+                            (_, element) -> code.add(element),
+                            builder -> {
+                                for (final var initializer : initializers) {
+                                    final var start = code.size();
+                                    emitInitializer(builder, initializer);
+                                    sizes.add(Peephole.sizeInBytes(
+                                            code.subList(start, code.size())));
+                                }
+                            });
+
+                    if (Peephole.sizeInBytes(code) <= Outliner.HUGE_METHOD_LIMIT) {
+                        for (final var element : code) composer.with(element);
+                    } else {
+                        pendingLambdas.clear();
+                        lambdaCount = 0;
+                        runs.addAll(Outliner.pack(initializers, sizes));
+                        for (int i = 0; i < runs.size(); i++) {
+                            composer.invokestatic(ClassDesc.of(className),
+                                    "static$part$" + i, emptyVoidMethod());
+                        }
+                    }
+                    composer.return_();
+                });
+
+        for (int i = 0; i < runs.size(); i++) {
+            final var run = runs.get(i);
             classBuilder.withMethodBody(
+                    "static$part$" + i,
+                    emptyVoidMethod(),
+                    ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC,
+                    composer -> {
+                        for (final var initializer : run) emitInitializer(composer, initializer);
+                        composer.return_();
+                    });
+        }
+        generatePendingLambdas(classBuilder);
+        return !runs.isEmpty();
+    }
+
+    private void emitInitializer(final CodeBuilder composer, final Initializer initializer) {
+        emitExpr(composer, initializer.initializer());
+        composer.putstatic(ClassDesc.of(className), initializer.name().lexeme(),
+                TypeDescriptor.toJavaClassDesc(initializer.type()));
+    }
+
+    // a top level function and its lambdas, from the cache when there is one
+    private void generateTopLevel(final ClassBuilder classBuilder, final Stmt.Function function) {
+        lambdaPrefix = "lambda$" + function.name().lexeme() + "$";
+        lambdaCount = 0;
+        final var key = cacheKeys.get(function.name().lexeme());
+        if (key == null) {
+            generateFunction(classBuilder, function);
+            generatePendingLambdas(classBuilder);
+        } else {
+            spliceFunction(classBuilder, function, key);
+        }
+    }
+
+    // ---------------------------------------------------------------- lazy mode
+
+    // decides which functions and globals leave the script class, see setLazy
+    private void planLazy(final List<Stmt> declarations) {
+        functionOwners = new HashMap<>();
+        globalOwners = new HashMap<>();
+        if (!lazy) return;
+
+        final var callees = new LinkedHashMap<String, Set<String>>();
+        // functions called by a global initializer: their holder is a caller too
+        final var roots = new HashSet<String>();
+        for (final var declaration : declarations) {
+            final var names = new HashMap<String, Token>();
+            switch (declaration) {
+                case Stmt.Function function -> {
+                    collectNames(function.body(), names);
+                    callees.put(function.name().lexeme(), names.keySet());
+                }
+                case Stmt.Var var
+                        when var.initializer() != null && tryFold(var.initializer()) == null -> {
+                    globalOwners.put(var.name().lexeme(),
+                            className + "$Global$" + var.name().lexeme());
+                    collectNames(var.initializer(), names);
+                    roots.addAll(names.keySet());
+                }
+                default -> {}
+            }
+        }
+        new Partitioner(callees, roots).partition("main").forEach((function, partition) ->
+                functionOwners.put(function, className + "$" + partition));
+    }
+
+    private ClassDesc functionOwner(final String function) {
+        return ClassDesc.of(functionOwners.getOrDefault(function, className));
+    }
+
+    private ClassDesc globalOwner(final String global) {
+        return ClassDesc.of(globalOwners.getOrDefault(global, className));
+    }
+
+    private void generatePartition(final String partition, final List<Stmt.Function> functions) {
+        final var enclosing = owner;
+        owner = ClassDesc.of(partition);
+        companions.put(partition, classFile.build(owner, cb -> {
+            cb.with(NestHostAttribute.of(ClassDesc.of(className)));
+            for (final var function : functions) {
+                generateTopLevel(cb, function);
+            }
+        }));
+        owner = enclosing;
+    }
+
+    // a global initialized on first use: the field and its initializer get a class of
+    // their own, which the JVM initializes right before the field is first accessed
+    private void generateHolder(final Stmt.Var var) {
+        final var name = var.name().lexeme();
+        final var holder = globalOwners.get(name);
+        final var javaType = TypeDescriptor.toJavaClassDesc(symbols.getSymbol(var.name()).type());
+        final var enclosing = owner;
+        owner = ClassDesc.of(holder);
+        lambdaPrefix = "lambda$" + name + "$";
+        lambdaCount = 0;
+        companions.put(holder, classFile.build(owner, cb -> {
+            cb.with(NestHostAttribute.of(ClassDesc.of(className)));
+            cb.withField(name, javaType, globalFlags(var.isFinal()));
+            cb.withMethodBody(
                     "<clinit>",
                     emptyVoidMethod(),
                     ClassFile.ACC_STATIC,
                     composer -> {
-                        // pass to emit static initializers:
-                        for (final var pair : initializers) {
-                            final var name = pair.name();
-                            final var type = pair.type();
-                            final var initializer = pair.initializer();
-
-                            // if fails, just emit the expression normally
-                            emitExpr(composer, initializer);
-                            composer.putstatic(ClassDesc.of(MAIN_NAME), name.lexeme(),
-                                    TypeDescriptor.toJavaClassDesc(type));
-                        }
+                        emitExpr(composer, var.initializer());
+                        composer.putstatic(owner, name, javaType);
                         composer.return_();
                     });
+            generatePendingLambdas(cb);
+        }));
+        owner = enclosing;
+    }
+
+    private void generateFunction(final ClassBuilder classBuilder, final Stmt.Function function) {
+        final var type = symbols.getFunctionType(function.name());
+        generateMethod(
+                classBuilder,
+                function.name().lexeme(),
+                ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC | ClassFile.ACC_FINAL,
+                function,
+                function.parameters(),
+                function.typeDescriptor().parameters(),
+                type,
+                function.body());
+    }
+
+    // the synthetic method behind a lambda takes its captures first, then its parameter
+    private void generateLambda(final ClassBuilder classBuilder, final PendingLambda pending) {
+        final var lambda = pending.lambda();
+        final var type = (FunctionDescriptor) lambda.getType();
+        final var parameters = new ArrayList<>(pending.captures());
+        final var parameterTypes = new ArrayList<>(pending.captureTypes());
+        if (lambda.param != null) {
+            parameters.add(lambda.param);
+            parameterTypes.add(type.parameters().getFirst());
+        }
+        generateMethod(
+                classBuilder,
+                pending.name(),
+                ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC,
+                Resolver.SYNTHETIC_VAR,
+                parameters,
+                parameterTypes,
+                type,
+                lambda.body);
+    }
+
+    // lambdas and outlined regions found while emitting a method are generated after
+    // it, and may queue more
+    private void generatePendingLambdas(final ClassBuilder classBuilder) {
+        while (!pendingLambdas.isEmpty() || !pendingParts.isEmpty()) {
+            if (pendingParts.isEmpty()) {
+                generateLambda(classBuilder, pendingLambdas.poll());
+            } else {
+                generatePart(classBuilder, pendingParts.poll());
+            }
+        }
+    }
+
+    /*
+        A body that comes out bigger than HugeMethodLimit is emitted again, with the
+    regions the Outliner picks moved to helper methods (see generatePart), so the JIT
+    doesn't leave it interpreted. The first pass is only thrown away: the body is
+    buffered, nothing reached the method yet.
+     */
+    private void generateMethod(final ClassBuilder classBuilder,
+                                final String name,
+                                final int flags,
+                                final Stmt declaration,
+                                final List<Token> parameters,
+                                final List<TypeDescriptor> parameterTypes,
+                                final FunctionDescriptor type,
+                                final List<Stmt> body) {
+        classBuilder.withMethodBody(
+                name,
+                MethodTypeDesc.of(
+                        returnedJavaType(type.returnType()),
+                        parameterTypes.stream().map(TypeDescriptor::toJavaClassDesc).toList()),
+                flags,
+                composer -> {
+                    final var lambdas = pendingLambdas.size();
+                    final var firstLambda = lambdaCount;
+                    final var sizes = new ArrayList<Integer>();
+                    var code = emitBody(composer, name, declaration, parameters,
+                            parameterTypes, type, body, List.of(), sizes);
+                    var optimized = Peephole.optimize(code);
+
+                    if (outlining && Peephole.sizeInBytes(optimized) > Outliner.HUGE_METHOD_LIMIT) {
+                        final var regions = new Outliner(body, sizes, globalNames()).plan();
+                        if (!regions.isEmpty()) {
+                            while (pendingLambdas.size() > lambdas) pendingLambdas.removeLast();
+                            lambdaCount = firstLambda;
+                            code = emitBody(composer, name, declaration, parameters,
+                                    parameterTypes, type, body, regions, null);
+                            optimized = Peephole.optimize(code);
+                        }
+                    }
+
+                    currentFunction.bytesSaved(
+                            Peephole.sizeInBytes(code) - Peephole.sizeInBytes(optimized));
+                    peepholeSavings.put(name, currentFunction.bytesSaved());
+                    // probes go in after the peephole pass, so they're never rewritten
+                    final var probed = profiling && !standalone
+                            && declaration instanceof Stmt.Function;
+                    final var start = probed ? firstFreeSlot(parameterTypes, optimized) : -1;
+                    if (probed) {
+                        composer.invokestatic(SYSTEM, "nanoTime",
+                                MethodTypeDesc.of(ConstantDescs.CD_long));
+                        composer.lstore(start);
+                    }
+                    for (final var element : optimized) {
+                        if (element instanceof Instruction i) {
+                            currentFunction.add(i, i.opcode().kind(), null, null, null);
+                        }
+                        if (probed && element instanceof ReturnInstruction) {
+                            composer.getstatic(ClassDesc.of(className),
+                                    PROFILE_PREFIX + name, PROFILE_COUNTER);
+                            composer.lload(start);
+                            composer.invokevirtual(PROFILE_COUNTER, "exit",
+                                    MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_long));
+                        }
+                        composer.with(element);
+                    }
+                });
+    }
+
+    // the lowest local slot neither the parameters nor the body use
+    private static int firstFreeSlot(final List<TypeDescriptor> parameterTypes,
+                                     final List<CodeElement> code) {
+        var free = 0;
+        for (final var type : parameterTypes) {
+            free += TypeKind.fromDescriptor(TypeDescriptor.toJavaClassDesc(type)
+                    .descriptorString()).slotSize();
+        }
+        for (final var element : code) {
+            switch (element) {
+                case LoadInstruction load ->
+                        free = Math.max(free, load.slot() + load.typeKind().slotSize());
+                case StoreInstruction store ->
+                        free = Math.max(free, store.slot() + store.typeKind().slotSize());
+                case IncrementInstruction increment ->
+                        free = Math.max(free, increment.slot() + 1);
+                default -> {}
+            }
+        }
+        return free;
+    }
+
+    /*
+        Emits a method body into a buffer, with every region in regions replaced by a
+    call to its helper, method$part$0, method$part$1... When sizes isn't null it gets
+    the bytes each statement took, before the peephole pass.
+     */
+    private List<CodeElement> emitBody(final CodeBuilder composer,
+                                       final String name,
+                                       final Stmt declaration,
+                                       final List<Token> parameters,
+                                       final List<TypeDescriptor> parameterTypes,
+                                       final FunctionDescriptor type,
+                                       final List<Stmt> body,
+                                       final List<List<Stmt>> regions,
+                                       final List<Integer> sizes) {
+        beginScope();
+        final var slots = new ArrayList<Integer>();
+        final var kinds = new ArrayList<TypeKind>();
+        for (int i = 0; i < parameters.size(); i++) {
+            slots.add(symbols.declareSymbol(
+                    declaration,
+                    parameters.get(i),
+                    parameterTypes.get(i),
+                    true));
+            kinds.add(TypeKind.fromDescriptor(TypeDescriptor
+                    .toJavaClassDesc(parameterTypes.get(i))
+                    .descriptorString()));
+            symbols.define(parameters.get(i));
+        }
+
+        currentFunction = new FunctionModel(name, type);
+
+        // regions by their first statement
+        final var outlined = new IdentityHashMap<Stmt, Integer>();
+        for (int i = 0; i < regions.size(); i++) outlined.put(regions.get(i).getFirst(), i);
+
+        // the body is buffered instead of going straight to the method, so
+        // the peephole pass can rewrite it as a whole before it's finalized
+        final var code = new ArrayList<CodeElement>();
+        composer.transforming(
+                (_, element) -> code.add(element),
+                builder -> {
+                    tailCalls = declaration instanceof Stmt.Function function
+                            ? new TailCalls(function.name().lexeme(),
+                                            builder.newBoundLabel(),
+                                            slots,
+                                            kinds)
+                            : null;
+                    int i = 0;
+                    while (i < body.size()) {
+                        final var region = outlined.get(body.get(i));
+                        if (region != null) {
+                            emitPartCall(builder, name + "$part$" + region, regions.get(region));
+                            i += regions.get(region).size();
+                            continue;
+                        }
+                        final var start = code.size();
+                        emitStmt(builder, body.get(i++));
+                        if (sizes != null) {
+                            sizes.add(Peephole.sizeInBytes(code.subList(start, code.size())));
+                        }
+                    }
+                    if (type.returnType() instanceof UnitDescriptor) {
+                        builder.return_();
+                    }
+                });
+
+        endScope();
+        return code;
+    }
+
+    // an outlined region takes the locals it reads, the way a lambda takes its captures
+    private void emitPartCall(final CodeBuilder composer,
+                              final String name,
+                              final List<Stmt> region) {
+        final var names = new LinkedHashMap<String, Token>();
+        collectNames(region, names);
+        final var captures = new ArrayList<Token>();
+        final var captureTypes = new ArrayList<TypeDescriptor>();
+        for (final var local : names.values()) {
+            if (symbols.containsSymbol(local)
+                    && symbols.getSymbol(local).lvt() != SymbolTable.GLOBAL) {
+                captures.add(local);
+                captureTypes.add(symbols.getSymbol(local).type());
+            }
+        }
+        for (int i = 0; i < captures.size(); i++) {
+            emitExpr(composer, new Expr.Variable(captures.get(i), captureTypes.get(i)));
+        }
+        composer.invokestatic(owner, name, MethodTypeDesc.of(
+                ConstantDescs.CD_void,
+                captureTypes.stream().map(TypeDescriptor::toJavaClassDesc).toList()));
+        pendingParts.add(new PendingPart(name, region, captures, captureTypes));
+    }
+
+    private void generatePart(final ClassBuilder classBuilder, final PendingPart pending) {
+        generateMethod(
+                classBuilder,
+                pending.name(),
+                ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC,
+                Resolver.SYNTHETIC_VAR,
+                pending.captures(),
+                pending.captureTypes(),
+                TypeDescriptor.functionOf(
+                        pending.name(),
+                        TypeDescriptor.ofUnit(),
+                        pending.captureTypes().toArray(TypeDescriptor[]::new)),
+                pending.statements());
+    }
+
+    // the names an outlined region can assign, since they aren't in its frame
+    private Set<String> globalNames() {
+        final var globals = new HashSet<String>();
+        for (final var declaration : declarations) {
+            if (declaration instanceof Stmt.Var var) globals.add(var.name().lexeme());
+        }
+        return globals;
+    }
+
+    /*
+        Compiles every function once on its own, into a class that's thrown away, so the
+    inliner knows how big each one is after the peephole pass. Nothing is inlined while
+    measuring, and a function that can't be compiled is left unmeasured, which keeps it
+    out of the inliner.
+     */
+    private void measureFunctions(final List<Stmt> declarations) {
+        final var measuring = new Inliner(declarations, profiling ? 0 : inlineBudget);
+        inliner = null;
+        outlining = false;
+        if (measuring.enabled()) {
+            for (final var declaration : declarations) {
+                if (!(declaration instanceof Stmt.Function function)) continue;
+                final var entry = cachedEntryOf(function.name().lexeme());
+                if (entry != null) {
+                    if (entry.measuredSize() >= 0) {
+                        measuring.measured(function.name().lexeme(), entry.measuredSize());
+                    }
+                    continue;
+                }
+                final var depth = symbols.scopeDepth();
+                try {
+                    classFile.build(ClassDesc.of(className), cb -> generateFunction(cb, function));
+                    measuring.measured(function.name().lexeme(), currentFunction.size());
+                } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                    symbols.unwindTo(depth);
+                    breakLabels.clear();
+                }
+                // the lambdas of a measured body aren't part of its size
+                pendingLambdas.clear();
+                pendingParts.clear();
+            }
+        }
+        inliner = measuring;
+        outlining = true;
+    }
+
+    /*
+        A function found in the cache is copied into the class as it was compiled, along
+    with its lambdas. One that isn't is compiled on its own, into a class with the same
+    name so every reference in it still points to the script class, stored, and then
+    copied in the same way.
+     */
+    private void spliceFunction(final ClassBuilder classBuilder,
+                                final Stmt.Function function,
+                                final String key) {
+        final var name = function.name().lexeme();
+        var entry = cachedEntryOf(name);
+        if (entry == null) {
+            final var bytes = classFile.build(owner, cb -> {
+                generateFunction(cb, function);
+                generatePendingLambdas(cb);
+            });
+            final var measuredSize = inliner.measuredSize(name);
+            cache.store(key, measuredSize, bytes);
+            entry = new CompileCache.Entry(measuredSize, classFile.parse(bytes));
+        }
+        for (final var method : entry.model().methods()) {
+            classBuilder.with(method);
+        }
+    }
+
+    private CompileCache.Entry cachedEntryOf(final String function) {
+        final var key = cacheKeys.get(function);
+        if (key == null) return null;
+        return cached.computeIfAbsent(function, _ -> cache.load(key));
+    }
+
+    /*
+        The cache key of a function is a hash of its resolved, optimized declaration
+    (types included, lines not: they never reach the bytecode) and of whatever it uses
+    from the rest of the program. A global contributes its declaration. A function
+    contributes its own key, since it may get inlined, unless it's on the way back to
+    the one being hashed: then it's recursive, never inlined, and only its signature
+    ends up in the code.
+     */
+    private Map<String, String> cacheKeysOf(final List<Stmt> declarations) {
+        final var topLevel = new HashMap<String, Stmt>();
+        for (final var declaration : declarations) {
+            switch (declaration) {
+                case Stmt.Function function -> topLevel.put(function.name().lexeme(), function);
+                case Stmt.Var var -> topLevel.put(var.name().lexeme(), var);
+                default -> {}
+            }
+        }
+
+        final var keys = new HashMap<String, String>();
+        for (final var declaration : topLevel.values()) {
+            if (declaration instanceof Stmt.Function function) {
+                cacheKeyOf(function, topLevel, keys, new HashSet<>());
+            }
+        }
+        return keys;
+    }
+
+    private String cacheKeyOf(final Stmt.Function function,
+                              final Map<String, Stmt> topLevel,
+                              final Map<String, String> keys,
+                              final Set<String> visiting) {
+        final var name = function.name().lexeme();
+        if (keys.containsKey(name)) return keys.get(name);
+        visiting.add(name);
+
+        final var content = new StringBuilder()
+                .append(CompileCache.FORMAT).append(' ')
+                .append(functionOwner(name).descriptorString()).append(' ')
+                .append(inlineBudget).append(' ')
+                .append(profiling).append('\n')
+                .append(function).append('\n');
+        final var names = new HashMap<String, Token>();
+        collectNames(function.body(), names);
+        for (final var used : new TreeSet<>(names.keySet())) {
+            switch (topLevel.get(used)) {
+                // locals and natives
+                case null -> {}
+                case Stmt.Function callee when visiting.contains(used) ->
+                        content.append(used).append(": ")
+                               .append(symbols.getFunctionType(callee.name())).append(' ')
+                               .append(functionOwner(used).descriptorString()).append('\n');
+                case Stmt.Function callee ->
+                        content.append(cacheKeyOf(callee, topLevel, keys, visiting)).append('\n');
+                case Stmt declaration -> content.append(declaration).append(' ')
+                        .append(globalOwner(used).descriptorString()).append('\n');
+            }
+        }
+
+        visiting.remove(name);
+        final var key = CompileCache.hash(content.toString());
+        keys.put(name, key);
+        return key;
+    }
+
+    /*
+        Tiered execution: compiles a single function into a hidden class of this package
+    and returns a handle to its static method, typed after the function's declared java
+    signature. Calls to the function itself stay in the class; calls to any other go
+    through its call site in callees (see HotCalls). The hidden class has no ZeronMain to
+    read globals from, so anything the compiler can't emit on its own (globals, nullable
+    parameters, ...) throws and the caller keeps interpreting the function. A failed
+    compile is unwound, so one compiler (see ofResolved) serves every hot function.
+     */
+    public MethodHandle compileHidden(final Stmt.Function function,
+                                      final Function<String, MethodHandle> callees)
+            throws ReflectiveOperationException {
+        final var type = symbols.getFunctionType(function.name());
+        if (type.returnType().isNullable()
+                || type.parameters().stream().anyMatch(TypeDescriptor::isNullable)) {
+            todo("hidden: nullable signatures");
+        }
+        // the interpreter's function values aren't functional interfaces
+        if (type.returnType() instanceof FunctionDescriptor
+                || type.parameters().stream().anyMatch(t -> t instanceof FunctionDescriptor)) {
+            todo("hidden: function values in the signature");
         }
+
+        final var name = function.name().lexeme();
+        final var owner = ClassDesc.of(Compiler.class.getPackageName(), "Hot$" + name);
+        // the program doesn't change while it runs: measure it for the first hot function
+        if (inliner == null) measureFunctions(declarations);
+        standalone = true;
+        hotFunction = name;
+        hotCallees = callees;
+        hotLinks.clear();
+        lambdaPrefix = "lambda$" + name + "$";
+        lambdaCount = 0;
+        this.owner = owner;
+        final var depth = symbols.scopeDepth();
+        final byte[] bytes;
+        try {
+            bytes = classFile.build(owner, cb -> {
+                generateFunction(cb, function);
+                generatePendingLambdas(cb);
+            });
+        } catch (RuntimeException e) {
+            // drop whatever the function left half done, for the next one
+            symbols.unwindTo(depth);
+            breakLabels.clear();
+            inlines.clear();
+            inlinedConstants = Map.of();
+            tailCalls = null;
+            pendingLambdas.clear();
+            pendingParts.clear();
+            throw e;
+        }
+
+        // initializing links the class, so bytecode the verifier rejects fails right here
+        final var hidden = lookup.defineHiddenClassWithClassData(bytes, Map.copyOf(hotLinks), true);
+        return hidden.findStatic(
+                hidden.lookupClass(),
+                name,
+                toJavaMethodDescriptor(type).resolveConstantDesc(hidden));
     }
 
     public void emitStmts(final CodeBuilder builder, final List<Stmt> statements) {
@@ -185,40 +1031,79 @@ public final class Compiler {
                     if (value == 1) {
                         emitStmt(composer, thenBranch);
                     }
-                    // if false, only emit elseBranch
-                    else {
+                    // if false, only emit elseBranch, if there is one
+                    else if (elseBranch != null) {
                         emitStmt(composer, elseBranch);
                     }
                 }
                 // condition must be emitted
                 else {
-                    emitExpr(composer, condition);
+                    final var otherwise = composer.newLabel();
+                    emitBranch(composer, condition, false, otherwise);
+                    emitStmt(composer, thenBranch);
                     if (elseBranch != null) {
-                        composer.ifThenElse(
-                                c -> emitStmt(c, thenBranch),
-                                c -> emitStmt(c, elseBranch));
+                        final var end = composer.newLabel();
+                        composer.goto_(end);
+                        composer.labelBinding(otherwise);
+                        emitStmt(composer, elseBranch);
+                        composer.labelBinding(end);
                     } else {
-                        composer.ifThen(c -> emitStmt(c, thenBranch));
+                        composer.labelBinding(otherwise);
                     }
                 }
             }
             case Stmt.Print(Expr expression) -> {
                 composer.getstatic(getStdOut(composer.constantPool()));
                 emitExpr(composer, expression);
-                composer.invokevirtual(getPrintln(composer.constantPool()));
+                // the primitive overloads print the same text as the boxed value would
+                composer.invokevirtual(getPrintln(composer.constantPool(), lastEmittedType));
             }
-            case Stmt.Expression(Expr expression) ->
-                    emitExpr(composer, expression);
-            case Stmt.Return(Expr expression) -> {
+            case Stmt.Expression(Expr expression) -> {
                 emitExpr(composer, expression);
-                composer.return_(TypeKind.fromDescriptor(lastEmitted().javaType().descriptorString()));
+                // statements leave the stack empty, which loop back edges rely on
+                discard(composer);
+            }
+            case Stmt.While(Token keyword, Expr condition, Stmt body) -> {
+                // while, until and loop alike: test at the top, break jumps past the
+                // back branch
+                final var top = composer.newBoundLabel();
+                final var exit = composer.newLabel();
+                emitBranch(composer, condition, false, exit);
+                breakLabels.push(exit);
+                emitStmt(composer, body);
+                breakLabels.pop();
+                composer.goto_(top);
+                composer.labelBinding(exit);
             }
-            case Stmt.Var(Token name, TypeDescriptor type, Expr initializer, boolean isFinal) -> {
+            case Stmt.For loop ->
+                    emitForRange(composer, loop);
+            case Stmt.Break _ ->
+                    composer.goto_(breakLabels.peek());
+            case Stmt.Return(Expr expression) when !inlines.isEmpty() -> {
+                // returning from an inlined body: leave the value and jump past the body
+                final var inlined = inlines.peek();
+                if (expression != null) {
+                    emitExpr(composer, expression);
+                    if (inlined.returnType() instanceof UnitDescriptor) discard(composer);
+                }
+                composer.goto_(inlined.exit());
+            }
+            case Stmt.Return(Expr expression) ->
+                    emitReturn(composer, expression);
+            case Stmt.Var var -> {
+                final var name = var.name();
+                final var type = var.type();
+                final var initializer = var.initializer();
+                final var isFinal = var.isFinal();
                 // if there is an initializer,
                 if (initializer != null) {
                     ConstantDesc value = tryFold(initializer);
                     if (value != null) {
                         emitConstant(composer, value);
+                        // booleans fold to 1 and 0, keep the bind a Boolean
+                        if (initializer.getType() instanceof BooleanDescriptor) {
+                            lastEmittedType = TypeDescriptor.ofBoolean();
+                        }
                     } else {
                         emitExpr(composer, initializer);
                     }
@@ -235,8 +1120,72 @@ public final class Compiler {
         }
     }
 
+    /*
+        A return. One of a self tail call (see Expr.Call.isTailCall) doesn't call at all:
+    the arguments are evaluated, stored over the parameters, and the body starts over.
+    Recursion in tail position then runs in constant stack, at the speed of a loop. A
+    returned if expression returns from each branch, so calls in them are in tail
+    position too.
+     */
+    private void emitReturn(final CodeBuilder composer, final Expr expression) {
+        switch (expression) {
+            case Expr.Call call when call.isTailCall()
+                    && tailCalls != null
+                    && tailCalls.function().equals(call.callee.lexeme()) -> {
+                for (final var argument : call.arguments) {
+                    emitExpr(composer, argument);
+                }
+                // the last argument is on top
+                for (int i = call.arguments.size() - 1; i >= 0; i--) {
+                    composer.storeLocal(tailCalls.kinds().get(i), tailCalls.slots().get(i));
+                }
+                composer.goto_(tailCalls.start());
+            }
+            case Expr.Grouping grouping ->
+                    emitReturn(composer, grouping.expression);
+            case Expr.If iff -> {
+                final var otherwise = composer.newLabel();
+                emitBranch(composer, iff.condition, false, otherwise);
+                emitReturn(composer, iff.thenExpr);
+                composer.labelBinding(otherwise);
+                emitReturn(composer, iff.elseExpr);
+            }
+            case Expr.Match match ->
+                    emitMatch(composer, match, body -> emitReturn(composer, body));
+            case null, default -> {
+                final var returnType = currentFunction.type().returnType();
+                if (returnType instanceof UnitDescriptor) {
+                    // Unit functions are void
+                    if (expression != null) {
+                        emitExpr(composer, expression);
+                        discard(composer);
+                    }
+                    composer.return_();
+                } else {
+                    emitExpr(composer, expression);
+                    composer.return_(TypeKind.fromDescriptor(
+                            TypeDescriptor.toJavaClassDesc(returnType).descriptorString()));
+                }
+            }
+        }
+    }
+
     private void emitExpr(final CodeBuilder composer, final Expr expr) {
         switch (expr) {
+            case Expr.Assignment assignment -> {
+                emitExpr(composer, assignment.value);
+                final var bind = symbols.getSymbol(assignment.name);
+                final var javaType = TypeDescriptor.toJavaClassDesc(bind.type());
+                // an assignment is an expression: keep a copy of the value on the stack
+                if (bind.type().isDoubleWidth()) composer.dup2(); else composer.dup();
+                if (bind.lvt() == SymbolTable.GLOBAL) {
+                    if (standalone) todo("hidden: globals live in ZeronMain");
+                    composer.putstatic(globalOwner(assignment.name.lexeme()), assignment.name.lexeme(), javaType);
+                } else {
+                    composer.storeLocal(TypeKind.fromDescriptor(javaType.descriptorString()), bind.lvt());
+                }
+                lastEmittedType = bind.type();
+            }
             case Expr.Binary binary -> {
                 switch (TypeDescriptor.toJavaClassDesc(binary.getType()).descriptorString()) {
                     case "I" -> {
@@ -263,36 +1212,92 @@ public final class Compiler {
                         }
                         lastEmittedType = TypeDescriptor.ofFloat();
                     }
-                    case "Ljava/lang/String;" -> {
-                        emitExpr(composer, binary.left);
-                        emitExpr(composer, binary.right);
-                        // this has to be a plus
-                        final var handle = MethodHandleDesc.of(
-                                DirectMethodHandleDesc.Kind.STATIC,
-                                ClassDesc.of("java.lang.invoke.StringConcatFactory"),
-                                "makeConcatWithConstants",
-                                MethodTypeDesc.of(
-                                        ClassDesc.of("java.lang.invoke.CallSite"),
-                                        ClassDesc.of("java.lang.invoke.MethodHandles$Lookup"),
-                                        ConstantDescs.CD_String,
-                                        ClassDesc.of("java.lang.invoke.MethodType"),
-                                        ConstantDescs.CD_String,
-                                        ConstantDescs.CD_Object.arrayType()).descriptorString());
-
-                        final var dcsd = DynamicCallSiteDesc.of(
-                                handle,
-                                "makeConcatWithConstants",
-                                MethodTypeDesc.ofDescriptor(
-                                        "(Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;"),
-                                "\u0001\u0001");
-
-                        composer.invokedynamic(dcsd);
-                        lastEmittedType = TypeDescriptor.ofString();
+                    case "Ljava/lang/String;" -> emitConcat(composer, binary);
+                    // comparisons
+                    case "Z" -> emitCondition(composer, binary);
+                    default -> throw new UnsupportedOperationException();
+                }
+            }
+            case Expr.Call call when symbols.containsSymbol(call.callee) -> {
+                // a bind holding a function value: call the interface method on it
+                final var type = (FunctionDescriptor) symbols.getSymbol(call.callee).type();
+                final var target = LambdaInterface.of(type);
+                emitExpr(composer, new Expr.Variable(call.callee, type));
+                for (final var argument : call.arguments) {
+                    emitExpr(composer, argument);
+                    if (lastEmittedType instanceof BooleanDescriptor) {
+                        composer.invokestatic(ConstantDescs.CD_Boolean, "valueOf",
+                                MethodTypeDesc.of(ConstantDescs.CD_Boolean, ConstantDescs.CD_boolean));
                     }
                 }
+                composer.invokeinterface(target.type(), target.method(), target.erased());
+                if (target.erased().returnType().equals(ConstantDescs.CD_Object)) {
+                    composer.checkcast(TypeDescriptor.toJavaClassDesc(type.returnType()));
+                }
+                lastEmittedType = returnedType(type.returnType());
+            }
+            case Expr.Call call when !symbols.isNative(call.callee)
+                    && inliner != null
+                    && inliner.candidate(call.callee.lexeme()) != null ->
+                    emitInlined(composer, inliner.candidate(call.callee.lexeme()), call.arguments);
+            case Expr.Call call when !symbols.isNative(call.callee) -> {
+                for (final var argument : call.arguments) {
+                    emitExpr(composer, argument);
+                }
+                final var name = call.callee.lexeme();
+                final var type = symbols.getFunctionType(call.callee);
+                if (!standalone) {
+                    composer.invokestatic(functionOwner(name), name, toJavaMethodDescriptor(type));
+                } else if (name.equals(hotFunction)) {
+                    composer.invokestatic(owner, name, toJavaMethodDescriptor(type));
+                } else {
+                    final var callee = hotCallees.apply(name);
+                    if (callee == null) todo("hidden: calls to " + name);
+                    hotLinks.put(name, callee);
+                    composer.invokedynamic(DynamicCallSiteDesc.of(
+                            HOT_CALL, name, toJavaMethodDescriptor(type)));
+                }
+                lastEmittedType = returnedType(type.returnType());
+            }
+            case Expr.Call call -> {
+                // natives are plain static methods: emit the call against the registry
+                // owner, no boxing and no indirection
+                final var target = Natives.get(call.callee.lexeme());
+                for (final var argument : call.arguments) {
+                    emitExpr(composer, argument);
+                }
+                composer.invokestatic(target.owner(), target.method(), target.descriptor());
+                lastEmittedType = target.type().returnType();
             }
             case Expr.Grouping grouping ->
                     emitExpr(composer, grouping.expression);
+            case Expr.If iff -> {
+                // both branches must leave the same kind of value for the join
+                if (iff.getType().isNullable()) todo("if: nullable branches");
+                final var otherwise = composer.newLabel();
+                final var end = composer.newLabel();
+                emitBranch(composer, iff.condition, false, otherwise);
+                emitExpr(composer, iff.thenExpr);
+                composer.goto_(end);
+                composer.labelBinding(otherwise);
+                emitExpr(composer, iff.elseExpr);
+                composer.labelBinding(end);
+                lastEmittedType = iff.getType();
+            }
+            case Expr.Match match -> {
+                // every arm must leave the same kind of value for the join
+                if (match.getType().isNullable()) todo("match: nullable arms");
+                final var end = composer.newLabel();
+                emitMatch(composer, match, body -> {
+                    emitExpr(composer, body);
+                    // the else arm is last, and falls into the join
+                    if (body != match.otherwise) composer.goto_(end);
+                });
+                composer.labelBinding(end);
+                lastEmittedType = match.getType();
+            }
+            case Expr.Lambda lambda ->
+                    emitLambda(composer, lambda);
             case Expr.Literal literal -> {
                 switch (literal.value) {
                     case String  s -> {
@@ -310,7 +1315,6 @@ public final class Compiler {
                     case Boolean b -> {
                         if (b) { composer.iconst_1(); }
                         else   { composer.iconst_0(); }
-                        composer.invokestatic(getAutoboxingFor(composer.constantPool(), "B"));
                         lastEmittedType = TypeDescriptor.ofBoolean();
                     }
                     case UnitLiteral _ -> {
@@ -320,14 +1324,36 @@ public final class Compiler {
                     default -> throw new IllegalStateException("Unsupported value");
                 }
             }
-            case Expr.Unary unary ->
-                    todo("unary: implement resolver");
+            case Expr.Unary unary -> {
+                switch (unary.operator.type()) {
+                    case MINUS -> {
+                        emitExpr(composer, unary.right);
+                        switch (TypeDescriptor.toJavaClassDesc(lastEmittedType).descriptorString()) {
+                            case "I" -> composer.ineg();
+                            case "D" -> composer.dneg();
+                            default  -> todo("unary: minus on " + lastEmittedType);
+                        }
+                    }
+                    case NOT -> {
+                        emitExpr(composer, unary.right);
+                        if (!(lastEmittedType instanceof BooleanDescriptor)) todo("unary: boxed boolean");
+                        composer.iconst_1();
+                        composer.ixor();
+                    }
+                    default -> todo("unary: " + unary.operator.lexeme());
+                }
+            }
+            case Expr.Logical logical ->
+                    emitCondition(composer, logical);
+            case Expr.Variable variable when inlinedConstants.containsKey(variable.name.lexeme()) ->
+                    emitExpr(composer, inlinedConstants.get(variable.name.lexeme()));
             case Expr.Variable variable -> {
                 final var bind = symbols.getSymbol(variable.name);
                 if (bind.lvt() == SymbolTable.GLOBAL) {
+                    if (standalone) todo("hidden: globals live in ZeronMain");
                     // global
                     composer.getstatic(
-                            ClassDesc.of(MAIN_NAME),
+                            globalOwner(variable.name.lexeme()),
                             variable.name.lexeme(),
                             TypeDescriptor.toJavaClassDesc(symbols.getSymbol(variable.name).type()));
                 } else {
@@ -344,6 +1370,561 @@ public final class Compiler {
         }
     }
 
+    /*
+        A call replaced with the body of the callee. Arguments are evaluated in the caller,
+    left to right, and stored into fresh slots for the callee's parameters, except for
+    literals: those are substituted for the parameter in the body, so they fold wherever
+    it's used. The caller's locals are hidden while the body is emitted, and its returns
+    jump to the end of it with their value on the stack, as if the call had returned.
+     */
+    private void emitInlined(final CodeBuilder composer,
+                             final Stmt.Function function,
+                             final List<Expr> arguments) {
+        final var parameters = function.parameters();
+        final var type = symbols.getFunctionType(function.name());
+
+        final var constants = new HashMap<String, Expr.Literal>();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (arguments.get(i) instanceof Expr.Literal literal
+                    && !(literal.value instanceof UnitLiteral)) {
+                constants.put(parameters.get(i).lexeme(), literal);
+            } else {
+                emitExpr(composer, arguments.get(i));
+            }
+        }
+
+        final var hidden = symbols.hideLocals();
+        final var outerConstants = inlinedConstants;
+        inlinedConstants = constants;
+        beginScope();
+        final var slots = new int[parameters.size()];
+        for (int i = 0; i < parameters.size(); i++) {
+            if (constants.containsKey(parameters.get(i).lexeme())) continue;
+            slots[i] = symbols.declareSymbol(function, parameters.get(i), type.parameters().get(i), true);
+            symbols.define(parameters.get(i));
+        }
+        // the last argument is on top of the stack
+        for (int i = parameters.size() - 1; i >= 0; i--) {
+            if (constants.containsKey(parameters.get(i).lexeme())) continue;
+            composer.storeLocal(
+                    TypeKind.fromDescriptor(
+                            TypeDescriptor.toJavaClassDesc(type.parameters().get(i)).descriptorString()),
+                    slots[i]);
+        }
+
+        final var exit = composer.newLabel();
+        inlines.push(new Inlined(exit, type.returnType()));
+        emitStmts(composer, function.body());
+        inlines.pop();
+        composer.labelBinding(exit);
+
+        endScope();
+        inlinedConstants = outerConstants;
+        symbols.restoreLocals(hidden);
+        lastEmittedType = returnedType(type.returnType());
+    }
+
+    /*
+        A chain of string `+` is a single makeConcatWithConstants call site, however long
+    it is. The chain is flattened (both sides, through groupings: concatenation is
+    associative), literal strings go into the recipe as constants, and everything else is
+    a dynamic argument of its own java type, so numbers and booleans are passed as
+    primitives and stringified by the factory. No intermediate String is ever built.
+    Chains past the factory's slot limit are split into several calls, each starting
+    with the result of the last.
+     */
+    private void emitConcat(final CodeBuilder composer, final Expr.Binary binary) {
+        final var operands = new ArrayList<Expr>();
+        flattenConcat(binary, operands);
+
+        final var recipe = new StringBuilder();
+        final var arguments = new ArrayList<ClassDesc>();
+        var slots = 0;
+        for (final var operand : operands) {
+            if (operand instanceof Expr.Literal literal
+                    && literal.value instanceof String text
+                    // the recipe's own tags can't appear in a constant
+                    && text.indexOf('\u0001') < 0 && text.indexOf('\u0002') < 0) {
+                recipe.append(text);
+                continue;
+            }
+
+            // the call so far is emitted before the operand is pushed, so the stack
+            // only ever holds the arguments of the call being built
+            final var width = TypeDescriptor.toJavaClassDesc(operand.getType())
+                    .descriptorString().equals("D") ? 2 : 1;
+            if (slots + width > MAX_CONCAT_SLOTS) {
+                emitConcatCall(composer, recipe.toString(), arguments);
+                recipe.setLength(0);
+                recipe.append('\u0001');
+                arguments.clear();
+                arguments.add(ConstantDescs.CD_String);
+                slots = 1;
+            }
+
+            emitExpr(composer, operand);
+            final var type = switch (TypeDescriptor.toJavaClassDesc(lastEmittedType).descriptorString()) {
+                case "I" -> ConstantDescs.CD_int;
+                case "D" -> ConstantDescs.CD_double;
+                case "Z" -> ConstantDescs.CD_boolean;
+                case "Ljava/lang/String;" -> ConstantDescs.CD_String;
+                default -> ConstantDescs.CD_Object;
+            };
+            recipe.append('\u0001');
+            arguments.add(type);
+            slots += width;
+        }
+        emitConcatCall(composer, recipe.toString(), arguments);
+        lastEmittedType = TypeDescriptor.ofString();
+    }
+
+    private static void emitConcatCall(final CodeBuilder composer,
+                                       final String recipe,
+                                       final List<ClassDesc> arguments) {
+        composer.invokedynamic(DynamicCallSiteDesc.of(
+                MAKE_CONCAT,
+                "makeConcatWithConstants",
+                MethodTypeDesc.of(ConstantDescs.CD_String, arguments),
+                recipe));
+    }
+
+    private static void flattenConcat(final Expr expr, final List<Expr> operands) {
+        switch (expr) {
+            case Expr.Grouping grouping when isConcat(grouping.expression) ->
+                    flattenConcat(grouping.expression, operands);
+            case Expr.Binary binary when isConcat(binary) -> {
+                flattenConcat(binary.left, operands);
+                flattenConcat(binary.right, operands);
+            }
+            default -> operands.add(expr);
+        }
+    }
+
+    private static boolean isConcat(final Expr expr) {
+        return expr instanceof Expr.Binary binary
+                && binary.operator.type() == TokenType.PLUS
+                && binary.getType() instanceof StringDescriptor;
+    }
+
+    /*
+        A lambda is a private synthetic method plus an invokedynamic that LambdaMetafactory
+    links to an instance of the interface its type maps to (see LambdaInterface). The
+    locals the body reads are captured by value: they become the first parameters of the
+    method and the dynamic arguments of the call site, so only final binds are captured.
+    A lambda that captures nothing links to a constant instance, and creating it costs
+    nothing after the first time.
+     */
+    private void emitLambda(final CodeBuilder composer, final Expr.Lambda lambda) {
+        final var type = (FunctionDescriptor) lambda.getType();
+        final var target = LambdaInterface.of(type);
+
+        final var names = new LinkedHashMap<String, Token>();
+        collectNames(lambda.body, names);
+        final var captures = new ArrayList<Token>();
+        final var captureTypes = new ArrayList<TypeDescriptor>();
+        for (final var name : names.values()) {
+            if (inlinedConstants.containsKey(name.lexeme())) {
+                captures.add(name);
+                captureTypes.add(inlinedConstants.get(name.lexeme()).getType());
+            } else if (symbols.containsSymbol(name)
+                    && symbols.getSymbol(name).lvt() != SymbolTable.GLOBAL) {
+                if (!symbols.getSymbol(name).isFinal()) {
+                    todo("lambdas: capturing mutable bind " + name.lexeme());
+                }
+                captures.add(name);
+                captureTypes.add(symbols.getSymbol(name).type());
+            }
+        }
+        for (int i = 0; i < captures.size(); i++) {
+            emitExpr(composer, new Expr.Variable(captures.get(i), captureTypes.get(i)));
+        }
+
+        final var name = lambdaPrefix + lambdaCount++;
+        final var captured = captureTypes.stream().map(TypeDescriptor::toJavaClassDesc).toList();
+        final var parameters = new ArrayList<>(captured);
+        final var instantiated = new ArrayList<ClassDesc>();
+        if (lambda.param != null) {
+            final var parameterType = type.parameters().getFirst();
+            parameters.add(TypeDescriptor.toJavaClassDesc(parameterType));
+            instantiated.add(LambdaInterface.parameterTypeOf(parameterType));
+        }
+        final var returnType = returnedJavaType(type.returnType());
+
+        composer.invokedynamic(DynamicCallSiteDesc.of(
+                LAMBDA_METAFACTORY,
+                target.method(),
+                MethodTypeDesc.of(target.type(), captured),
+                target.erased(),
+                MethodHandleDesc.ofMethod(
+                        DirectMethodHandleDesc.Kind.STATIC,
+                        owner,
+                        name,
+                        MethodTypeDesc.of(returnType, parameters)),
+                MethodTypeDesc.of(returnType, instantiated)));
+
+        pendingLambdas.add(new PendingLambda(name, lambda, captures, captureTypes));
+        lastEmittedType = type;
+    }
+
+    // every name a body reads, writes or calls, in order of appearance
+    private static void collectNames(final List<Stmt> statements, final Map<String, Token> names) {
+        for (final var statement : statements) {
+            collectNames(statement, names);
+        }
+    }
+
+    static void collectNames(final Stmt statement, final Map<String, Token> names) {
+        switch (statement) {
+            case null -> {}
+            case Stmt.Block(List<Stmt> statements) -> collectNames(statements, names);
+            case Stmt.Expression(Expr expression) -> collectNames(expression, names);
+            case Stmt.For loop -> {
+                collectNames(loop.iterable(), names);
+                collectNames(loop.body(), names);
+            }
+            case Stmt.If(_, Expr condition, Stmt thenBranch, Stmt elseBranch) -> {
+                collectNames(condition, names);
+                collectNames(thenBranch, names);
+                collectNames(elseBranch, names);
+            }
+            case Stmt.Print(Expr expression) -> collectNames(expression, names);
+            case Stmt.Return(Expr value) -> collectNames(value, names);
+            case Stmt.Var var -> collectNames(var.initializer(), names);
+            case Stmt.While(_, Expr condition, Stmt body) -> {
+                collectNames(condition, names);
+                collectNames(body, names);
+            }
+            default -> {}
+        }
+    }
+
+    private static void collectNames(final Expr expr, final Map<String, Token> names) {
+        switch (expr) {
+            case null -> {}
+            case Expr.Assignment assignment -> {
+                names.putIfAbsent(assignment.name.lexeme(), assignment.name);
+                collectNames(assignment.value, names);
+            }
+            case Expr.Binary binary -> {
+                collectNames(binary.left, names);
+                collectNames(binary.right, names);
+            }
+            case Expr.Call call -> {
+                names.putIfAbsent(call.callee.lexeme(), call.callee);
+                for (final var argument : call.arguments) collectNames(argument, names);
+            }
+            case Expr.Grouping grouping -> collectNames(grouping.expression, names);
+            case Expr.If iff -> {
+                collectNames(iff.condition, names);
+                collectNames(iff.thenExpr, names);
+                collectNames(iff.elseExpr, names);
+            }
+            case Expr.Match match -> {
+                collectNames(match.subject, names);
+                for (final var arm : match.arms) collectNames(arm.body(), names);
+                collectNames(match.otherwise, names);
+            }
+            case Expr.Lambda lambda -> collectNames(lambda.body, names);
+            case Expr.Logical logical -> {
+                collectNames(logical.left, names);
+                collectNames(logical.right, names);
+            }
+            case Expr.Unary unary -> collectNames(unary.right, names);
+            case Expr.Variable variable -> names.putIfAbsent(variable.name.lexeme(), variable.name);
+            case Expr.Literal _ -> {}
+        }
+    }
+
+    // the java return type of a function: Unit functions are void
+    private static ClassDesc returnedJavaType(final TypeDescriptor returnType) {
+        return returnType instanceof UnitDescriptor
+                ? ConstantDescs.CD_void
+                : TypeDescriptor.toJavaClassDesc(returnType);
+    }
+
+    // what a call leaves on the stack: Unit functions are void, so nothing
+    private static TypeDescriptor returnedType(final TypeDescriptor returnType) {
+        return returnType instanceof UnitDescriptor ? TypeDescriptor.ofNever() : returnType;
+    }
+
+    /*
+        for (let i in a..b) over a range literal. The bind is a plain int local stepped
+    with iinc: the bounds are constants, so the number of iterations and the last value
+    are known here, and the loop runs as a do-while that exits once i holds that last
+    value. No range object, no boxing, and no overflow stepping past the end.
+     */
+    private void emitForRange(final CodeBuilder composer, final Stmt.For loop) {
+        if (!(loop.iterable() instanceof Expr.Literal literal
+                && literal.value instanceof IntRangeLiteral range)) {
+            throw new UnsupportedOperationException("for: ranges that aren't literals");
+        }
+        final var count = range.count();
+        if (count == 0) return;
+        final var last = (int) (range.start() + (count - 1) * range.step());
+
+        beginScope();
+        final var slot = symbols.declareSymbol(loop, loop.iterationBind(), TypeDescriptor.ofInt(), true);
+        symbols.define(loop.iterationBind());
+
+        final var exit = composer.newLabel();
+        composer.loadConstant(range.start());
+        composer.istore(slot);
+        final var top = composer.newBoundLabel();
+        breakLabels.push(exit);
+        emitStmt(composer, loop.body());
+        breakLabels.pop();
+        composer.iload(slot);
+        composer.loadConstant(last);
+        composer.if_icmpeq(exit);
+        if (range.step() == (short) range.step()) {
+            composer.iinc(slot, range.step());
+        } else {
+            composer.iload(slot);
+            composer.loadConstant(range.step());
+            composer.iadd();
+            composer.istore(slot);
+        }
+        composer.goto_(top);
+        composer.labelBinding(exit);
+        endScope();
+    }
+
+    /*
+        Jumps to target when the condition evaluates to `when` and falls through otherwise.
+    Comparisons and logical operators branch on their operands directly, so a condition
+    never materializes a boolean, let alone a boxed one.
+     */
+    private void emitBranch(final CodeBuilder composer,
+                            final Expr condition,
+                            final boolean when,
+                            final Label target) {
+        switch (condition) {
+            case Expr.Literal literal when literal.value instanceof Boolean b -> {
+                if (b == when) composer.goto_(target);
+            }
+            case Expr.Grouping grouping ->
+                    emitBranch(composer, grouping.expression, when, target);
+            case Expr.Unary unary when unary.operator.type() == TokenType.NOT ->
+                    emitBranch(composer, unary.right, !when, target);
+            case Expr.Logical logical -> {
+                // `or` is decided by the first true operand, `and` by the first false one
+                final var decisive = logical.operator.type() == TokenType.OR;
+                if (when == decisive) {
+                    emitBranch(composer, logical.left, when, target);
+                    emitBranch(composer, logical.right, when, target);
+                } else {
+                    final var skip = composer.newLabel();
+                    emitBranch(composer, logical.left, decisive, skip);
+                    emitBranch(composer, logical.right, when, target);
+                    composer.labelBinding(skip);
+                }
+            }
+            case Expr.Binary binary when isComparison(binary.operator.type()) -> {
+                final var operands = TypeDescriptor.toJavaClassDesc(binary.left.getType())
+                        .descriptorString();
+                final var operator = when
+                        ? binary.operator.type()
+                        : negate(binary.operator.type());
+                switch (operands) {
+                    case "I", "Z" -> {
+                        emitExpr(composer, binary.left);
+                        emitExpr(composer, binary.right);
+                        composer.branch(intBranch(operator), target);
+                    }
+                    case "D" -> {
+                        emitExpr(composer, binary.left);
+                        emitExpr(composer, binary.right);
+                        // dcmpg sends NaN above, dcmpl below: either way to the side
+                        // where the original comparison fails
+                        switch (binary.operator.type()) {
+                            case LESS, LESS_EQUAL -> composer.dcmpg();
+                            default               -> composer.dcmpl();
+                        }
+                        composer.branch(zeroBranch(operator), target);
+                    }
+                    default -> todo("comparison: " + operands);
+                }
+            }
+            default -> {
+                emitExpr(composer, condition);
+                if (!(lastEmittedType instanceof BooleanDescriptor)) todo("condition: boxed boolean");
+                composer.branch(when ? Opcode.IFNE : Opcode.IFEQ, target);
+            }
+        }
+    }
+
+    /*
+        match expressions. The subject is evaluated once and dispatched with a single
+    switch instruction to the entry of the arm it selects, where `arm` emits that arm's
+    body (as a value or as a return), else arm last. Int and Boolean subjects switch on
+    the value itself; String subjects switch on hashCode() first and confirm the bucket
+    with equals(), as javac does.
+
+        There's no subtyping yet, so a type pattern (the resolver only allows the
+    subject's own type) matches any value that reaches it: it becomes the default of the
+    switch, and constants in later arms can never be selected.
+     */
+    private void emitMatch(final CodeBuilder composer,
+                           final Expr.Match match,
+                           final Consumer<Expr> arm) {
+        if (match.subject.getType().isNullable()) todo("match: nullable subject");
+
+        final var entries = new ArrayList<Label>();
+        for (int i = 0; i <= match.arms.size(); i++) entries.add(composer.newLabel());
+        var fallback = match.arms.size();
+        final var cases = new LinkedHashMap<Object, Integer>();
+        for (int i = 0; i < match.arms.size() && fallback == match.arms.size(); i++) {
+            for (final var pattern : match.arms.get(i).patterns()) {
+                switch (pattern) {
+                    case Expr.Match.Constant constant -> cases.putIfAbsent(constant.value(), i);
+                    case Expr.Match.TypeTest _ -> fallback = i;
+                }
+            }
+        }
+        final var otherwise = entries.get(fallback);
+
+        emitExpr(composer, match.subject);
+        // String dispatch leaves the subject on the stack at every entry
+        var pending = false;
+        if (cases.isEmpty()) {
+            discard(composer);
+            composer.goto_(otherwise);
+        } else {
+            switch (lastEmittedType) {
+                case IntDescriptor _, BooleanDescriptor _ -> {
+                    final var targets = new TreeMap<Integer, Label>();
+                    cases.forEach((value, i) -> targets.put(switch (value) {
+                        case Boolean b -> b ? 1 : 0;
+                        default -> (Integer) value;
+                    }, entries.get(i)));
+                    emitIntSwitch(composer, targets, otherwise);
+                }
+                case StringDescriptor _ -> {
+                    final var buckets = new TreeMap<Integer, List<String>>();
+                    for (final var value : cases.keySet()) {
+                        buckets.computeIfAbsent(value.hashCode(), _ -> new ArrayList<>())
+                                .add((String) value);
+                    }
+                    final var targets = new TreeMap<Integer, Label>();
+                    for (final var hash : buckets.keySet()) targets.put(hash, composer.newLabel());
+
+                    composer.dup();
+                    composer.invokevirtual(ConstantDescs.CD_String, "hashCode",
+                            MethodTypeDesc.of(ConstantDescs.CD_int));
+                    emitIntSwitch(composer, targets, otherwise);
+                    buckets.forEach((hash, values) -> {
+                        composer.labelBinding(targets.get(hash));
+                        for (final var value : values) {
+                            composer.dup();
+                            composer.ldc(value);
+                            composer.invokevirtual(ConstantDescs.CD_String, "equals",
+                                    MethodTypeDesc.of(ConstantDescs.CD_boolean, ConstantDescs.CD_Object));
+                            composer.ifne(entries.get(cases.get(value)));
+                        }
+                        composer.goto_(otherwise);
+                    });
+                    pending = true;
+                }
+                default -> todo("match: constants of " + lastEmittedType);
+            }
+        }
+
+        for (int i = 0; i <= match.arms.size(); i++) {
+            composer.labelBinding(entries.get(i));
+            if (pending) composer.pop();
+            arm.accept(match.bodyOf(i));
+        }
+    }
+
+    /*
+        Switches on the int on the stack. tableswitch when the keys are dense enough,
+    lookupswitch otherwise, weighing space against time the way javac does: a table is
+    one slot per value in range, a lookup a (key, target) pair per case and a binary
+    search.
+     */
+    private static void emitIntSwitch(final CodeBuilder composer,
+                                      final SortedMap<Integer, Label> targets,
+                                      final Label otherwise) {
+        final var cases = new ArrayList<SwitchCase>();
+        targets.forEach((value, target) -> cases.add(SwitchCase.of(value, target)));
+        final long low = targets.firstKey();
+        final long high = targets.lastKey();
+        final long n = targets.size();
+        final long tableCost = 4 + (high - low + 1) + 3 * 3;
+        final long lookupCost = 3 + 2 * n + 3 * n;
+        if (tableCost <= lookupCost) {
+            composer.tableswitch((int) low, (int) high, otherwise, cases);
+        } else {
+            composer.lookupswitch(otherwise, cases);
+        }
+    }
+
+    // a condition used as a value: branch on it and push 1 or 0
+    private void emitCondition(final CodeBuilder composer, final Expr condition) {
+        final var holds = composer.newLabel();
+        final var end = composer.newLabel();
+        emitBranch(composer, condition, true, holds);
+        composer.iconst_0();
+        composer.goto_(end);
+        composer.labelBinding(holds);
+        composer.iconst_1();
+        composer.labelBinding(end);
+        lastEmittedType = TypeDescriptor.ofBoolean();
+    }
+
+    // drops the value the last expression left on the stack, if any
+    private void discard(final CodeBuilder composer) {
+        switch (TypeDescriptor.toJavaClassDesc(lastEmittedType).descriptorString()) {
+            case "V" -> {}
+            case "D" -> composer.pop2();
+            default  -> composer.pop();
+        }
+    }
+
+    private static boolean isComparison(final TokenType operator) {
+        return switch (operator) {
+            case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL, EQUAL_EQUAL, BANG_EQUAL -> true;
+            default -> false;
+        };
+    }
+
+    // !(a < b) is a >= b, and so on
+    private static TokenType negate(final TokenType operator) {
+        return switch (operator) {
+            case LESS          -> TokenType.GREATER_EQUAL;
+            case LESS_EQUAL    -> TokenType.GREATER;
+            case GREATER       -> TokenType.LESS_EQUAL;
+            case GREATER_EQUAL -> TokenType.LESS;
+            case EQUAL_EQUAL   -> TokenType.BANG_EQUAL;
+            case BANG_EQUAL    -> TokenType.EQUAL_EQUAL;
+            default -> throw new IllegalStateException();
+        };
+    }
+
+    private static Opcode intBranch(final TokenType operator) {
+        return switch (operator) {
+            case LESS          -> Opcode.IF_ICMPLT;
+            case LESS_EQUAL    -> Opcode.IF_ICMPLE;
+            case GREATER       -> Opcode.IF_ICMPGT;
+            case GREATER_EQUAL -> Opcode.IF_ICMPGE;
+            case EQUAL_EQUAL   -> Opcode.IF_ICMPEQ;
+            case BANG_EQUAL    -> Opcode.IF_ICMPNE;
+            default -> throw new IllegalStateException();
+        };
+    }
+
+    private static Opcode zeroBranch(final TokenType operator) {
+        return switch (operator) {
+            case LESS          -> Opcode.IFLT;
+            case LESS_EQUAL    -> Opcode.IFLE;
+            case GREATER       -> Opcode.IFGT;
+            case GREATER_EQUAL -> Opcode.IFGE;
+            case EQUAL_EQUAL   -> Opcode.IFEQ;
+            case BANG_EQUAL    -> Opcode.IFNE;
+            default -> throw new IllegalStateException();
+        };
+    }
+
     private void emitConstant(final CodeBuilder composer, final ConstantDesc value) {
         composer.loadConstant(value);
         lastEmittedType = getTypeForConstant(value); //currentFunction.code().getLast().zeronType();
@@ -356,34 +1937,51 @@ public final class Compiler {
                 if (lit.value instanceof Constable constable) yield constable.describeConstable().orElseThrow();
                 else yield null;
             }
+            case Expr.Variable variable when inlinedConstants.containsKey(variable.name.lexeme()) ->
+                    tryFold(inlinedConstants.get(variable.name.lexeme()));
             case Expr.Binary bin -> {
                 final var left = tryFold(bin.left);
                 final var right = tryFold(bin.right);
                 if (left == null || right == null) yield null;
                 if (left.getClass() != right.getClass()) yield null;
                 switch (left) {
+                    // comparisons fold to 1 and 0, like boolean literals do
                     case Integer li -> {
+                        final int ri = (Integer) right;
                         yield switch (bin.operator.type()) {
-                            case PLUS -> li + (Integer) right;
-                            case MINUS -> li - (Integer) right;
-                            case STAR -> li * (Integer) right;
-                            case SLASH -> li / (Integer) right;
+                            case PLUS -> li + ri;
+                            case MINUS -> li - ri;
+                            case STAR -> li * ri;
+                            // left for the runtime to throw
+                            case SLASH -> ri == 0 ? null : li / ri;
+                            case LESS -> li < ri ? 1 : 0;
+                            case LESS_EQUAL -> li <= ri ? 1 : 0;
+                            case GREATER -> li > ri ? 1 : 0;
+                            case GREATER_EQUAL -> li >= ri ? 1 : 0;
+                            case EQUAL_EQUAL -> li == ri ? 1 : 0;
+                            case BANG_EQUAL -> li != ri ? 1 : 0;
                             default -> throw new IllegalStateException();
                         };
                     }
                     case Double ld -> {
+                        final double rd = (Double) right;
                         yield switch (bin.operator.type()) {
-                            case PLUS -> ld + (Double) right;
-                            case MINUS -> ld - (Double) right;
-                            case STAR -> ld * (Double) right;
-                            case SLASH -> ld / (Double) right;
-                            default -> throw new IllegalStateException();
+                            case PLUS -> ld + rd;
+                            case MINUS -> ld - rd;
+                            case STAR -> ld * rd;
+                            case SLASH -> ld / rd;
+                            case LESS -> ld < rd ? 1 : 0;
+                            case LESS_EQUAL -> ld <= rd ? 1 : 0;
+                            case GREATER -> ld > rd ? 1 : 0;
+                            case GREATER_EQUAL -> ld >= rd ? 1 : 0;
+                            // equality on Floats is the interpreter's, not ==
+                            default -> null;
                         };
                     }
                     case String ls -> {
                         yield switch (bin.operator.type()) {
                             case PLUS -> ls + right;
-                            default -> throw new IllegalStateException();
+                            default -> null;
                         };
                     }
                     default -> {}
@@ -409,29 +2007,6 @@ public final class Compiler {
         symbols.endScope();
     }
 
-    private InstructionDescriptor lastEmitted() {
-        return currentFunction.code().getLast();
-    }
-
-    private static MethodRefEntry getAutoboxingFor(final ConstantPoolBuilder cpb,
-                                                   final String type) {
-        return switch (type) {
-            case "I" -> cpb.methodRefEntry(
-                    Integer.class.describeConstable().orElseThrow(),
-                    "valueOf",
-                    MethodTypeDesc.ofDescriptor("(I)Ljava/lang/Integer;"));
-            case "D" -> cpb.methodRefEntry(
-                    Double.class.describeConstable().orElseThrow(),
-                    "valueOf",
-                    MethodTypeDesc.ofDescriptor("(D)Ljava/lang/Double;"));
-            case "B" -> cpb.methodRefEntry(
-                    Boolean.class.describeConstable().orElseThrow(),
-                    "valueOf",
-                    MethodTypeDesc.ofDescriptor("(Z)Ljava/lang/Boolean;"));
-            default  -> throw new IllegalArgumentException("Autoboxing not supported.");
-        };
-    }
-
     private static FieldRefEntry getStdOut(final ConstantPoolBuilder cpb) {
         return cpb.fieldRefEntry(
                 ClassDesc.ofDescriptor(System.class.descriptorString()),
@@ -439,13 +2014,19 @@ public final class Compiler {
                 ClassDesc.ofDescriptor("Ljava/io/PrintStream;"));
     }
 
-    private static MethodRefEntry getPrintln(final ConstantPoolBuilder cpb) {
+    private static MethodRefEntry getPrintln(final ConstantPoolBuilder cpb,
+                                             final TypeDescriptor type) {
+        final var parameter = switch (TypeDescriptor.toJavaClassDesc(type).descriptorString()) {
+            case "I" -> ConstantDescs.CD_int;
+            case "D" -> ConstantDescs.CD_double;
+            case "Z" -> ConstantDescs.CD_boolean;
+            case "Ljava/lang/String;" -> ConstantDescs.CD_String;
+            default -> ConstantDescs.CD_Object;
+        };
         return cpb.methodRefEntry(
                 ClassDesc.ofDescriptor(PrintStream.class.descriptorString()),
                 "println",
-                MethodType.methodType(void.class, Object.class)
-                        .describeConstable()
-                        .orElseThrow());
+                MethodTypeDesc.of(ConstantDescs.CD_void, parameter));
     }
 
     private static MethodTypeDesc emptyVoidMethod() {
@@ -456,12 +2037,14 @@ public final class Compiler {
         return switch (value) {
             case Integer _ -> TypeDescriptor.ofInt();
             case Double  _ -> TypeDescriptor.ofFloat();
+            case String  _ -> TypeDescriptor.ofString();
             default -> throw new IllegalStateException();
         };
     }
 
+    // Unit functions return void: there is no Unit value worth boxing into a Void
     private static MethodTypeDesc toJavaMethodDescriptor(FunctionDescriptor type) {
-        final var returnType = TypeDescriptor.toJavaClassDesc(type.returnType());
+        final var returnType = returnedJavaType(type.returnType());
         final var paramTypes = type.parameters().stream().map(TypeDescriptor::toJavaClassDesc).toList();
         return MethodTypeDesc.of(returnType, paramTypes);
     }
@@ -37,6 +37,8 @@ public final class FunctionModel {
     private final String name;
     private final FunctionDescriptor typeDescriptor;
     private final List<InstructionDescriptor> instructions = new ArrayList<>();
+    // bytes the peephole pass took off the method, see Peephole
+    private int bytesSaved = 0;
 
     public FunctionModel(String name, FunctionDescriptor typeDescriptor) {
         this.name = name;
@@ -47,6 +49,10 @@ public final class FunctionModel {
         return name;
     }
 
+    public FunctionDescriptor type() {
+        return typeDescriptor;
+    }
+
     public FunctionModel add(final Instruction i,
                              final Opcode.Kind type,
                              final TypeDescriptor zeronType,
@@ -58,6 +64,20 @@ public final class FunctionModel {
         return this;
     }
 
+    public FunctionModel bytesSaved(final int bytes) {
+        bytesSaved = bytes;
+        return this;
+    }
+
+    public int bytesSaved() {
+        return bytesSaved;
+    }
+
+    // bytes of bytecode in the method
+    public int size() {
+        return instructions.stream().mapToInt(InstructionDescriptor::size).sum();
+    }
+
     public List<InstructionDescriptor> code() {
         return instructions.stream().toList();
     }
@@ -65,6 +85,7 @@ public final class FunctionModel {
     @Override
     public String toString() {
         return "function " + name + "(" + typeDescriptor.parameters().stream().map(TypeDescriptor::name).collect(Collectors.joining(", ")) + "): " + typeDescriptor.returnType() + "\n"
+            + "  peephole: " + bytesSaved + " bytes saved\n"
             + "  code:\n"
             + "    " + instructions.stream().map(Objects::toString).collect(Collectors.joining(
                     "\n    "));
@@ -0,0 +1,31 @@
+package com.maruseron.zeron.compile;
+
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+
+/*
+    Runtime side of calls out of a hot function's hidden class, see Compiler.compileHidden.
+A call to another function of the script is an invokedynamic named after the callee and
+typed after its java signature. The hidden class is defined with a map from callee to a
+handle into the callee's call site in the tiered engine, and linking adapts that handle
+to the call: boxing on the way in and unboxing on the way out, since the engine's sites
+take and return Objects. The site itself stays mutable, so the call follows the callee
+into compiled code once it gets hot too.
+ */
+public final class HotCalls {
+    private HotCalls() {}
+
+    public static CallSite link(final MethodHandles.Lookup lookup,
+                                final String callee,
+                                final MethodType type) throws IllegalAccessException {
+        @SuppressWarnings("unchecked")
+        final var callees = (Map<String, MethodHandle>) MethodHandles.classData(
+                lookup, ConstantDescs.DEFAULT_NAME, Map.class);
+        return new ConstantCallSite(callees.get(callee).asType(type));
+    }
+}
@@ -0,0 +1,145 @@
+package com.maruseron.zeron.compile;
+
+import com.maruseron.zeron.ast.Expr;
+import com.maruseron.zeron.ast.Stmt;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+    Decides which calls the compiler replaces with the body of the callee. A top level
+function is inlined when:
+
+    - its code, as measured from its FunctionModel after the peephole pass, fits in the
+      budget (bytes of bytecode; 0 turns inlining off)
+    - it can't reach itself through the call graph, so expansion always ends
+    - it compiled on its own: a function that was never measured is never inlined
+
+    The default budget is HotSpot's MaxInlineSize. Those methods are the ones the JIT
+inlines no matter how hot they are; doing it here also lets literal arguments fold
+through the callee's body, and doesn't count against the JIT's inlining depth.
+ */
+final class Inliner {
+    static final int DEFAULT_BUDGET = 35;
+
+    private final int budget;
+    private final Map<String, Stmt.Function> functions = new HashMap<>();
+    private final Map<String, Set<String>> callees = new HashMap<>();
+    private final Set<String> recursive = new HashSet<>();
+    private final Map<String, Integer> sizes = new HashMap<>();
+
+    Inliner(final List<Stmt> declarations, final int budget) {
+        this.budget = budget;
+        for (final var declaration : declarations) {
+            if (declaration instanceof Stmt.Function function) {
+                functions.put(function.name().lexeme(), function);
+            }
+        }
+        for (final var function : functions.values()) {
+            final var calls = new HashSet<String>();
+            collect(function.body(), calls);
+            calls.retainAll(functions.keySet());
+            callees.put(function.name().lexeme(), calls);
+        }
+        for (final var name : functions.keySet()) {
+            if (reaches(name, name, new HashSet<>())) recursive.add(name);
+        }
+    }
+
+    boolean enabled() {
+        return budget > 0;
+    }
+
+    void measured(final String function, final int size) {
+        sizes.put(function, size);
+    }
+
+    // -1 for a function that was never measured
+    int measuredSize(final String function) {
+        return sizes.getOrDefault(function, -1);
+    }
+
+    // the function a call to this name gets inlined from, or null to emit a real call
+    Stmt.Function candidate(final String name) {
+        final var size = sizes.get(name);
+        if (size == null || size > budget || recursive.contains(name)) return null;
+        return functions.get(name);
+    }
+
+    private boolean reaches(final String from, final String target, final Set<String> visited) {
+        for (final var callee : callees.getOrDefault(from, Set.of())) {
+            if (callee.equals(target)) return true;
+            if (visited.add(callee) && reaches(callee, target, visited)) return true;
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------- call graph
+
+    private static void collect(final List<Stmt> statements, final Set<String> calls) {
+        for (final var statement : statements) {
+            collect(statement, calls);
+        }
+    }
+
+    private static void collect(final Stmt statement, final Set<String> calls) {
+        switch (statement) {
+            case null -> {}
+            case Stmt.Block(List<Stmt> statements) -> collect(statements, calls);
+            case Stmt.Expression(Expr expression) -> collect(expression, calls);
+            case Stmt.For loop -> {
+                collect(loop.iterable(), calls);
+                collect(loop.body(), calls);
+            }
+            case Stmt.If(_, Expr condition, Stmt thenBranch, Stmt elseBranch) -> {
+                collect(condition, calls);
+                collect(thenBranch, calls);
+                collect(elseBranch, calls);
+            }
+            case Stmt.Print(Expr expression) -> collect(expression, calls);
+            case Stmt.Return(Expr value) -> collect(value, calls);
+            case Stmt.Var var -> collect(var.initializer(), calls);
+            case Stmt.While(_, Expr condition, Stmt body) -> {
+                collect(condition, calls);
+                collect(body, calls);
+            }
+            default -> {}
+        }
+    }
+
+    private static void collect(final Expr expr, final Set<String> calls) {
+        switch (expr) {
+            case null -> {}
+            case Expr.Assignment assignment -> collect(assignment.value, calls);
+            case Expr.Binary binary -> {
+                collect(binary.left, calls);
+                collect(binary.right, calls);
+            }
+            case Expr.Call call -> {
+                calls.add(call.callee.lexeme());
+                for (final var argument : call.arguments) collect(argument, calls);
+            }
+            case Expr.Grouping grouping -> collect(grouping.expression, calls);
+            case Expr.If iff -> {
+                collect(iff.condition, calls);
+                collect(iff.thenExpr, calls);
+                collect(iff.elseExpr, calls);
+            }
+            case Expr.Match match -> {
+                collect(match.subject, calls);
+                for (final var arm : match.arms) collect(arm.body(), calls);
+                collect(match.otherwise, calls);
+            }
+            case Expr.Lambda lambda -> collect(lambda.body, calls);
+            case Expr.Logical logical -> {
+                collect(logical.left, calls);
+                collect(logical.right, calls);
+            }
+            case Expr.Unary unary -> collect(unary.right, calls);
+            case Expr.Literal _, Expr.Variable _ -> {}
+        }
+    }
+}
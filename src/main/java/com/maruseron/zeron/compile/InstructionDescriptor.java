@@ -37,7 +37,8 @@ public record InstructionDescriptor(Instruction instruction, Opcode.Kind kind, i
                         zeronType = TypeDescriptor.ofInt();
                     case DLOAD, DLOAD_0, DLOAD_1, DLOAD_2, DLOAD_3, DLOAD_W ->
                         zeronType = TypeDescriptor.ofFloat();
-                    default -> throw new IllegalStateException();
+                    // references (strings, function values) carry no zeron type here
+                    default -> {}
                 }
             }
             case OPERATOR -> {
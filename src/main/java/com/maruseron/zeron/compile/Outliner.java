@@ -0,0 +1,196 @@
+package com.maruseron.zeron.compile;
+
+import com.maruseron.zeron.ast.Expr;
+import com.maruseron.zeron.ast.Stmt;
+import com.maruseron.zeron.scan.Token;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+    Method splitting. HotSpot never JIT compiles a method with more than HugeMethodLimit
+bytes of bytecode, so a function that big runs interpreted no matter how hot it gets.
+The compiler emits such a function once, notes how many bytes each statement of its body
+took, and asks the Outliner for regions to move out: runs of consecutive statements that
+become private helper methods, called with the locals they read.
+
+    A region has to be self contained, since the helper has its own frame:
+
+    - no return, and no break out of a loop that starts outside of it
+    - no assignment to a local declared before it: the helper only gets a copy
+    - no local declared in it (at the top of the region) read after it
+
+    Regions are cut at half the limit, which leaves room for the code around them. A
+single statement bigger than that (one huge loop) stays where it is.
+ */
+final class Outliner {
+    // HotSpot's default HugeMethodLimit
+    static final int HUGE_METHOD_LIMIT = 8000;
+    static final int REGION_BUDGET = HUGE_METHOD_LIMIT / 2;
+    // calling a helper costs a few bytes, and a frame: tiny regions aren't worth one
+    private static final int MIN_REGION = 64;
+
+    private final List<Stmt> body;
+    private final List<Integer> sizes;
+    private final Set<String> globals;
+
+    /*
+        body: the statements of the method, and the bytes each one took. globals: the
+    names a region may assign freely, since they aren't in the frame.
+     */
+    Outliner(final List<Stmt> body, final List<Integer> sizes, final Set<String> globals) {
+        this.body = body;
+        this.sizes = sizes;
+        this.globals = globals;
+    }
+
+    // the regions to outline, in order, until what's left fits in a region itself.
+    // empty if nothing can be outlined
+    List<List<Stmt>> plan() {
+        // the last statement reading each name. locals declared in a region must not
+        // be read past it
+        final var lastUse = new HashMap<String, Integer>();
+        for (int i = 0; i < body.size(); i++) {
+            final var names = new HashMap<String, Token>();
+            Compiler.collectNames(body.get(i), names);
+            for (final var name : names.keySet()) lastUse.put(name, i);
+        }
+
+        var remaining = sizes.stream().mapToInt(Integer::intValue).sum();
+        final var regions = new ArrayList<List<Stmt>>();
+        int i = 0;
+        while (i < body.size() && remaining > REGION_BUDGET) {
+            final var declared = new HashSet<String>();
+            var readUntil = i;
+            var size = 0;
+            var end = -1;
+            var regionSize = 0;
+            for (int j = i; j < body.size(); j++) {
+                final var statement = body.get(j);
+                if (size + sizes.get(j) > REGION_BUDGET) break;
+                if (!selfContained(statement, declared, false, false)) break;
+                size += sizes.get(j);
+                if (statement instanceof Stmt.Var var) {
+                    readUntil = Math.max(readUntil,
+                            lastUse.getOrDefault(var.name().lexeme(), j));
+                }
+                if (readUntil <= j) {
+                    end = j + 1;
+                    regionSize = size;
+                }
+            }
+
+            if (end == -1 || regionSize < MIN_REGION) {
+                i++;
+            } else {
+                regions.add(body.subList(i, end));
+                remaining -= regionSize;
+                i = end;
+            }
+        }
+        return regions;
+    }
+
+    // consecutive runs of items of at most REGION_BUDGET bytes each, for code that's
+    // self contained by construction (global initializers). an item bigger than that
+    // gets a run of its own
+    static <T> List<List<T>> pack(final List<T> items, final List<Integer> sizes) {
+        final var runs = new ArrayList<List<T>>();
+        int start = 0;
+        var size = 0;
+        for (int i = 0; i < items.size(); i++) {
+            if (i > start && size + sizes.get(i) > REGION_BUDGET) {
+                runs.add(items.subList(start, i));
+                start = i;
+                size = 0;
+            }
+            size += sizes.get(i);
+        }
+        if (start < items.size()) runs.add(items.subList(start, items.size()));
+        return runs;
+    }
+
+    // ---------------------------------------------------------------- self containment
+
+    /*
+        declared: the locals declared in the region so far, visible where the statement
+    is. Statements that open a scope get a copy, so their locals don't leak out.
+     */
+    private boolean selfContained(final List<Stmt> statements,
+                                  final Set<String> declared,
+                                  final boolean inLoop,
+                                  final boolean inLambda) {
+        for (final var statement : statements) {
+            if (!selfContained(statement, declared, inLoop, inLambda)) return false;
+        }
+        return true;
+    }
+
+    private boolean selfContained(final Stmt statement,
+                                  final Set<String> declared,
+                                  final boolean inLoop,
+                                  final boolean inLambda) {
+        return switch (statement) {
+            case null -> true;
+            case Stmt.Block(List<Stmt> statements) ->
+                    selfContained(statements, new HashSet<>(declared), inLoop, inLambda);
+            case Stmt.Break _ -> inLoop;
+            case Stmt.Expression(Expr expression) -> selfContained(expression, declared);
+            case Stmt.For loop -> {
+                final var scope = new HashSet<>(declared);
+                scope.add(loop.iterationBind().lexeme());
+                yield selfContained(loop.iterable(), declared)
+                        && selfContained(loop.body(), scope, true, inLambda);
+            }
+            case Stmt.Function _ -> false;
+            case Stmt.If(_, Expr condition, Stmt thenBranch, Stmt elseBranch) ->
+                    selfContained(condition, declared)
+                            && selfContained(thenBranch, new HashSet<>(declared), inLoop, inLambda)
+                            && selfContained(elseBranch, new HashSet<>(declared), inLoop, inLambda);
+            case Stmt.Print(Expr expression) -> selfContained(expression, declared);
+            // a return in a lambda leaves the lambda, wherever it's called from
+            case Stmt.Return(Expr value) -> inLambda && selfContained(value, declared);
+            case Stmt.Var var -> {
+                final var initializer = selfContained(var.initializer(), declared);
+                declared.add(var.name().lexeme());
+                yield initializer;
+            }
+            case Stmt.While(_, Expr condition, Stmt body) ->
+                    selfContained(condition, declared)
+                            && selfContained(body, new HashSet<>(declared), true, inLambda);
+        };
+    }
+
+    private boolean selfContained(final Expr expr, final Set<String> declared) {
+        return switch (expr) {
+            case null -> true;
+            case Expr.Assignment assignment ->
+                    (declared.contains(assignment.name.lexeme())
+                            || globals.contains(assignment.name.lexeme()))
+                    && selfContained(assignment.value, declared);
+            case Expr.Binary binary ->
+                    selfContained(binary.left, declared) && selfContained(binary.right, declared);
+            case Expr.Call call -> call.arguments.stream()
+                    .allMatch(argument -> selfContained(argument, declared));
+            case Expr.Grouping grouping -> selfContained(grouping.expression, declared);
+            case Expr.If iff -> selfContained(iff.condition, declared)
+                    && selfContained(iff.thenExpr, declared)
+                    && selfContained(iff.elseExpr, declared);
+            case Expr.Match match -> selfContained(match.subject, declared)
+                    && match.arms.stream().allMatch(arm -> selfContained(arm.body(), declared))
+                    && selfContained(match.otherwise, declared);
+            case Expr.Lambda lambda -> {
+                final var scope = new HashSet<>(declared);
+                if (lambda.param != null) scope.add(lambda.param.lexeme());
+                yield selfContained(lambda.body, scope, false, true);
+            }
+            case Expr.Logical logical ->
+                    selfContained(logical.left, declared) && selfContained(logical.right, declared);
+            case Expr.Unary unary -> selfContained(unary.right, declared);
+            case Expr.Variable _, Expr.Literal _ -> true;
+        };
+    }
+}
@@ -0,0 +1,127 @@
+package com.maruseron.zeron.compile;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+    Splits the functions of a lazily compiled script (see Compiler.setLazy) into
+classes the JVM loads only when one of their functions is first called. Grouping
+follows the call graph:
+
+    - mutually recursive functions always share a class: they're reached together
+    - a group called from a single other group joins its caller, since it can't be
+      reached without loading the caller anyway
+    - anything else (called from several places, from main, from a global initializer
+      or from nowhere) starts a class of its own, named after its first function
+
+    main stays in the script class, which is loaded to run the script anyway, and
+everything it calls is split off from it. Partitions are nest mates of the script
+class.
+ */
+final class Partitioner {
+    private final Map<String, Set<String>> callees;
+    private final Set<String> roots;
+
+    // Tarjan's strongly connected components
+    private final Map<String, Integer> index = new HashMap<>();
+    private final Map<String, Integer> lowLink = new HashMap<>();
+    private final Deque<String> stack = new ArrayDeque<>();
+    private final Set<String> onStack = new HashSet<>();
+    private final List<List<String>> components = new ArrayList<>();
+
+    /*
+        callees: every function of the script, in declaration order, with the functions
+    it calls. roots: functions that must start a class of their own even if a single
+    function calls them, because something outside the call graph does too.
+     */
+    Partitioner(final Map<String, Set<String>> callees, final Set<String> roots) {
+        this.callees = callees;
+        this.roots = roots;
+    }
+
+    // the partition of every function, named after its first function. functions
+    // missing from the map stay in the script class
+    Map<String, String> partition(final String entry) {
+        for (final var function : callees.keySet()) {
+            if (!index.containsKey(function)) connect(function);
+        }
+
+        final var componentOf = new HashMap<String, Integer>();
+        for (int i = 0; i < components.size(); i++) {
+            for (final var function : components.get(i)) componentOf.put(function, i);
+        }
+        final var callers = new HashMap<Integer, Set<Integer>>();
+        callees.forEach((caller, called) -> {
+            for (final var callee : called) {
+                final var from = componentOf.get(caller);
+                final var to = componentOf.get(callee);
+                if (to != null && !from.equals(to)) {
+                    callers.computeIfAbsent(to, _ -> new HashSet<>()).add(from);
+                }
+            }
+        });
+
+        // components come out callees first: walk them backwards so every caller
+        // already has its partition
+        final var partitionOf = new HashMap<Integer, String>();
+        final var partitions = new LinkedHashMap<String, String>();
+        for (int i = components.size() - 1; i >= 0; i--) {
+            final var component = components.get(i);
+            final var from = callers.getOrDefault(i, Set.of());
+            final String partition;
+            if (component.contains(entry)) {
+                partition = null;
+            } else if (from.size() == 1
+                    && component.stream().noneMatch(roots::contains)
+                    && partitionOf.get(from.iterator().next()) != null) {
+                partition = partitionOf.get(from.iterator().next());
+            } else {
+                partition = component.getFirst();
+            }
+            partitionOf.put(i, partition);
+            if (partition != null) {
+                for (final var function : component) partitions.put(function, partition);
+            }
+        }
+        return partitions;
+    }
+
+    private void connect(final String function) {
+        index.put(function, index.size());
+        lowLink.put(function, index.get(function));
+        stack.push(function);
+        onStack.add(function);
+
+        for (final var callee : callees.getOrDefault(function, Set.of())) {
+            if (!callees.containsKey(callee)) continue;
+            if (!index.containsKey(callee)) {
+                connect(callee);
+                lowLink.put(function, Math.min(lowLink.get(function), lowLink.get(callee)));
+            } else if (onStack.contains(callee)) {
+                lowLink.put(function, Math.min(lowLink.get(function), index.get(callee)));
+            }
+        }
+
+        if (lowLink.get(function).equals(index.get(function))) {
+            final var component = new ArrayList<String>();
+            String member;
+            do {
+                member = stack.pop();
+                onStack.remove(member);
+                component.add(member);
+            } while (!member.equals(function));
+            // in declaration order, so the partition is named after the first one
+            final var order = List.copyOf(callees.keySet());
+            component.sort(Comparator.comparingInt(order::indexOf));
+            components.add(component);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.maruseron.zeron.compile;
+
+import java.lang.classfile.CodeElement;
+import java.lang.classfile.Instruction;
+import java.lang.classfile.Label;
+import java.lang.classfile.Opcode;
+import java.lang.classfile.instruction.BranchInstruction;
+import java.lang.classfile.instruction.ConstantInstruction;
+import java.lang.classfile.instruction.IncrementInstruction;
+import java.lang.classfile.instruction.InvokeInstruction;
+import java.lang.classfile.instruction.LabelTarget;
+import java.lang.classfile.instruction.LoadInstruction;
+import java.lang.classfile.instruction.ReturnInstruction;
+import java.lang.classfile.instruction.StackInstruction;
+import java.lang.classfile.instruction.StoreInstruction;
+import java.lang.classfile.instruction.TypeCheckInstruction;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Peephole pass over the code of one method, run on the buffered elements before they
+reach the method builder. Every rule only looks at neighbouring instructions with no
+label between them, so no branch can land in the middle of a rewritten window:
+
+    store n; load n     -> nothing, if that load is the only read of slot n in the
+                           method (the value just stays on the stack); otherwise
+                           dup; store n
+    box; unbox          -> nothing, for Integer, Double and Boolean (a checkcast to
+                           the wrapper in between is dropped with them)
+    push; pop           -> nothing, when the push is a constant or a local load
+    ldc small constant  -> iconst_n / bipush / sipush / dconst_n
+    branch to goto L    -> branch to L, following the chain to its end
+    goto to return      -> the return itself
+    goto next           -> nothing
+
+    The rules run until none applies. Smaller methods stay under HotSpot's inlining
+size thresholds, which is most of the point for call heavy scripts.
+ */
+final class Peephole {
+    private Peephole() {}
+
+    public static List<CodeElement> optimize(final List<CodeElement> code) {
+        var current = code;
+        while (true) {
+            final var next = pass(current);
+            if (next.equals(current)) return current;
+            current = next;
+        }
+    }
+
+    public static int sizeInBytes(final List<CodeElement> code) {
+        var size = 0;
+        for (final var element : code) {
+            if (element instanceof Instruction i) size += i.sizeInBytes();
+        }
+        return size;
+    }
+
+    private static List<CodeElement> pass(final List<CodeElement> code) {
+        final var loads = countLoads(code);
+        final var labels = labelPositions(code);
+        final var out = new ArrayList<CodeElement>(code.size());
+
+        for (int i = 0; i < code.size(); i++) {
+            final var element = code.get(i);
+            final var next = i + 1 < code.size() ? code.get(i + 1) : null;
+
+            switch (element) {
+                case StoreInstruction store when next instanceof LoadInstruction load
+                        && load.slot() == store.slot()
+                        && load.typeKind() == store.typeKind() -> {
+                    if (loads.getOrDefault(store.slot(), 0) > 1) {
+                        out.add(StackInstruction.of(store.typeKind().slotSize() == 2
+                                ? Opcode.DUP2
+                                : Opcode.DUP));
+                        out.add(store);
+                    }
+                    i++;
+                }
+                case InvokeInstruction box when isBox(box) -> {
+                    final var wrapper = box.owner().asSymbol();
+                    var j = i + 1;
+                    if (j < code.size()
+                            && code.get(j) instanceof TypeCheckInstruction cast
+                            && cast.opcode() == Opcode.CHECKCAST
+                            && cast.type().asSymbol().equals(wrapper)) {
+                        j++;
+                    }
+                    if (j < code.size()
+                            && code.get(j) instanceof InvokeInstruction unbox
+                            && isUnbox(unbox, wrapper)) {
+                        i = j;
+                    } else {
+                        out.add(element);
+                    }
+                }
+                case Instruction push when next instanceof StackInstruction pop
+                        && isPop(pop, push) -> i++;
+                case ConstantInstruction.LoadConstantInstruction ldc ->
+                        out.add(shorten(ldc));
+                case BranchInstruction branch -> {
+                    final var target = follow(code, labels, branch.target());
+                    final var landing = firstInstruction(code, labels.get(target));
+                    if (branch.opcode() == Opcode.GOTO && onlyLabelsUntil(code, i, target, labels)) {
+                        // falls through to its own target
+                    } else if (branch.opcode() == Opcode.GOTO
+                            && landing instanceof ReturnInstruction ret) {
+                        out.add(ReturnInstruction.of(ret.typeKind()));
+                    } else if (target != branch.target()) {
+                        out.add(BranchInstruction.of(branch.opcode(), target));
+                    } else {
+                        out.add(element);
+                    }
+                }
+                default -> out.add(element);
+            }
+        }
+        return out;
+    }
+
+    // ---------------------------------------------------------------- store / load
+
+    private static Map<Integer, Integer> countLoads(final List<CodeElement> code) {
+        final var loads = new HashMap<Integer, Integer>();
+        for (final var element : code) {
+            switch (element) {
+                case LoadInstruction load -> loads.merge(load.slot(), 1, Integer::sum);
+                // iinc reads the slot too
+                case IncrementInstruction inc -> loads.merge(inc.slot(), 2, Integer::sum);
+                default -> {}
+            }
+        }
+        return loads;
+    }
+
+    // ---------------------------------------------------------------- boxing
+
+    private static boolean isBox(final InvokeInstruction invoke) {
+        return invoke.opcode() == Opcode.INVOKESTATIC
+                && invoke.name().equalsString("valueOf")
+                && unboxerOf(invoke.owner().asSymbol()) != null
+                && invoke.typeSymbol().parameterCount() == 1
+                && invoke.typeSymbol().parameterType(0).isPrimitive();
+    }
+
+    private static boolean isUnbox(final InvokeInstruction invoke, final ClassDesc wrapper) {
+        return invoke.opcode() == Opcode.INVOKEVIRTUAL
+                && invoke.owner().asSymbol().equals(wrapper)
+                && invoke.name().equalsString(unboxerOf(wrapper))
+                && invoke.typeSymbol().parameterCount() == 0;
+    }
+
+    private static String unboxerOf(final ClassDesc wrapper) {
+        if (wrapper.equals(ConstantDescs.CD_Integer)) return "intValue";
+        if (wrapper.equals(ConstantDescs.CD_Double))  return "doubleValue";
+        if (wrapper.equals(ConstantDescs.CD_Boolean)) return "booleanValue";
+        return null;
+    }
+
+    // ---------------------------------------------------------------- push / pop
+
+    private static boolean isPop(final StackInstruction pop, final Instruction push) {
+        final var size = switch (push) {
+            case LoadInstruction load -> load.typeKind().slotSize();
+            case ConstantInstruction constant -> constant.typeKind().slotSize();
+            default -> 0;
+        };
+        return (size == 1 && pop.opcode() == Opcode.POP)
+            || (size == 2 && pop.opcode() == Opcode.POP2);
+    }
+
+    // ---------------------------------------------------------------- constants
+
+    private static Instruction shorten(final ConstantInstruction.LoadConstantInstruction ldc) {
+        return switch (ldc.constantValue()) {
+            case Integer value when value >= -1 && value <= 5 ->
+                    ConstantInstruction.ofIntrinsic(switch (value) {
+                        case -1 -> Opcode.ICONST_M1;
+                        case 0  -> Opcode.ICONST_0;
+                        case 1  -> Opcode.ICONST_1;
+                        case 2  -> Opcode.ICONST_2;
+                        case 3  -> Opcode.ICONST_3;
+                        case 4  -> Opcode.ICONST_4;
+                        default -> Opcode.ICONST_5;
+                    });
+            case Integer value when value == (byte) (int) value ->
+                    ConstantInstruction.ofArgument(Opcode.BIPUSH, value);
+            case Integer value when value == (short) (int) value ->
+                    ConstantInstruction.ofArgument(Opcode.SIPUSH, value);
+            // bitwise, so -0.0 keeps its ldc
+            case Double value when Double.doubleToRawLongBits(value) == 0L ->
+                    ConstantInstruction.ofIntrinsic(Opcode.DCONST_0);
+            case Double value when value == 1.0 ->
+                    ConstantInstruction.ofIntrinsic(Opcode.DCONST_1);
+            default -> ldc;
+        };
+    }
+
+    // ---------------------------------------------------------------- jumps
+
+    private static Map<Label, Integer> labelPositions(final List<CodeElement> code) {
+        final var labels = new HashMap<Label, Integer>();
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i) instanceof LabelTarget target) labels.put(target.label(), i);
+        }
+        return labels;
+    }
+
+    private static Instruction firstInstruction(final List<CodeElement> code, final Integer from) {
+        if (from == null) return null;
+        for (int i = from; i < code.size(); i++) {
+            if (code.get(i) instanceof Instruction instruction) return instruction;
+        }
+        return null;
+    }
+
+    // where a jump to label really ends up: through every goto it lands on
+    private static Label follow(final List<CodeElement> code,
+                                final Map<Label, Integer> labels,
+                                final Label label) {
+        final var seen = new HashSet<Label>();
+        var current = label;
+        while (seen.add(current)
+                && firstInstruction(code, labels.get(current)) instanceof BranchInstruction jump
+                && jump.opcode() == Opcode.GOTO) {
+            current = jump.target();
+        }
+        return current;
+    }
+
+    private static boolean onlyLabelsUntil(final List<CodeElement> code,
+                                           final int from,
+                                           final Label label,
+                                           final Map<Label, Integer> labels) {
+        final var to = labels.get(label);
+        if (to == null || to <= from) return false;
+        for (int i = from + 1; i < to; i++) {
+            if (!(code.get(i) instanceof LabelTarget)) return false;
+        }
+        return true;
+    }
+}
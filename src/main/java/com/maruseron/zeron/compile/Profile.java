@@ -0,0 +1,93 @@
+package com.maruseron.zeron.compile;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+    Runtime side of instrumented code, see Compiler.setProfile. The static initializer of
+an instrumented script class asks for one Counter per function and keeps it in a static
+final field, profile$<function>. Every function then reads System.nanoTime() on entry
+and hands it to its counter before each return, which is all a call costs: two nanoTime
+reads and two LongAdder updates, uncontended across threads.
+
+    Counters are registered here as they're created, so a host embedding compiled scripts
+can read them at any time with counters(). When the JVM exits the report is printed to
+stderr, slowest function first.
+ */
+public final class Profile {
+    private Profile() {}
+
+    private static final Queue<Counter> COUNTERS = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean REPORTING = new AtomicBoolean();
+
+    public static final class Counter {
+        private final String script;
+        private final String function;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private Counter(final String script, final String function) {
+            this.script = script;
+            this.function = function;
+        }
+
+        // the exit probe. start is the nanoTime the call read on entry
+        public void exit(final long start) {
+            nanos.add(System.nanoTime() - start);
+            calls.increment();
+        }
+
+        public String script() {
+            return script;
+        }
+
+        public String function() {
+            return function;
+        }
+
+        public long calls() {
+            return calls.sum();
+        }
+
+        // total time spent in the function, callees included
+        public long nanos() {
+            return nanos.sum();
+        }
+    }
+
+    public static Counter counter(final String script, final String function) {
+        if (REPORTING.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.print(report())));
+        }
+        final var counter = new Counter(script, function);
+        COUNTERS.add(counter);
+        return counter;
+    }
+
+    // every counter created so far, slowest function first
+    public static List<Counter> counters() {
+        return COUNTERS.stream()
+                .sorted(Comparator.comparingLong(Counter::nanos).reversed())
+                .toList();
+    }
+
+    public static String report() {
+        final var report = new StringBuilder(String.format(
+                "%-40s %12s %14s %12s%n", "function", "calls", "total ms", "mean us"));
+        for (final var counter : counters()) {
+            final var calls = counter.calls();
+            if (calls == 0) continue;
+            final var nanos = counter.nanos();
+            report.append(String.format("%-40s %12d %14.3f %12.3f%n",
+                    counter.script() + "." + counter.function(),
+                    calls,
+                    nanos / 1e6,
+                    nanos / 1e3 / calls));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package com.maruseron.zeron.domain;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+
+/*
+    The java.util.function interface a function type compiles to. Int and Float pick the
+primitive specializations, so higher order numeric code neither boxes nor allocates per
+call; anything else goes through the generic ones as an Object. Boolean results have
+their own interfaces (BooleanSupplier, the predicates), Boolean parameters don't, so they
+travel boxed.
+
+    | type                   | interface           | method       | erased   |
+    | ---------------------- | ------------------- | ------------ | -------- |
+    | () -> Unit             | Runnable            | run          | ()V      |
+    | () -> Int              | IntSupplier         | getAsInt     | ()I      |
+    | (Int) -> Int           | IntUnaryOperator    | applyAsInt   | (I)I     |
+    | (Int) -> Float         | IntToDoubleFunction | applyAsDouble| (I)D     |
+    | (Float) -> Boolean     | DoublePredicate     | test         | (D)Z     |
+    | (String) -> Int        | ToIntFunction       | applyAsInt   | (Object)I|
+    | (Int) -> (Int) -> Int  | IntFunction         | apply        | (I)Object|
+    | ...                    |                     |              |          |
+
+    Zeron lambdas take one parameter at most: a function of several is written curried,
+`a -> b -> a + b`, and each step gets the interface of its own arity.
+ */
+public record LambdaInterface(ClassDesc type, String method, MethodTypeDesc erased) {
+
+    public static LambdaInterface of(final FunctionDescriptor function) {
+        final var returns = kindOf(function.returnType());
+        return switch (function.arity()) {
+            case 0 -> switch (returns) {
+                case 'V' -> of("Runnable",        "run",          "()V");
+                case 'I' -> of("IntSupplier",     "getAsInt",     "()I");
+                case 'D' -> of("DoubleSupplier",  "getAsDouble",  "()D");
+                case 'Z' -> of("BooleanSupplier", "getAsBoolean", "()Z");
+                default  -> of("Supplier",        "get",          "()Ljava/lang/Object;");
+            };
+            case 1 -> switch (parameterKindOf(function.parameters().getFirst())) {
+                case 'I' -> switch (returns) {
+                    case 'V' -> of("IntConsumer",         "accept",        "(I)V");
+                    case 'I' -> of("IntUnaryOperator",    "applyAsInt",    "(I)I");
+                    case 'D' -> of("IntToDoubleFunction", "applyAsDouble", "(I)D");
+                    case 'Z' -> of("IntPredicate",        "test",          "(I)Z");
+                    default  -> of("IntFunction",         "apply",         "(I)Ljava/lang/Object;");
+                };
+                case 'D' -> switch (returns) {
+                    case 'V' -> of("DoubleConsumer",      "accept",        "(D)V");
+                    case 'I' -> of("DoubleToIntFunction", "applyAsInt",    "(D)I");
+                    case 'D' -> of("DoubleUnaryOperator", "applyAsDouble", "(D)D");
+                    case 'Z' -> of("DoublePredicate",     "test",          "(D)Z");
+                    default  -> of("DoubleFunction",      "apply",         "(D)Ljava/lang/Object;");
+                };
+                default -> switch (returns) {
+                    case 'V' -> of("Consumer",         "accept",        "(Ljava/lang/Object;)V");
+                    case 'I' -> of("ToIntFunction",    "applyAsInt",    "(Ljava/lang/Object;)I");
+                    case 'D' -> of("ToDoubleFunction", "applyAsDouble", "(Ljava/lang/Object;)D");
+                    case 'Z' -> of("Predicate",        "test",          "(Ljava/lang/Object;)Z");
+                    default  -> of("Function",         "apply",
+                            "(Ljava/lang/Object;)Ljava/lang/Object;");
+                };
+            };
+            default -> throw new UnsupportedOperationException(
+                    "lambdas: more than one parameter");
+        };
+    }
+
+    // how a parameter of this type crosses the interface: there are no boolean consuming
+    // interfaces, so Boolean goes as a reference along with everything that isn't a number
+    public static ClassDesc parameterTypeOf(final TypeDescriptor type) {
+        return type instanceof BooleanDescriptor
+                ? ConstantDescs.CD_Boolean
+                : TypeDescriptor.toJavaClassDesc(type);
+    }
+
+    private static LambdaInterface of(final String name,
+                                      final String method,
+                                      final String descriptor) {
+        // Runnable is the only one that isn't in java.util.function
+        return new LambdaInterface(
+                ClassDesc.of(name.equals("Runnable") ? "java.lang" : "java.util.function", name),
+                method,
+                MethodTypeDesc.ofDescriptor(descriptor));
+    }
+
+    private static char parameterKindOf(final TypeDescriptor type) {
+        final var kind = kindOf(type);
+        return kind == 'Z' ? 'L' : kind;
+    }
+
+    private static char kindOf(final TypeDescriptor type) {
+        return switch (type) {
+            case UnitDescriptor _    -> 'V';
+            case IntDescriptor _     -> 'I';
+            case FloatDescriptor _   -> 'D';
+            case BooleanDescriptor _ -> 'Z';
+            default                  -> 'L';
+        };
+    }
+}
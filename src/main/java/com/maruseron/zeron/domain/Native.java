@@ -0,0 +1,112 @@
+package com.maruseron.zeron.domain;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+
+/*
+    A function implemented by a static Java method. The same entry serves every backend:
+    the resolver reads its Zeron type, the compiler emits an invokestatic against owner,
+    method and descriptor, and the interpreters call through the handle.
+
+    generic() is the handle adapted to (Object...)Object, so the dynamically typed
+    engines can invoke it exactly with their boxed values and no argument list.
+ */
+public final class Native {
+    private final String name;
+    private final FunctionDescriptor type;
+    private final ClassDesc owner;
+    private final String method;
+    private final MethodTypeDesc descriptor;
+    private final MethodHandle handle;
+    private final MethodHandle generic;
+    private final MethodHandle spreader;
+
+    Native(final String name,
+           final FunctionDescriptor type,
+           final Class<?> owner,
+           final String method,
+           final MethodHandle handle) {
+        this.name = name;
+        this.type = type;
+        this.owner = owner.describeConstable().orElseThrow();
+        this.method = method;
+        this.descriptor = handle.type().describeConstable().orElseThrow();
+        this.handle = handle;
+        this.generic = handle.asType(MethodType.genericMethodType(type.arity()));
+        this.spreader = generic.asSpreader(Object[].class, type.arity());
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public FunctionDescriptor type() {
+        return type;
+    }
+
+    public int arity() {
+        return type.arity();
+    }
+
+    public ClassDesc owner() {
+        return owner;
+    }
+
+    public String method() {
+        return method;
+    }
+
+    public MethodTypeDesc descriptor() {
+        return descriptor;
+    }
+
+    // exactly typed after the Java method, e.g. (D)D for Math.sqrt
+    public MethodHandle handle() {
+        return handle;
+    }
+
+    public Object invoke0() {
+        try {
+            return (Object) generic.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public Object invoke1(final Object a) {
+        try {
+            return (Object) generic.invokeExact(a);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public Object invoke2(final Object a, final Object b) {
+        try {
+            return (Object) generic.invokeExact(a, b);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public Object invoke(final Object[] arguments) {
+        try {
+            return (Object) spreader.invokeExact(arguments);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static RuntimeException rethrow(final Throwable t) {
+        if (t instanceof RuntimeException e) throw e;
+        if (t instanceof Error e) throw e;
+        throw new IllegalStateException(t);
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn " + name + ">";
+    }
+}
@@ -0,0 +1,80 @@
+package com.maruseron.zeron.domain;
+
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+    Registry of the built in functions. Each one is declared once, with its Zeron type
+    and the static method implementing it; the Java signature follows from the type
+    through TypeDescriptor.toJavaClassDesc. The math functions map straight onto
+    java.lang.Math, so compiled code calls the methods the JIT already treats as
+    intrinsics.
+
+    Natives are declared in every SymbolTable before the script. A script function with
+    the same name replaces the native for that program.
+ */
+public final class Natives {
+    private Natives() {}
+
+    private static final Map<String, Native> NATIVES = new LinkedHashMap<>();
+
+    static {
+        final var intType = TypeDescriptor.ofInt();
+        final var floatType = TypeDescriptor.ofFloat();
+
+        register("clock", Natives.class, "clock", intType);
+        register("nanoClock", Natives.class, "nanoClock", floatType);
+
+        for (final var name : new String[] {
+                "sqrt", "cbrt", "exp", "log", "log10", "sin", "cos", "tan", "asin", "acos",
+                "atan", "floor", "ceil", "rint", "abs" }) {
+            register(name, Math.class, name, floatType, floatType);
+        }
+        for (final var name : new String[] { "pow", "atan2", "hypot", "min", "max" }) {
+            register(name, Math.class, name, floatType, floatType, floatType);
+        }
+    }
+
+    private static void register(final String name,
+                                 final Class<?> owner,
+                                 final String method,
+                                 final TypeDescriptor returnType,
+                                 final TypeDescriptor... parameters) {
+        final var type = TypeDescriptor.functionOf(name, returnType, parameters);
+        final var lookup = MethodHandles.publicLookup();
+        try {
+            final var javaType = MethodTypeDesc.of(
+                    TypeDescriptor.toJavaClassDesc(returnType),
+                    Arrays.stream(parameters).map(TypeDescriptor::toJavaClassDesc).toList());
+            final MethodType resolved = javaType.resolveConstantDesc(lookup);
+            NATIVES.put(name, new Native(name, type, owner, method,
+                    lookup.findStatic(owner, method, resolved)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public static Native get(final String name) {
+        return NATIVES.get(name);
+    }
+
+    public static Collection<Native> all() {
+        return NATIVES.values();
+    }
+
+    // seconds since the epoch, kept as the original interpreter clock
+    public static int clock() {
+        return (int) (System.currentTimeMillis() / 1000L);
+    }
+
+    // System.nanoTime as a Float: an Int can't hold it, and a double counts
+    // nanoseconds exactly for over a hundred days
+    public static double nanoClock() {
+        return System.nanoTime();
+    }
+}
@@ -6,6 +6,7 @@ import com.maruseron.zeron.analize.ResolutionError;
 import com.maruseron.zeron.analize.Width;
 import com.maruseron.zeron.ast.Stmt;
 import com.maruseron.zeron.scan.Token;
+import com.maruseron.zeron.scan.TokenType;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -72,10 +73,50 @@ public final class SymbolTable {
      */
     private final List<String> locals = new ArrayList<>();
 
+    /*
+    Frames: the interpreter has no stack map, so it needs to know how many slots to
+    allocate per call. maxLocals is the high water mark of the lvt since the last
+    beginFrame, and is recorded per function name on endFrame. globals maps each top
+    level symbol to its slot in the global frame, in declaration order.
+     */
+    private final List<String> globals = new ArrayList<>();
+    private final Map<String, Integer> frameSizes = new HashMap<>();
+    private int maxLocals = 0;
+
+    /*
+    Lambda frames: a lambda runs in a frame of its own whose parent is the frame it was
+    created in, and its locals keep counting up the same lvt. lambdaBases holds the lvt
+    index each open lambda frame starts at, innermost last, so a local's depth is the
+    number of lambda frames opened after it and its slot is its offset from the start of
+    its own frame.
+     */
+    private final List<Integer> lambdaBases = new ArrayList<>();
+    private final List<Integer> enclosingMaxLocals = new ArrayList<>();
+
+    // natives come first, as if declared before the script. they are the only binds
+    // without a declaration
+    public SymbolTable() {
+        for (final var fn : Natives.all()) {
+            functions.put(fn.name(), new Bind(
+                    null,
+                    new Token(TokenType.IDENTIFIER, fn.name(), null, 0),
+                    GLOBAL,
+                    fn.type(),
+                    Width.FUNCTION,
+                    true,
+                    true));
+        }
+    }
+
     public boolean containsFunction(final Token name) {
         return functions.containsKey(name.lexeme());
     }
 
+    public boolean isNative(final Token name) {
+        final var function = functions.get(name.lexeme());
+        return function != null && function.declaration() == null;
+    }
+
     public boolean containsSymbol(final Token name) {
         return symbols.containsKey(name.lexeme());
     }
@@ -115,10 +156,43 @@ public final class SymbolTable {
         return locals;
     }
 
+    public int globalCount() {
+        return globals.size();
+    }
+
+    // frame depth of a bind: GLOBAL for top level symbols, 0 for the current frame and
+    // one more per lambda frame between it and the current one
+    public int depthOf(final Token name) {
+        final var lvt = getSymbol(name).lvt();
+        if (lvt == GLOBAL) return GLOBAL;
+        var depth = 0;
+        for (final var base : lambdaBases) {
+            if (base > lvt) depth++;
+        }
+        return depth;
+    }
+
+    // frame slot of a bind: the offset into its frame for locals, the global frame
+    // index otherwise
+    public int slotOf(final Token name) {
+        final var bind = getSymbol(name);
+        if (bind.lvt() == GLOBAL) return globals.indexOf(name.lexeme());
+        var base = 0;
+        for (final var lambdaBase : lambdaBases) {
+            if (lambdaBase <= bind.lvt()) base = lambdaBase;
+        }
+        return bind.lvt() - base;
+    }
+
+    public int frameSize(final Token function) {
+        return frameSizes.getOrDefault(function.lexeme(), 0);
+    }
+
     public void declareFunction(final Stmt declaration,
                                 final Token name,
                                 final TypeDescriptor type) {
-        if (containsFunction(name)) {
+        // a script function may take the name of a native, never of another function
+        if (containsFunction(name) && !isNative(name)) {
             Zeron.resolutionError(new ResolutionError(name,
                     "Already a function bound to this name."));
             return;
@@ -162,6 +236,7 @@ public final class SymbolTable {
                 type.isDoubleWidth() ? Width.DOUBLE : Width.SINGLE,
                 false,
                 isFinal));
+        globals.add(name.lexeme());
         return GLOBAL;
     }
 
@@ -193,6 +268,7 @@ public final class SymbolTable {
             scope.size++;
             locals.add(name.lexeme());
         }
+        maxLocals = Math.max(maxLocals, locals.size());
 
         return lvt;
     }
@@ -222,6 +298,27 @@ public final class SymbolTable {
                 (_, v) -> v.withType(((FunctionDescriptor)v.type()).toReturnType(resolvedType)));
     }
 
+    public void beginFrame() {
+        maxLocals = locals.size();
+    }
+
+    public void endFrame(final Token function) {
+        frameSizes.put(function.lexeme(), maxLocals);
+    }
+
+    public void beginLambdaFrame() {
+        lambdaBases.add(locals.size());
+        enclosingMaxLocals.add(maxLocals);
+        maxLocals = locals.size();
+    }
+
+    // closes the innermost lambda frame and returns its size
+    public int endLambdaFrame() {
+        final var size = maxLocals - lambdaBases.removeLast();
+        maxLocals = Math.max(maxLocals, enclosingMaxLocals.removeLast());
+        return size;
+    }
+
     public void beginScope() {
         final var parent = scope;
         scope = new Scope();
@@ -239,6 +336,35 @@ public final class SymbolTable {
         scope = scope.enclosing;
     }
 
+    public int scopeDepth() {
+        var depth = 0;
+        for (var current = scope; current != null; current = current.enclosing) depth++;
+        return depth;
+    }
+
+    // drops every scope opened past depth, for callers that gave up halfway through
+    public void unwindTo(final int depth) {
+        while (scopeDepth() > depth) endScope();
+    }
+
+    /*
+    Inlining: the body of an inlined function can't see the locals of its caller, so
+    they are taken out of the table while it is emitted and put back afterwards. their
+    slots stay in the lvt, which is what moves the callee's locals to fresh ones
+     */
+    public Map<String, Bind> hideLocals() {
+        final var hidden = new HashMap<String, Bind>();
+        for (final var name : locals) {
+            final var bind = symbols.remove(name);
+            if (bind != null) hidden.put(name, bind);
+        }
+        return hidden;
+    }
+
+    public void restoreLocals(final Map<String, Bind> hidden) {
+        symbols.putAll(hidden);
+    }
+
     void verify() {
         var current = scope;
         var size = 0;
@@ -117,9 +117,8 @@ public sealed interface TypeDescriptor
             case BooleanDescriptor  bd -> ConstantDescs.CD_boolean;
             case StringDescriptor   sd -> ConstantDescs.CD_String;
             case NominalDescriptor  nd -> ClassDesc.of(nd.name());
-            case FunctionDescriptor fd ->
-                    throw new IllegalArgumentException(
-                            "Illegal conversion: FunctionDescriptor to java.constant.ClassDesc");
+            // function values are instances of a functional interface, see LambdaInterface
+            case FunctionDescriptor fd -> LambdaInterface.of(fd).type();
             case GenericDescriptor  gd ->
                     throw new UnsupportedOperationException(
                             "Generic descriptors to be implemented");
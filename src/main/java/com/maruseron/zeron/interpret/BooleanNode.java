@@ -0,0 +1,272 @@
+package com.maruseron.zeron.interpret;
+
+import com.maruseron.zeron.scan.Token;
+
+/*
+    Nodes whose static type is a non nullable Boolean: reads and writes of Boolean
+    binds, logical operators and every comparison. Comparisons pick their node after
+    the static type of their operands, so `i < n` on two Ints is an IntLess that
+    compares two ints and never boxes either side or the result.
+ */
+abstract class BooleanNode extends ExprNode {
+    @Override abstract boolean evalBoolean(Environment frame);
+
+    @Override final Object execute(final Environment frame) {
+        return evalBoolean(frame);
+    }
+
+    @Override final void executeVoid(final Environment frame) {
+        evalBoolean(frame);
+    }
+
+    static final class Read extends BooleanNode {
+        private final Environment globals;
+        private final int depth;
+        private final int slot;
+
+        Read(final Environment globals, final int depth, final int slot) {
+            this.globals = globals;
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return frame.frameAt(globals, depth).primitives[slot] != 0;
+        }
+    }
+
+    static final class Write extends BooleanNode {
+        private final Environment globals;
+        private final int depth;
+        private final int slot;
+        private ExprNode value;
+
+        Write(final Environment globals, final int depth, final int slot, final ExprNode value) {
+            this.globals = globals;
+            this.depth = depth;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (value == oldChild) value = newChild;
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            final var result = value.evalBoolean(frame);
+            frame.frameAt(globals, depth).primitives[slot] = result ? 1 : 0;
+            return result;
+        }
+    }
+
+    // guards an operand whose static type is not Boolean where a Boolean is required
+    static final class Check extends BooleanNode {
+        private final Token where;
+        private ExprNode operand;
+
+        Check(final Token where, final ExprNode operand) {
+            this.where = where;
+            this.operand = adopt(operand);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (operand == oldChild) operand = newChild;
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            if (operand.execute(frame) instanceof Boolean b) return b;
+            throw new RuntimeError(where, "Operand must be a boolean.");
+        }
+    }
+
+    static final class Not extends BooleanNode {
+        private ExprNode operand;
+
+        Not(final ExprNode operand) {
+            this.operand = adopt(operand);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (operand == oldChild) operand = newChild;
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return !operand.evalBoolean(frame);
+        }
+    }
+
+    abstract static class Binary extends BooleanNode {
+        ExprNode left;
+        ExprNode right;
+
+        Binary(final ExprNode left, final ExprNode right) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (left  == oldChild) left  = newChild;
+            if (right == oldChild) right = newChild;
+        }
+    }
+
+    static final class And extends Binary {
+        And(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalBoolean(frame) && right.evalBoolean(frame);
+        }
+    }
+
+    static final class Or extends Binary {
+        Or(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalBoolean(frame) || right.evalBoolean(frame);
+        }
+    }
+
+    static final class Equal extends Binary {
+        Equal(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalBoolean(frame) == right.evalBoolean(frame);
+        }
+    }
+
+    static final class NotEqual extends Binary {
+        NotEqual(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalBoolean(frame) != right.evalBoolean(frame);
+        }
+    }
+
+    static final class IntGreater extends Binary {
+        IntGreater(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalInt(frame) > right.evalInt(frame);
+        }
+    }
+
+    static final class IntGreaterEqual extends Binary {
+        IntGreaterEqual(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalInt(frame) >= right.evalInt(frame);
+        }
+    }
+
+    static final class IntLess extends Binary {
+        IntLess(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalInt(frame) < right.evalInt(frame);
+        }
+    }
+
+    static final class IntLessEqual extends Binary {
+        IntLessEqual(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalInt(frame) <= right.evalInt(frame);
+        }
+    }
+
+    static final class IntEqual extends Binary {
+        IntEqual(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalInt(frame) == right.evalInt(frame);
+        }
+    }
+
+    static final class IntNotEqual extends Binary {
+        IntNotEqual(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalInt(frame) != right.evalInt(frame);
+        }
+    }
+
+    static final class FloatGreater extends Binary {
+        FloatGreater(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalDouble(frame) > right.evalDouble(frame);
+        }
+    }
+
+    static final class FloatGreaterEqual extends Binary {
+        FloatGreaterEqual(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalDouble(frame) >= right.evalDouble(frame);
+        }
+    }
+
+    static final class FloatLess extends Binary {
+        FloatLess(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalDouble(frame) < right.evalDouble(frame);
+        }
+    }
+
+    static final class FloatLessEqual extends Binary {
+        FloatLessEqual(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalDouble(frame) <= right.evalDouble(frame);
+        }
+    }
+
+    static final class FloatEqual extends Binary {
+        FloatEqual(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalDouble(frame) == right.evalDouble(frame);
+        }
+    }
+
+    static final class FloatNotEqual extends Binary {
+        FloatNotEqual(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return left.evalDouble(frame) != right.evalDouble(frame);
+        }
+    }
+}
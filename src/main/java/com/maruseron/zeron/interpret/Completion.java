@@ -0,0 +1,23 @@
+package com.maruseron.zeron.interpret;
+
+/*
+    How a statement finished, returned from every execute instead of unwinding the
+    Java stack with exceptions. A block stops at the first statement that does not
+    complete normally and hands that completion up; loops absorb BREAK and CONTINUE,
+    functions absorb RETURN. The value of a return travels in the frame
+    (Environment.returnValue), so no completion ever has to be allocated.
+
+    TAIL_CALL is a return whose value is a call of the function to itself (see
+    Expr.Call.isTailCall). It leaves the body like RETURN, with the arguments in
+    Environment.tailArguments (the node backend has already written them over the
+    parameters), and the function runs its body again with them instead of nesting
+    another call: recursion in tail position takes no Java stack.
+ */
+public enum Completion {
+    NORMAL, BREAK, CONTINUE, RETURN, TAIL_CALL;
+
+    // whether the function the statement is in is done with this activation
+    boolean leavesFunction() {
+        return this == RETURN || this == TAIL_CALL;
+    }
+}
@@ -1,60 +1,83 @@
 package com.maruseron.zeron.interpret;
 
-import com.maruseron.zeron.domain.TypeDescriptor;
-import com.maruseron.zeron.scan.Token;
+import com.maruseron.zeron.domain.SymbolTable;
 
-import java.util.HashMap;
-import java.util.Map;
+/*
+    Environments are array backed frames. The resolver hands every read, write and
+    declaration a (depth, slot) address, so a lookup is a walk of `depth` enclosing
+    links followed by an array load. Top level functions run in a single flat frame
+    sized after the highest lvt index they use; globals live in their own frame and
+    are addressed with SymbolTable.GLOBAL instead of a depth.
 
+    The Interpreter only uses `slots`. The node backend's frames (see withPrimitives)
+    have a second array indexed by the same slots: binds whose static type is Int,
+    Float or Boolean are kept unboxed in `primitives` (see SlotKind) and everything
+    else in `slots`. Other frames leave it null.
+ */
 public final class Environment {
     final Environment enclosing;
-    private final Map<String, Bind> values = new HashMap<>();
+    final Object[] slots;
+    final long[] primitives;
+    // set by a return statement right before it completes with Completion.RETURN
+    Object returnValue;
+    // set by a return right before it completes with Completion.TAIL_CALL
+    Object[] tailArguments;
+    // node backend: where a self tail call evaluates its arguments before they replace
+    // the parameters, kept for every iteration of the activation (see NodeFunction)
+    long[] tailPrimitives;
 
-    Environment() {
-        enclosing = null;
+    Environment(final int size) {
+        this(null, size);
     }
 
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
+    Environment(final Environment enclosing, final int size) {
+        this(enclosing, new Object[size], null);
     }
 
-    Bind get(final Token name) {
-        if (values.containsKey(name.lexeme())) {
-            var entry = values.get(name.lexeme());
-            if (!entry.isInitialized()) {
-                throw new RuntimeError(name,
-                        "Attempted to read variable '" +
-                        name.lexeme() + "' before initialization.");
-            }
-            return entry;
-        }
+    private Environment(final Environment enclosing,
+                        final Object[] slots,
+                        final long[] primitives) {
+        this.enclosing = enclosing;
+        this.slots = slots;
+        this.primitives = primitives;
+    }
 
-        if (enclosing != null) return enclosing.get(name);
+    // a frame of the node backend, with both halves
+    static Environment withPrimitives(final Environment enclosing, final int size) {
+        return new Environment(enclosing, new Object[size], new long[size]);
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'.");
+    Object get(final int depth, final int slot) {
+        return ancestor(depth).slots[slot];
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme())) {
-            final var entry = values.get(name.lexeme());
-            if (entry.isFinal()) {
-                throw new RuntimeError(name,
-                        "Cannot reassign final variable '" + name.lexeme() + "'.");
-            }
-            values.put(name.lexeme(), entry.withValue(value));
-            return;
-        }
+    void assign(final int depth, final int slot, final Object value) {
+        ancestor(depth).slots[slot] = value;
+    }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
+    // the frame an address points into, `globals` for SymbolTable.GLOBAL
+    Environment frameAt(final Environment globals, final int depth) {
+        return depth == SymbolTable.GLOBAL ? globals : ancestor(depth);
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'.");
+    /*
+        A copy of this frame, for a lambda created in it. Sibling scopes reuse slots, so
+    the live frame would let a later bind (or the next iteration of a loop) overwrite
+    what the lambda captured. The copy holds the values every bind has right now, which
+    is what compiled lambdas see too: they get their captures as arguments.
+     */
+    Environment snapshot() {
+        return new Environment(
+                enclosing,
+                slots.clone(),
+                primitives == null ? null : primitives.clone());
     }
 
-    void define(final String name, final TypeDescriptor typeDescriptor, final Object value,
-                final boolean isInitialized, final boolean isFinal) {
-        values.put(name, new Bind(name, typeDescriptor, value, isInitialized, isFinal));
+    Environment ancestor(final int depth) {
+        var environment = this;
+        for (var i = 0; i < depth; i++) {
+            environment = environment.enclosing;
+        }
+        return environment;
     }
 }
@@ -0,0 +1,555 @@
+package com.maruseron.zeron.interpret;
+
+import com.maruseron.zeron.ast.Expr;
+import com.maruseron.zeron.domain.Native;
+import com.maruseron.zeron.scan.Token;
+
+import java.util.Objects;
+
+/*
+    Executable expression nodes. The NodeTranslator turns every resolved Expr into one
+    of these once, binding children, frame slots and call targets as final fields, so
+    running an expression is a virtual call per node instead of a pattern match over
+    the whole Expr hierarchy plus a switch over the operator token.
+
+    Besides execute, every node can be evaluated through evalInt, evalDouble and
+    evalBoolean. The defaults unbox the result of execute; the nodes in IntNode,
+    FloatNode and BooleanNode override them and never box, so a parent that knows the
+    static type of its child (see SlotKind) can run arithmetic without allocating.
+ */
+abstract class ExprNode extends Node {
+    // set once this node is no longer part of the tree. a recursive call can still be
+    // running a node that an inner activation already replaced, and such a node must
+    // not rewrite itself again
+    boolean replaced = false;
+
+    abstract Object execute(Environment frame);
+
+    int evalInt(final Environment frame) {
+        return (Integer) execute(frame);
+    }
+
+    double evalDouble(final Environment frame) {
+        return (Double) execute(frame);
+    }
+
+    boolean evalBoolean(final Environment frame) {
+        return (Boolean) execute(frame);
+    }
+
+    // runs the node for its side effects only, typed nodes override it to skip boxing
+    void executeVoid(final Environment frame) {
+        execute(frame);
+    }
+
+    final <T extends ExprNode> T replace(final T replacement) {
+        parent.replaceChild(this, replacement);
+        replacement.parent = parent;
+        replaced = true;
+        return replacement;
+    }
+
+    static final class Literal extends ExprNode {
+        private final Object value;
+
+        Literal(final Object value) {
+            this.value = value;
+        }
+
+        @Override Object execute(final Environment frame) {
+            return value;
+        }
+    }
+
+    static final class ReadLocal extends ExprNode {
+        private final int slot;
+
+        ReadLocal(final int slot) {
+            this.slot = slot;
+        }
+
+        @Override Object execute(final Environment frame) {
+            return frame.slots[slot];
+        }
+    }
+
+    static final class ReadEnclosing extends ExprNode {
+        private final int depth;
+        private final int slot;
+
+        ReadEnclosing(final int depth, final int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override Object execute(final Environment frame) {
+            return frame.get(depth, slot);
+        }
+    }
+
+    static final class ReadGlobal extends ExprNode {
+        private final Object[] globals;
+        private final int slot;
+
+        ReadGlobal(final Environment globals, final int slot) {
+            this.globals = globals.slots;
+            this.slot = slot;
+        }
+
+        @Override Object execute(final Environment frame) {
+            return globals[slot];
+        }
+    }
+
+    static final class WriteLocal extends ExprNode {
+        private final int slot;
+        private ExprNode value;
+
+        WriteLocal(final int slot, final ExprNode value) {
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (value == oldChild) value = newChild;
+        }
+
+        @Override Object execute(final Environment frame) {
+            return frame.slots[slot] = value.execute(frame);
+        }
+    }
+
+    static final class WriteEnclosing extends ExprNode {
+        private final int depth;
+        private final int slot;
+        private ExprNode value;
+
+        WriteEnclosing(final int depth, final int slot, final ExprNode value) {
+            this.depth = depth;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (value == oldChild) value = newChild;
+        }
+
+        @Override Object execute(final Environment frame) {
+            final var result = value.execute(frame);
+            frame.assign(depth, slot, result);
+            return result;
+        }
+    }
+
+    static final class WriteGlobal extends ExprNode {
+        private final Object[] globals;
+        private final int slot;
+        private ExprNode value;
+
+        WriteGlobal(final Environment globals, final int slot, final ExprNode value) {
+            this.globals = globals.slots;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (value == oldChild) value = newChild;
+        }
+
+        @Override Object execute(final Environment frame) {
+            return globals[slot] = value.execute(frame);
+        }
+    }
+
+    // Binary operators. Each operator gets its own node so the operator token is never
+    // looked at again after translation; operand checks mirror Interpreter.evaluate.
+    // Operands of a primitive static type get the unboxed nodes in IntNode, FloatNode
+    // and BooleanNode instead. Other arithmetic and comparisons start out as a
+    // SpecializingNode.Uninitialized and only fall back to these generic nodes once
+    // they have seen mixed operand types.
+    abstract static class Binary extends ExprNode {
+        final Token operator;
+        ExprNode left;
+        ExprNode right;
+
+        Binary(final Token operator, final ExprNode left, final ExprNode right) {
+            this.operator = operator;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (left  == oldChild) left  = newChild;
+            if (right == oldChild) right = newChild;
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        abstract Object apply(Object left, Object right);
+
+        RuntimeError invalidOperands() {
+            return new RuntimeError(operator, "Invalid operands.");
+        }
+    }
+
+    static final class Add extends Binary {
+        Add(final Token operator, final ExprNode left, final ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override Object apply(final Object left, final Object right) {
+            if (left instanceof String || right instanceof String) {
+                return left.toString() + right.toString();
+            }
+            if (left instanceof Number ln && right instanceof Number rn) {
+                if (left instanceof Integer) return ln.intValue() + rn.intValue();
+                if (left instanceof Double)  return ln.doubleValue() + rn.doubleValue();
+            }
+            throw invalidOperands();
+        }
+    }
+
+    static final class Subtract extends Binary {
+        Subtract(final Token operator, final ExprNode left, final ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override Object apply(final Object left, final Object right) {
+            if (left instanceof Number ln && right instanceof Number rn) {
+                if (left instanceof Integer) return ln.intValue() - rn.intValue();
+                if (left instanceof Double)  return ln.doubleValue() - rn.doubleValue();
+            }
+            throw invalidOperands();
+        }
+    }
+
+    static final class Multiply extends Binary {
+        Multiply(final Token operator, final ExprNode left, final ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override Object apply(final Object left, final Object right) {
+            if (left instanceof Number ln && right instanceof Number rn) {
+                if (left instanceof Integer) return ln.intValue() * rn.intValue();
+                if (left instanceof Double)  return ln.doubleValue() * rn.doubleValue();
+            }
+            throw invalidOperands();
+        }
+    }
+
+    static final class Divide extends Binary {
+        Divide(final Token operator, final ExprNode left, final ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override Object apply(final Object left, final Object right) {
+            if (left instanceof Number ln && right instanceof Number rn) {
+                if (left instanceof Integer) return ln.intValue() / rn.intValue();
+                if (left instanceof Double)  return ln.doubleValue() / rn.doubleValue();
+            }
+            throw invalidOperands();
+        }
+    }
+
+    static final class Greater extends Binary {
+        Greater(final Token operator, final ExprNode left, final ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override Object apply(final Object left, final Object right) {
+            if (left instanceof Number ln && right instanceof Number rn) {
+                if (left instanceof Integer) return ln.intValue() > rn.intValue();
+                if (left instanceof Double)  return ln.doubleValue() > rn.doubleValue();
+            }
+            throw invalidOperands();
+        }
+    }
+
+    static final class GreaterEqual extends Binary {
+        GreaterEqual(final Token operator, final ExprNode left, final ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override Object apply(final Object left, final Object right) {
+            if (left instanceof Number ln && right instanceof Number rn) {
+                if (left instanceof Integer) return ln.intValue() >= rn.intValue();
+                if (left instanceof Double)  return ln.doubleValue() >= rn.doubleValue();
+            }
+            throw invalidOperands();
+        }
+    }
+
+    static final class Less extends Binary {
+        Less(final Token operator, final ExprNode left, final ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override Object apply(final Object left, final Object right) {
+            if (left instanceof Number ln && right instanceof Number rn) {
+                if (left instanceof Integer) return ln.intValue() < rn.intValue();
+                if (left instanceof Double)  return ln.doubleValue() < rn.doubleValue();
+            }
+            throw invalidOperands();
+        }
+    }
+
+    static final class LessEqual extends Binary {
+        LessEqual(final Token operator, final ExprNode left, final ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override Object apply(final Object left, final Object right) {
+            if (left instanceof Number ln && right instanceof Number rn) {
+                if (left instanceof Integer) return ln.intValue() <= rn.intValue();
+                if (left instanceof Double)  return ln.doubleValue() <= rn.doubleValue();
+            }
+            throw invalidOperands();
+        }
+    }
+
+    static final class Equal extends Binary {
+        Equal(final Token operator, final ExprNode left, final ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override Object apply(final Object left, final Object right) {
+            return Objects.equals(left, right);
+        }
+    }
+
+    static final class NotEqual extends Binary {
+        NotEqual(final Token operator, final ExprNode left, final ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override Object apply(final Object left, final Object right) {
+            return !Objects.equals(left, right);
+        }
+    }
+
+    static final class Negate extends ExprNode {
+        private final Token operator;
+        private ExprNode operand;
+
+        Negate(final Token operator, final ExprNode operand) {
+            this.operator = operator;
+            this.operand = adopt(operand);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (operand == oldChild) operand = newChild;
+        }
+
+        @Override Object execute(final Environment frame) {
+            return switch (operand.execute(frame)) {
+                case Double d  -> -d;
+                case Integer i -> -i;
+                default -> throw new RuntimeError(operator, "Operand must be a number.");
+            };
+        }
+    }
+
+    static final class TypeOf extends ExprNode {
+        private ExprNode operand;
+
+        TypeOf(final ExprNode operand) {
+            this.operand = adopt(operand);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (operand == oldChild) operand = newChild;
+        }
+
+        @Override Object execute(final Environment frame) {
+            return operand.execute(frame).getClass().getSimpleName();
+        }
+    }
+
+    // the condition is always a Boolean typed node, see NodeTranslator.condition
+    static final class If extends ExprNode {
+        private ExprNode condition;
+        private ExprNode thenExpr;
+        private ExprNode elseExpr;
+
+        If(final ExprNode condition, final ExprNode thenExpr, final ExprNode elseExpr) {
+            this.condition = adopt(condition);
+            this.thenExpr = adopt(thenExpr);
+            this.elseExpr = adopt(elseExpr);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (condition == oldChild) condition = newChild;
+            if (thenExpr  == oldChild) thenExpr  = newChild;
+            if (elseExpr  == oldChild) elseExpr  = newChild;
+        }
+
+        @Override Object execute(final Environment frame) {
+            return condition.evalBoolean(frame) ? thenExpr.execute(frame) : elseExpr.execute(frame);
+        }
+
+        @Override int evalInt(final Environment frame) {
+            return condition.evalBoolean(frame) ? thenExpr.evalInt(frame) : elseExpr.evalInt(frame);
+        }
+
+        @Override double evalDouble(final Environment frame) {
+            return condition.evalBoolean(frame) ? thenExpr.evalDouble(frame) : elseExpr.evalDouble(frame);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return condition.evalBoolean(frame) ? thenExpr.evalBoolean(frame) : elseExpr.evalBoolean(frame);
+        }
+    }
+
+    // the arm is picked by one lookup in the match's jump map. bodies holds the arms in
+    // order, the else arm last, as Expr.Match.armOf numbers them
+    static final class Match extends ExprNode {
+        private final Expr.Match match;
+        private ExprNode subject;
+        private final ExprNode[] bodies;
+
+        Match(final Expr.Match match, final ExprNode subject, final ExprNode[] bodies) {
+            this.match = match;
+            this.subject = adopt(subject);
+            this.bodies = bodies;
+            for (final var body : bodies) adopt(body);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (subject == oldChild) subject = newChild;
+            for (int i = 0; i < bodies.length; i++) {
+                if (bodies[i] == oldChild) bodies[i] = newChild;
+            }
+        }
+
+        private ExprNode select(final Environment frame) {
+            return bodies[match.armOf(subject.execute(frame))];
+        }
+
+        @Override Object execute(final Environment frame) {
+            return select(frame).execute(frame);
+        }
+
+        @Override int evalInt(final Environment frame) {
+            return select(frame).evalInt(frame);
+        }
+
+        @Override double evalDouble(final Environment frame) {
+            return select(frame).evalDouble(frame);
+        }
+
+        @Override boolean evalBoolean(final Environment frame) {
+            return select(frame).evalBoolean(frame);
+        }
+    }
+
+    // the callee is bound once at translation time, so a call never looks up a name.
+    // arguments are evaluated straight into the callee frame, see NodeFunction.call
+    static final class Call extends ExprNode {
+        private final NodeFunction target;
+        private final ExprNode[] arguments;
+
+        Call(final NodeFunction target, final ExprNode[] arguments) {
+            this.target = target;
+            this.arguments = arguments;
+            for (final var argument : arguments) adopt(argument);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            for (var i = 0; i < arguments.length; i++) {
+                if (arguments[i] == oldChild) arguments[i] = newChild;
+            }
+        }
+
+        @Override Object execute(final Environment frame) {
+            return target.call(arguments, frame);
+        }
+    }
+
+    // creates a NodeLambda over a snapshot of the running frame. globals are never
+    // reached through the closure, so a lambda created at the top level keeps them as is
+    static final class Lambda extends ExprNode {
+        private final Environment globals;
+        final StmtNode body;
+        final int frameSize;
+        // null when the lambda takes no parameter
+        final SlotKind parameterKind;
+
+        Lambda(final Environment globals, final StmtNode body, final int frameSize,
+               final SlotKind parameterKind) {
+            this.globals = globals;
+            this.body = adopt(body);
+            this.frameSize = frameSize;
+            this.parameterKind = parameterKind;
+        }
+
+        @Override Object execute(final Environment frame) {
+            return new NodeLambda(this, frame == globals ? globals : frame.snapshot());
+        }
+    }
+
+    // a call through a bind. lambdas take at most one argument, which is boxed on the
+    // way in since the callee is only known when the call runs
+    static final class CallLambda extends ExprNode {
+        private final Token paren;
+        private ExprNode callee;
+        private final ExprNode[] arguments;
+
+        CallLambda(final Token paren, final ExprNode callee, final ExprNode[] arguments) {
+            this.paren = paren;
+            this.callee = adopt(callee);
+            this.arguments = arguments;
+            for (final var argument : arguments) adopt(argument);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (callee == oldChild) callee = newChild;
+            for (var i = 0; i < arguments.length; i++) {
+                if (arguments[i] == oldChild) arguments[i] = newChild;
+            }
+        }
+
+        @Override Object execute(final Environment frame) {
+            if (!(callee.execute(frame) instanceof NodeLambda lambda)) {
+                throw new RuntimeError(paren, "Callee must be a function.");
+            }
+            return lambda.call(arguments.length == 0 ? null : arguments[0].execute(frame));
+        }
+    }
+
+    // a registry native without a typed node: arguments are boxed, but passed to the
+    // handle directly instead of through a list
+    static final class NativeCall extends ExprNode {
+        private final Native target;
+        private final ExprNode[] arguments;
+
+        NativeCall(final Native target, final ExprNode[] arguments) {
+            this.target = target;
+            this.arguments = arguments;
+            for (final var argument : arguments) adopt(argument);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            for (var i = 0; i < arguments.length; i++) {
+                if (arguments[i] == oldChild) arguments[i] = newChild;
+            }
+        }
+
+        @Override Object execute(final Environment frame) {
+            return switch (arguments.length) {
+                case 0 -> target.invoke0();
+                case 1 -> target.invoke1(arguments[0].execute(frame));
+                case 2 -> {
+                    final var a = arguments[0].execute(frame);
+                    yield target.invoke2(a, arguments[1].execute(frame));
+                }
+                default -> {
+                    final var values = new Object[arguments.length];
+                    for (var i = 0; i < values.length; i++) values[i] = arguments[i].execute(frame);
+                    yield target.invoke(values);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.maruseron.zeron.interpret;
+
+import java.lang.invoke.MethodHandle;
+
+/*
+    Nodes whose static type is a non nullable Float. They compute on double and only box
+    when a parent that does not know their type calls execute.
+ */
+abstract class FloatNode extends ExprNode {
+    @Override abstract double evalDouble(Environment frame);
+
+    @Override final Object execute(final Environment frame) {
+        return evalDouble(frame);
+    }
+
+    @Override final void executeVoid(final Environment frame) {
+        evalDouble(frame);
+    }
+
+    static final class Read extends FloatNode {
+        private final Environment globals;
+        private final int depth;
+        private final int slot;
+
+        Read(final Environment globals, final int depth, final int slot) {
+            this.globals = globals;
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override double evalDouble(final Environment frame) {
+            return Double.longBitsToDouble(frame.frameAt(globals, depth).primitives[slot]);
+        }
+    }
+
+    static final class Write extends FloatNode {
+        private final Environment globals;
+        private final int depth;
+        private final int slot;
+        private ExprNode value;
+
+        Write(final Environment globals, final int depth, final int slot, final ExprNode value) {
+            this.globals = globals;
+            this.depth = depth;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (value == oldChild) value = newChild;
+        }
+
+        @Override double evalDouble(final Environment frame) {
+            final var result = value.evalDouble(frame);
+            frame.frameAt(globals, depth).primitives[slot] = Double.doubleToRawLongBits(result);
+            return result;
+        }
+    }
+
+    abstract static class Binary extends FloatNode {
+        ExprNode left;
+        ExprNode right;
+
+        Binary(final ExprNode left, final ExprNode right) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (left  == oldChild) left  = newChild;
+            if (right == oldChild) right = newChild;
+        }
+    }
+
+    static final class Add extends Binary {
+        Add(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override double evalDouble(final Environment frame) {
+            return left.evalDouble(frame) + right.evalDouble(frame);
+        }
+    }
+
+    static final class Subtract extends Binary {
+        Subtract(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override double evalDouble(final Environment frame) {
+            return left.evalDouble(frame) - right.evalDouble(frame);
+        }
+    }
+
+    static final class Multiply extends Binary {
+        Multiply(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override double evalDouble(final Environment frame) {
+            return left.evalDouble(frame) * right.evalDouble(frame);
+        }
+    }
+
+    static final class Divide extends Binary {
+        Divide(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override double evalDouble(final Environment frame) {
+            return left.evalDouble(frame) / right.evalDouble(frame);
+        }
+    }
+
+    static final class Negate extends FloatNode {
+        private ExprNode operand;
+
+        Negate(final ExprNode operand) {
+            this.operand = adopt(operand);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (operand == oldChild) operand = newChild;
+        }
+
+        @Override double evalDouble(final Environment frame) {
+            return -operand.evalDouble(frame);
+        }
+    }
+
+    // Float -> Float natives, invoked with their exact (D)D type so nothing is boxed
+    static final class Intrinsic1 extends FloatNode {
+        private final MethodHandle handle;
+        private ExprNode operand;
+
+        Intrinsic1(final MethodHandle handle, final ExprNode operand) {
+            this.handle = handle;
+            this.operand = adopt(operand);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (operand == oldChild) operand = newChild;
+        }
+
+        @Override double evalDouble(final Environment frame) {
+            final var value = operand.evalDouble(frame);
+            try {
+                return (double) handle.invokeExact(value);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    // (Float, Float) -> Float natives, invoked as (DD)D
+    static final class Intrinsic2 extends Binary {
+        private final MethodHandle handle;
+
+        Intrinsic2(final MethodHandle handle, final ExprNode left, final ExprNode right) {
+            super(left, right);
+            this.handle = handle;
+        }
+
+        @Override double evalDouble(final Environment frame) {
+            final var l = left.evalDouble(frame);
+            final var r = right.evalDouble(frame);
+            try {
+                return (double) handle.invokeExact(l, r);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.maruseron.zeron.interpret;
+
+import com.maruseron.zeron.ast.Stmt;
+
+import java.lang.invoke.MethodHandle;
+import java.util.function.Function;
+
+/*
+    Second tier of the tiered engine: turns a hot function into a handle typed after its
+    declared java signature. Throwing means the function can't be compiled, and it just
+    keeps running in the interpreter.
+
+    callees maps the name of every other function of the program to a handle into its
+    call site, (Object...)Object with one Object per parameter, null for names that
+    aren't tiered functions. Compiled code calls through it, so a callee runs in
+    whichever tier it's in when the call is made.
+ */
+@FunctionalInterface
+public interface FunctionCompiler {
+    MethodHandle compile(Stmt.Function function, Function<String, MethodHandle> callees)
+            throws ReflectiveOperationException;
+}
@@ -0,0 +1,128 @@
+package com.maruseron.zeron.interpret;
+
+/*
+    Nodes whose static type is a non nullable Int. They compute on int and only box
+    when a parent that does not know their type calls execute.
+ */
+abstract class IntNode extends ExprNode {
+    @Override abstract int evalInt(Environment frame);
+
+    @Override final Object execute(final Environment frame) {
+        return evalInt(frame);
+    }
+
+    @Override final void executeVoid(final Environment frame) {
+        evalInt(frame);
+    }
+
+    static final class Read extends IntNode {
+        private final Environment globals;
+        private final int depth;
+        private final int slot;
+
+        Read(final Environment globals, final int depth, final int slot) {
+            this.globals = globals;
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override int evalInt(final Environment frame) {
+            return (int) frame.frameAt(globals, depth).primitives[slot];
+        }
+    }
+
+    static final class Write extends IntNode {
+        private final Environment globals;
+        private final int depth;
+        private final int slot;
+        private ExprNode value;
+
+        Write(final Environment globals, final int depth, final int slot, final ExprNode value) {
+            this.globals = globals;
+            this.depth = depth;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (value == oldChild) value = newChild;
+        }
+
+        @Override int evalInt(final Environment frame) {
+            final var result = value.evalInt(frame);
+            frame.frameAt(globals, depth).primitives[slot] = result;
+            return result;
+        }
+    }
+
+    abstract static class Binary extends IntNode {
+        ExprNode left;
+        ExprNode right;
+
+        Binary(final ExprNode left, final ExprNode right) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (left  == oldChild) left  = newChild;
+            if (right == oldChild) right = newChild;
+        }
+    }
+
+    static final class Add extends Binary {
+        Add(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override int evalInt(final Environment frame) {
+            return left.evalInt(frame) + right.evalInt(frame);
+        }
+    }
+
+    static final class Subtract extends Binary {
+        Subtract(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override int evalInt(final Environment frame) {
+            return left.evalInt(frame) - right.evalInt(frame);
+        }
+    }
+
+    static final class Multiply extends Binary {
+        Multiply(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override int evalInt(final Environment frame) {
+            return left.evalInt(frame) * right.evalInt(frame);
+        }
+    }
+
+    static final class Divide extends Binary {
+        Divide(final ExprNode left, final ExprNode right) {
+            super(left, right);
+        }
+
+        @Override int evalInt(final Environment frame) {
+            return left.evalInt(frame) / right.evalInt(frame);
+        }
+    }
+
+    static final class Negate extends IntNode {
+        private ExprNode operand;
+
+        Negate(final ExprNode operand) {
+            this.operand = adopt(operand);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (operand == oldChild) operand = newChild;
+        }
+
+        @Override int evalInt(final Environment frame) {
+            return -operand.evalInt(frame);
+        }
+    }
+}
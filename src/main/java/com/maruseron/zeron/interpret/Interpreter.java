@@ -3,52 +3,72 @@ package com.maruseron.zeron.interpret;
 import com.maruseron.zeron.IntRangeLiteral;
 import com.maruseron.zeron.Zeron;
 import com.maruseron.zeron.ast.*;
-import com.maruseron.zeron.domain.TypeDescriptor;
+import com.maruseron.zeron.domain.Natives;
+import com.maruseron.zeron.domain.SymbolTable;
 import com.maruseron.zeron.scan.Token;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 public final class Interpreter {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-
-    public Interpreter() {
-        globals.define("clock",
-                TypeDescriptor.functionOf("clock", TypeDescriptor.ofInt()),
-                new ZeronCallable() {
-                    @Override public String toString() { return "<native fn clock>"; }
-                    @Override public int arity() { return 0; }
-                    @Override public Object call(Interpreter interpreter, List<Object> arguments) {
-                        return (int)(System.currentTimeMillis() / 1000L);
-                    }
-                }, true, true);
+    final SymbolTable symbols;
+    final Environment globals;
+    final Map<String, ZeronCallable> functions = new HashMap<>();
+    // null unless tiered: hot functions are then handed to the compiler
+    private final FunctionCompiler compiler;
+    // loop back edges taken by the running activation, see TieredFunction
+    int backEdges = 0;
+    private Environment environment;
+
+    public Interpreter(final SymbolTable symbols) {
+        this(symbols, null);
+    }
 
+    public Interpreter(final SymbolTable symbols, final FunctionCompiler compiler) {
+        this.symbols = symbols;
+        this.compiler = compiler;
+        this.globals = new Environment(symbols.globalCount());
+        this.environment = globals;
+
+        for (final var fn : Natives.all()) {
+            functions.put(fn.name(), new NativeFunction(fn));
+        }
     }
 
     public void interpret(final List<Stmt> statements) {
         try {
+            // the parser keeps break and return out of the top level
             for (final var statement : statements) {
-                try {
-                    execute(statement);
-                } catch (BreakException _) {}
+                execute(statement);
+            }
+
+            final var main = functions.get("main");
+            if (main != null) {
+                main.call(this, List.of());
             }
         } catch (RuntimeError error) {
             Zeron.runtimeError(error);
         }
     }
 
-    public void execute(final Stmt stmt) {
-        switch (stmt) {
+    public Completion execute(final Stmt stmt) {
+        return switch (stmt) {
+            // blocks share the frame of their function: the resolver already
+            // gave every local in them its own slot
             case Stmt.Block(List<Stmt> statements) ->
-                    executeBlock(statements, new Environment(environment));
-            case Stmt.Break(Token keyword) -> throw new BreakException(keyword);
-            case Stmt.Expression(Expr expression) ->
-                    evaluate(expression);
-            case Stmt.For(Token iterationBind, Token in, Expr iterable, Stmt body) -> {
-                if (!(evaluate(iterable) instanceof IntRangeLiteral range))
-                    throw new RuntimeError(in, "Only ranges can be iterated.");
+                    executeStatements(statements);
+            case Stmt.Break _ ->
+                    Completion.BREAK;
+            case Stmt.Expression(Expr expression) -> {
+                evaluate(expression);
+                yield Completion.NORMAL;
+            }
+            case Stmt.For loop -> {
+                if (!(evaluate(loop.iterable()) instanceof IntRangeLiteral range))
+                    throw new RuntimeError(loop.in(), "Only ranges can be iterated.");
 
                 /*
                     for (let i in expr) body desugars to:
@@ -62,90 +82,136 @@ public final class Interpreter {
                     }
                  */
 
-                executeOverRange(range, iterationBind, body, new Environment(environment));
+                yield executeOverRange(range, loop.getSlot(), loop.body());
             }
             case Stmt.Function fn -> {
-                System.out.println(fn);
-                throw new UnsupportedOperationException("not implemented yet");
+                final var frameSize = symbols.frameSize(fn.name());
+                functions.put(fn.name().lexeme(), compiler == null
+                        ? new ZeronFunction(fn, frameSize)
+                        : new TieredFunction(fn, frameSize, compiler));
+                yield Completion.NORMAL;
             }
             case Stmt.If(Token paren, Expr condition, Stmt thenBranch, Stmt elseBranch) -> {
                 if (ensureBoolean(paren, evaluate(condition))) {
-                    execute(thenBranch);
+                    yield execute(thenBranch);
                 } else if (elseBranch != null) {
-                    execute(elseBranch);
+                    yield execute(elseBranch);
                 }
+                yield Completion.NORMAL;
+            }
+            case Stmt.Print(Expr expression) -> {
+                System.out.println(evaluate(expression));
+                yield Completion.NORMAL;
             }
-            case Stmt.Print(Expr expression) ->
-                    System.out.println(evaluate(expression));
             case Stmt.Return(Expr value) ->
-                throw new IllegalStateException("not implemented yet");
-            case Stmt.Var(Token name, TypeDescriptor type, Expr initializer, boolean isFinal) -> {
+                    complete(value);
+            case Stmt.Var var -> {
                 Object value = null;
-                if (initializer != null) {
-                    value = evaluate(initializer);
+                if (var.initializer() != null) {
+                    value = evaluate(var.initializer());
                 }
 
-                environment.define(
-                        name.lexeme(),
-                        type,
-                        value,
-                        initializer != null,
-                        isFinal);
+                assign(var.getDepth(), var.getSlot(), value);
+                yield Completion.NORMAL;
             }
             case Stmt.While(Token keyword, Expr condition, Stmt body) -> {
-                switch (keyword.type()) {
-                    case LOOP -> { while (true) execute(body); }
-                    case WHILE, UNTIL -> {
-                        while (ensureBoolean(keyword, evaluate(condition))) {
-                            execute(body);
-                        }
-                    }
+                // the parser gives loop a literal true condition
+                var completion = Completion.NORMAL;
+                while (ensureBoolean(keyword, evaluate(condition))) {
+                    completion = execute(body);
+                    if (completion == Completion.BREAK || completion.leavesFunction()) break;
+                    backEdges++;
                 }
+                yield completion.leavesFunction() ? completion : Completion.NORMAL;
             }
+        };
+    }
+
+    private Completion executeStatements(final List<Stmt> statements) {
+        for (final var statement : statements) {
+            final var completion = execute(statement);
+            if (completion != Completion.NORMAL) return completion;
         }
+        return Completion.NORMAL;
     }
 
-    void executeBlock(final List<Stmt> statements, final Environment environment) {
+    Completion executeBlock(final List<Stmt> statements, final Environment environment) {
         final var previous = this.environment;
         try {
             this.environment = environment;
-
-            for (final var statement : statements) {
-                execute(statement);
-            }
+            return executeStatements(statements);
         } finally {
             this.environment = previous;
         }
     }
 
-    void executeOverRange(final IntRangeLiteral range,
-                          final Token iterationBind,
-                          final Stmt body,
-                          final Environment environment) {
-        final var previous = this.environment;
-        try {
-            this.environment = environment;
-            for (final var i : range) {
-                // create synthetic variable with the iteration bind name
-                // and set it to the current iteration value.
-                // then run the body
-                execute(new Stmt.Var(
-                        iterationBind,
-                        TypeDescriptor.ofInt(),
-                        new Expr.Literal(i, TypeDescriptor.ofInt()),
-                        true));
-                execute(body);
+    // inline cache miss: looks the callee up and checks the arity once, then caches the
+    // callable on the call site. functions can't be redeclared, so the entry stays valid
+    private ZeronCallable bind(final Expr.Call call) {
+        final var callable = functions.get(call.callee.lexeme());
+        if (callable == null) {
+            throw new RuntimeError(call.paren, "Callee must be a function.");
+        }
+
+        if (call.arguments.size() != callable.arity()) {
+            throw new RuntimeError(call.paren, "Expected " + callable.arity() + " arguments, " +
+                    "but got " + call.arguments.size() + " instead.");
+        }
+
+        call.setTarget(callable);
+        return callable;
+    }
+
+    // the completion of a return. a self tail call, possibly in a branch of an if
+    // expression, only evaluates its arguments: ZeronFunction runs the body again
+    private Completion complete(final Expr value) {
+        return switch (value) {
+            case Expr.Call call when call.isTailCall() -> {
+                final var arguments = new Object[call.arguments.size()];
+                for (var i = 0; i < arguments.length; i++) {
+                    arguments[i] = evaluate(call.arguments.get(i));
+                }
+                environment.tailArguments = arguments;
+                yield Completion.TAIL_CALL;
             }
-        } finally {
-            this.environment = previous;
+            case Expr.Grouping grouping ->
+                    complete(grouping.expression);
+            case Expr.If iff ->
+                    ensureBoolean(iff.paren, evaluate(iff.condition))
+                        ? complete(iff.thenExpr)
+                        : complete(iff.elseExpr);
+            case Expr.Match match ->
+                    complete(match.bodyOf(match.armOf(evaluate(match.subject))));
+            case null, default -> {
+                environment.returnValue = evaluate(value);
+                yield Completion.RETURN;
+            }
+        };
+    }
+
+    Completion executeOverRange(final IntRangeLiteral range,
+                                final int slot,
+                                final Stmt body) {
+        // the iteration bind has its own slot in the current frame, so each
+        // iteration just overwrites it before running the body. the counter is a
+        // plain int; the only box left is the one the body reads through the slot
+        final var step = range.step();
+        var i = range.start();
+        for (var remaining = range.count(); remaining > 0; remaining--, i += step) {
+            environment.slots[slot] = i;
+            final var completion = execute(body);
+            if (completion == Completion.BREAK)  break;
+            if (completion.leavesFunction()) return completion;
+            backEdges++;
         }
+        return Completion.NORMAL;
     }
 
     public Object evaluate(final Expr expr) {
         return switch (expr) {
             case Expr.Assignment assignment -> {
                 final var value = evaluate(assignment.value);
-                environment.assign(assignment.name, value);
+                assign(assignment.getDepth(), assignment.getSlot(), value);
                 yield value;
             }
             case Expr.Binary binary -> {
@@ -252,22 +318,27 @@ public final class Interpreter {
                 };
             }
             case Expr.Call call -> {
-                final var callee    = evaluate(null);
-                final var arguments = new ArrayList<>();
-                for (final var argumentExpr : call.arguments) {
-                    arguments.add(evaluate(argumentExpr));
-                }
-
-                if (!(callee instanceof ZeronCallable callable)) {
-                    throw new RuntimeError(call.paren, "Callee must be a function.");
-                }
-
-                if (arguments.size() != callable.arity()) {
-                    throw new RuntimeError(call.paren, "Expected " + callable.arity() + " arguments, " +
-                            "but got " + arguments.size() + " instead.");
-                }
-
-                yield callable.call(this, arguments);
+                // a bind holding a lambda can hold a different one on every call, so
+                // only calls to top level functions are cached
+                final var callable = call.callsBind()
+                        ? (ZeronCallable) lookUp(call.getDepth(), call.getSlot())
+                        : call.getTarget() instanceof ZeronCallable cached
+                                ? cached
+                                : bind(call);
+                final var arguments = call.arguments;
+
+                yield switch (arguments.size()) {
+                    case 0 -> callable.call0(this);
+                    case 1 -> callable.call1(this, evaluate(arguments.get(0)));
+                    case 2 -> callable.call2(this, evaluate(arguments.get(0)), evaluate(arguments.get(1)));
+                    default -> {
+                        final var values = new Object[arguments.size()];
+                        for (var i = 0; i < values.length; i++) {
+                            values[i] = evaluate(arguments.get(i));
+                        }
+                        yield callable.call(this, Arrays.asList(values));
+                    }
+                };
             }
             case Expr.Grouping grouping ->
                     evaluate(grouping.expression);
@@ -275,8 +346,13 @@ public final class Interpreter {
                     ensureBoolean(iff.paren, evaluate(iff.condition))
                         ? evaluate(iff.thenExpr)
                         : evaluate(iff.elseExpr);
+            // one lookup in the match's jump map, not a test per arm
+            case Expr.Match match ->
+                    evaluate(match.bodyOf(match.armOf(evaluate(match.subject))));
+            // globals are never reached through the closure, only locals need a copy
             case Expr.Lambda lambda ->
-                throw new IllegalStateException("not implemented yet");
+                    new ZeronLambda(lambda,
+                            environment == globals ? globals : environment.snapshot());
             case Expr.Literal literal ->
                     literal.value;
             case Expr.Logical logical -> {
@@ -304,17 +380,31 @@ public final class Interpreter {
                     case NOT    -> !ensureBoolean(unary.operator, value);
                     case TYPEOF -> {
                         if (unary.right instanceof Expr.Variable variable) {
-                            yield environment.get(variable.name).typeDescriptor().descriptor();
+                            yield variable.getType().descriptor();
                         }
                         yield value.getClass().getSimpleName();
                     }
                     default     -> throw new IllegalStateException("Unsupported unary operator.");
                 };
             }
-            case Expr.Variable variable -> environment.get(variable.name).value();
+            case Expr.Variable variable -> lookUp(variable.getDepth(), variable.getSlot());
         };
     }
 
+    private Object lookUp(final int depth, final int slot) {
+        return depth == SymbolTable.GLOBAL
+                ? globals.slots[slot]
+                : environment.get(depth, slot);
+    }
+
+    private void assign(final int depth, final int slot, final Object value) {
+        if (depth == SymbolTable.GLOBAL) {
+            globals.slots[slot] = value;
+        } else {
+            environment.assign(depth, slot, value);
+        }
+    }
+
     private String stringify(final Object object) {
         return switch (object) {
             case null -> "Null";
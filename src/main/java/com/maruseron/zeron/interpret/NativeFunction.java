@@ -0,0 +1,35 @@
+package com.maruseron.zeron.interpret;
+
+import com.maruseron.zeron.domain.Native;
+
+import java.util.List;
+
+// a registry native as seen by the interpreter: the arity specialized entry points go
+// straight to the handle, so cached call sites never build an argument list
+final class NativeFunction implements ZeronCallable {
+    private final Native target;
+
+    NativeFunction(final Native target) {
+        this.target = target;
+    }
+
+    @Override public int arity() { return target.arity(); }
+
+    @Override public Object call(Interpreter interpreter, List<Object> arguments) {
+        return target.invoke(arguments.toArray());
+    }
+
+    @Override public Object call0(Interpreter interpreter) {
+        return target.invoke0();
+    }
+
+    @Override public Object call1(Interpreter interpreter, Object a) {
+        return target.invoke1(a);
+    }
+
+    @Override public Object call2(Interpreter interpreter, Object a, Object b) {
+        return target.invoke2(a, b);
+    }
+
+    @Override public String toString() { return target.toString(); }
+}
@@ -0,0 +1,21 @@
+package com.maruseron.zeron.interpret;
+
+/*
+    Common base of ExprNode and StmtNode. Nodes know their parent so an expression can
+    rewrite itself in place (see ExprNode.replace): a node that learned something at
+    runtime swaps itself for a more specialized one in its parent's child field, and
+    every later execution goes straight to the replacement.
+ */
+abstract class Node {
+    Node parent;
+
+    final <T extends Node> T adopt(final T child) {
+        if (child != null) child.parent = this;
+        return child;
+    }
+
+    // overridden by every node that holds expression children
+    void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+        throw new IllegalStateException(getClass().getSimpleName() + " has no replaceable children.");
+    }
+}
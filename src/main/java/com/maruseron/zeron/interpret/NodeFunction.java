@@ -0,0 +1,89 @@
+package com.maruseron.zeron.interpret;
+
+import com.maruseron.zeron.ast.Stmt;
+
+import java.util.Arrays;
+
+// a top level function as seen by the node backend. the body is bound after
+// creation so recursive calls can be translated against the function itself
+final class NodeFunction {
+    final String name;
+    private final int frameSize;
+    private final int[] parameterSlots;
+    private final SlotKind[] parameterKinds;
+    StmtNode body = StmtNode.Empty.EMPTY;
+
+    NodeFunction(final Stmt.Function declaration, final int frameSize) {
+        this.name = declaration.name().lexeme();
+        this.frameSize = frameSize;
+
+        final var parameterTypes = declaration.typeDescriptor().parameters();
+        this.parameterSlots = new int[parameterTypes.size()];
+        this.parameterKinds = new SlotKind[parameterTypes.size()];
+        var slot = 0;
+        for (var i = 0; i < parameterSlots.length; i++) {
+            parameterSlots[i] = slot;
+            parameterKinds[i] = SlotKind.of(parameterTypes.get(i));
+            slot += parameterTypes.get(i).isDoubleWidth() ? 2 : 1;
+        }
+    }
+
+    // evaluates the arguments in the caller frame straight into the parameter slots
+    // of a fresh frame, so primitive arguments are never boxed on the way in
+    Object call(final ExprNode[] arguments, final Environment caller) {
+        final var frame = Environment.withPrimitives(null, frameSize);
+        for (var i = 0; i < parameterSlots.length; i++) {
+            final var slot = parameterSlots[i];
+            switch (parameterKinds[i]) {
+                case INT     -> frame.primitives[slot] = arguments[i].evalInt(caller);
+                case FLOAT   -> frame.primitives[slot] = Double.doubleToRawLongBits(arguments[i].evalDouble(caller));
+                case BOOLEAN -> frame.primitives[slot] = arguments[i].evalBoolean(caller) ? 1 : 0;
+                case OBJECT  -> frame.slots[slot] = arguments[i].execute(caller);
+            }
+        }
+        // a self tail call has written the new arguments over the parameters by the
+        // time the body completes with TAIL_CALL, so the body just runs again
+        while (true) {
+            final var completion = body.execute(frame);
+            if (completion != Completion.TAIL_CALL) {
+                return completion == Completion.RETURN ? frame.returnValue : null;
+            }
+        }
+    }
+
+    // a self tail call (see StmtNode.TailCall). every argument is evaluated before any
+    // parameter is overwritten, since they may read the parameters they replace; the
+    // other locals are cleared as for a fresh frame. the scratch arrays are the frame's,
+    // so an argument that calls this function again has its own
+    void reenter(final ExprNode[] arguments, final Environment frame) {
+        if (frame.tailPrimitives == null) {
+            frame.tailPrimitives = new long[arguments.length];
+            frame.tailArguments = new Object[arguments.length];
+        }
+        final var primitives = frame.tailPrimitives;
+        final var references = frame.tailArguments;
+        for (var i = 0; i < arguments.length; i++) {
+            switch (parameterKinds[i]) {
+                case INT     -> primitives[i] = arguments[i].evalInt(frame);
+                case FLOAT   -> primitives[i] = Double.doubleToRawLongBits(arguments[i].evalDouble(frame));
+                case BOOLEAN -> primitives[i] = arguments[i].evalBoolean(frame) ? 1 : 0;
+                case OBJECT  -> references[i] = arguments[i].execute(frame);
+            }
+        }
+        Arrays.fill(frame.slots, null);
+        for (var i = 0; i < arguments.length; i++) {
+            final var slot = parameterSlots[i];
+            if (parameterKinds[i] == SlotKind.OBJECT) {
+                frame.slots[slot] = references[i];
+                references[i] = null;
+            } else {
+                frame.primitives[slot] = primitives[i];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name + ">";
+    }
+}
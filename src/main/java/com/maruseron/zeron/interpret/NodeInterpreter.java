@@ -0,0 +1,36 @@
+package com.maruseron.zeron.interpret;
+
+import com.maruseron.zeron.Zeron;
+import com.maruseron.zeron.ast.Stmt;
+import com.maruseron.zeron.domain.SymbolTable;
+
+import java.util.List;
+
+/*
+    Node backend: instead of walking the AST on every visit like the Interpreter, the
+    resolved program is translated once into a tree of executable nodes (see ExprNode
+    and StmtNode) and that tree is run. Every node has a fixed shape, so the JIT sees
+    monomorphic, inlinable call sites from each parent to its children.
+ */
+public final class NodeInterpreter {
+    private final Environment globals;
+    private final NodeTranslator translator;
+
+    public NodeInterpreter(final SymbolTable symbols) {
+        this.globals = Environment.withPrimitives(null, symbols.globalCount());
+        this.translator = new NodeTranslator(symbols, globals);
+    }
+
+    public void interpret(final List<Stmt> statements) {
+        try {
+            translator.translate(statements).execute(globals);
+
+            final var main = translator.functions.get("main");
+            if (main != null) {
+                main.call(new ExprNode[0], globals);
+            }
+        } catch (RuntimeError error) {
+            Zeron.runtimeError(error);
+        }
+    }
+}
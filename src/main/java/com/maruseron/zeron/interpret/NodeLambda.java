@@ -0,0 +1,33 @@
+package com.maruseron.zeron.interpret;
+
+// a lambda value of the node backend: the translated body plus a snapshot of the frame
+// the lambda was created in (see Environment.snapshot), the parent of every call frame
+final class NodeLambda {
+    private final ExprNode.Lambda declaration;
+    private final Environment closure;
+
+    NodeLambda(final ExprNode.Lambda declaration, final Environment closure) {
+        this.declaration = declaration;
+        this.closure = closure;
+    }
+
+    // the parameter, if any, is the first local of the frame and goes to the half its
+    // static type calls for
+    Object call(final Object argument) {
+        final var frame = Environment.withPrimitives(closure, declaration.frameSize);
+        if (declaration.parameterKind != null) {
+            switch (declaration.parameterKind) {
+                case INT     -> frame.primitives[0] = (Integer) argument;
+                case FLOAT   -> frame.primitives[0] = Double.doubleToRawLongBits((Double) argument);
+                case BOOLEAN -> frame.primitives[0] = (Boolean) argument ? 1 : 0;
+                case OBJECT  -> frame.slots[0] = argument;
+            }
+        }
+        return declaration.body.execute(frame) == Completion.RETURN ? frame.returnValue : null;
+    }
+
+    @Override
+    public String toString() {
+        return "<lambda>";
+    }
+}
@@ -0,0 +1,299 @@
+package com.maruseron.zeron.interpret;
+
+import com.maruseron.zeron.ast.Expr;
+import com.maruseron.zeron.ast.Stmt;
+import com.maruseron.zeron.domain.FunctionDescriptor;
+import com.maruseron.zeron.domain.InferDescriptor;
+import com.maruseron.zeron.domain.Native;
+import com.maruseron.zeron.domain.Natives;
+import com.maruseron.zeron.domain.SymbolTable;
+import com.maruseron.zeron.domain.TypeDescriptor;
+import com.maruseron.zeron.scan.Token;
+
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// translates a resolved program into ExprNode and StmtNode trees, once
+final class NodeTranslator {
+    private final SymbolTable symbols;
+    private final Environment globals;
+    final Map<String, NodeFunction> functions = new HashMap<>();
+
+    NodeTranslator(final SymbolTable symbols, final Environment globals) {
+        this.symbols = symbols;
+        this.globals = globals;
+    }
+
+    StmtNode translate(final List<Stmt> statements) {
+        return new StmtNode.Block(statements.stream()
+                .map(this::translate)
+                .toArray(StmtNode[]::new));
+    }
+
+    StmtNode translate(final Stmt stmt) {
+        return switch (stmt) {
+            case Stmt.Block(List<Stmt> statements) ->
+                    translate(statements);
+            case Stmt.Break _ ->
+                    StmtNode.Break.BREAK;
+            case Stmt.Expression(Expr expression) ->
+                    new StmtNode.Expression(translate(expression));
+            case Stmt.For loop ->
+                    new StmtNode.ForRange(
+                            loop.in(),
+                            translate(loop.iterable()),
+                            loop.getSlot(),
+                            translate(loop.body()));
+            case Stmt.Function fn -> {
+                // register before translating the body so self calls bind to it
+                final var function = new NodeFunction(fn, symbols.frameSize(fn.name()));
+                functions.put(function.name, function);
+                function.body = translate(fn.body());
+                yield StmtNode.Empty.EMPTY;
+            }
+            case Stmt.If(Token paren, Expr condition, Stmt thenBranch, Stmt elseBranch) ->
+                    new StmtNode.If(
+                            condition(paren, condition),
+                            translate(thenBranch),
+                            elseBranch == null ? null : translate(elseBranch));
+            case Stmt.Print(Expr expression) ->
+                    new StmtNode.Print(translate(expression));
+            case Stmt.Return(Expr value) ->
+                    returning(value);
+            case Stmt.Var var -> {
+                // binds without an initializer are nullable, so they are always boxed
+                if (var.initializer() == null) {
+                    yield new StmtNode.Expression(
+                            write(var.getDepth(), var.getSlot(), null, new ExprNode.Literal(null)));
+                }
+
+                final var type = var.type() instanceof InferDescriptor
+                        ? var.initializer().getType()
+                        : var.type();
+                yield new StmtNode.Expression(
+                        write(var.getDepth(), var.getSlot(), type, translate(var.initializer())));
+            }
+            case Stmt.While(Token keyword, Expr condition, Stmt body) ->
+                    switch (keyword.type()) {
+                        case LOOP -> new StmtNode.Loop(translate(body));
+                        default   -> new StmtNode.While(condition(keyword, condition), translate(body));
+                    };
+        };
+    }
+
+    ExprNode translate(final Expr expr) {
+        return switch (expr) {
+            case Expr.Assignment assignment ->
+                    write(assignment.getDepth(),
+                          assignment.getSlot(),
+                          assignment.getType(),
+                          translate(assignment.value));
+            case Expr.Binary binary -> {
+                final var left  = translate(binary.left);
+                final var right = translate(binary.right);
+                final var operator = binary.operator;
+
+                // both operands have the same static type, the resolver made sure of it
+                final var primitive = switch (SlotKind.of(binary.left.getType())) {
+                    case INT     -> intBinary(operator, left, right);
+                    case FLOAT   -> floatBinary(operator, left, right);
+                    case BOOLEAN -> booleanBinary(operator, left, right);
+                    case OBJECT  -> null;
+                };
+                if (primitive != null) yield primitive;
+
+                yield switch (operator.type()) {
+                    case BANG_EQUAL    -> new ExprNode.NotEqual(operator, left, right);
+                    case EQUAL_EQUAL   -> new ExprNode.Equal(operator, left, right);
+                    case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL, PLUS, MINUS, SLASH, STAR ->
+                            new SpecializingNode.Uninitialized(operator, left, right);
+                    default -> throw new RuntimeError(operator, "Invalid binary operator.");
+                };
+            }
+            case Expr.Call call -> {
+                final var arguments = call.arguments.stream()
+                        .map(this::translate)
+                        .toArray(ExprNode[]::new);
+
+                // a lambda is a reference, a null type reads it from the boxed half
+                if (call.callsBind()) {
+                    yield new ExprNode.CallLambda(call.paren,
+                            read(call.getDepth(), call.getSlot(), null),
+                            arguments);
+                }
+
+                final var target = functions.get(call.callee.lexeme());
+                if (target != null) yield new ExprNode.Call(target, arguments);
+
+                final var builtin = Natives.get(call.callee.lexeme());
+                if (builtin == null) {
+                    throw new RuntimeError(call.paren, "Callee must be a function.");
+                }
+                yield nativeCall(builtin, arguments);
+            }
+            case Expr.Grouping grouping ->
+                    translate(grouping.expression);
+            case Expr.If iff ->
+                    new ExprNode.If(
+                            condition(iff.paren, iff.condition),
+                            translate(iff.thenExpr),
+                            translate(iff.elseExpr));
+            case Expr.Match match -> {
+                final var bodies = new ExprNode[match.arms.size() + 1];
+                for (int i = 0; i < bodies.length; i++) bodies[i] = translate(match.bodyOf(i));
+                yield new ExprNode.Match(match, translate(match.subject), bodies);
+            }
+            case Expr.Lambda lambda -> {
+                final var parameters = ((FunctionDescriptor) lambda.getType()).parameters();
+                yield new ExprNode.Lambda(
+                        globals,
+                        translate(lambda.body),
+                        lambda.getFrameSize(),
+                        parameters.isEmpty() ? null : SlotKind.of(parameters.getFirst()));
+            }
+            case Expr.Literal literal ->
+                    new ExprNode.Literal(literal.value);
+            case Expr.Logical logical -> {
+                final var operator = logical.operator;
+                final var left  = condition(operator, logical.left);
+                final var right = condition(operator, logical.right);
+
+                yield switch (operator.type()) {
+                    case OR  -> new BooleanNode.Or(left, right);
+                    case AND -> new BooleanNode.And(left, right);
+                    default  -> throw new RuntimeError(operator, "Invalid logical operator.");
+                };
+            }
+            case Expr.Unary unary -> switch (unary.operator.type()) {
+                case MINUS  -> switch (SlotKind.of(unary.right.getType())) {
+                    case INT   -> new IntNode.Negate(translate(unary.right));
+                    case FLOAT -> new FloatNode.Negate(translate(unary.right));
+                    default    -> new ExprNode.Negate(unary.operator, translate(unary.right));
+                };
+                case NOT    -> new BooleanNode.Not(condition(unary.operator, unary.right));
+                // the static type of a variable is known here, no need to look at the value
+                case TYPEOF -> unary.right instanceof Expr.Variable variable
+                        ? new ExprNode.Literal(variable.getType().descriptor())
+                        : new ExprNode.TypeOf(translate(unary.right));
+                default     -> throw new IllegalStateException("Unsupported unary operator.");
+            };
+            case Expr.Variable variable ->
+                    read(variable.getDepth(), variable.getSlot(), variable.getType());
+        };
+    }
+
+    // a return. one of an if or match expression is split into a return per branch, so
+    // a self tail call in any of them becomes a TailCall instead of a nested call
+    private StmtNode returning(final Expr value) {
+        return switch (value) {
+            case Expr.Call call when call.isTailCall() ->
+                    new StmtNode.TailCall(
+                            functions.get(call.callee.lexeme()),
+                            call.arguments.stream()
+                                    .map(this::translate)
+                                    .toArray(ExprNode[]::new));
+            case Expr.Grouping grouping ->
+                    returning(grouping.expression);
+            case Expr.If iff ->
+                    new StmtNode.If(
+                            condition(iff.paren, iff.condition),
+                            returning(iff.thenExpr),
+                            returning(iff.elseExpr));
+            case Expr.Match match -> {
+                final var arms = new StmtNode[match.arms.size() + 1];
+                for (int i = 0; i < arms.length; i++) arms[i] = returning(match.bodyOf(i));
+                yield new StmtNode.Match(match, translate(match.subject), arms);
+            }
+            case null, default ->
+                    new StmtNode.Return(translate(value));
+        };
+    }
+
+    // math natives get typed nodes that call the handle without boxing
+    private static ExprNode nativeCall(final Native target, final ExprNode[] arguments) {
+        final var type = target.handle().type();
+        if (type.equals(MethodType.methodType(double.class, double.class)))
+            return new FloatNode.Intrinsic1(target.handle(), arguments[0]);
+        if (type.equals(MethodType.methodType(double.class, double.class, double.class)))
+            return new FloatNode.Intrinsic2(target.handle(), arguments[0], arguments[1]);
+        return new ExprNode.NativeCall(target, arguments);
+    }
+
+    // a Boolean typed node for an expression used as a condition. the resolver does not
+    // reject non Boolean conditions yet, so those are checked when they run
+    private ExprNode condition(final Token where, final Expr expr) {
+        final var node = translate(expr);
+        return SlotKind.of(expr.getType()) == SlotKind.BOOLEAN
+                ? node
+                : new BooleanNode.Check(where, node);
+    }
+
+    private ExprNode intBinary(final Token operator, final ExprNode left, final ExprNode right) {
+        return switch (operator.type()) {
+            case PLUS          -> new IntNode.Add(left, right);
+            case MINUS         -> new IntNode.Subtract(left, right);
+            case STAR          -> new IntNode.Multiply(left, right);
+            case SLASH         -> new IntNode.Divide(left, right);
+            case GREATER       -> new BooleanNode.IntGreater(left, right);
+            case GREATER_EQUAL -> new BooleanNode.IntGreaterEqual(left, right);
+            case LESS          -> new BooleanNode.IntLess(left, right);
+            case LESS_EQUAL    -> new BooleanNode.IntLessEqual(left, right);
+            case EQUAL_EQUAL   -> new BooleanNode.IntEqual(left, right);
+            case BANG_EQUAL    -> new BooleanNode.IntNotEqual(left, right);
+            default -> throw new RuntimeError(operator, "Invalid binary operator.");
+        };
+    }
+
+    private ExprNode floatBinary(final Token operator, final ExprNode left, final ExprNode right) {
+        return switch (operator.type()) {
+            case PLUS          -> new FloatNode.Add(left, right);
+            case MINUS         -> new FloatNode.Subtract(left, right);
+            case STAR          -> new FloatNode.Multiply(left, right);
+            case SLASH         -> new FloatNode.Divide(left, right);
+            case GREATER       -> new BooleanNode.FloatGreater(left, right);
+            case GREATER_EQUAL -> new BooleanNode.FloatGreaterEqual(left, right);
+            case LESS          -> new BooleanNode.FloatLess(left, right);
+            case LESS_EQUAL    -> new BooleanNode.FloatLessEqual(left, right);
+            case EQUAL_EQUAL   -> new BooleanNode.FloatEqual(left, right);
+            case BANG_EQUAL    -> new BooleanNode.FloatNotEqual(left, right);
+            default -> throw new RuntimeError(operator, "Invalid binary operator.");
+        };
+    }
+
+    // only equality is defined on booleans, everything else keeps the generic error path
+    private ExprNode booleanBinary(final Token operator, final ExprNode left, final ExprNode right) {
+        return switch (operator.type()) {
+            case EQUAL_EQUAL -> new BooleanNode.Equal(left, right);
+            case BANG_EQUAL  -> new BooleanNode.NotEqual(left, right);
+            default          -> null;
+        };
+    }
+
+    private ExprNode read(final int depth, final int slot, final TypeDescriptor type) {
+        return switch (SlotKind.of(type)) {
+            case INT     -> new IntNode.Read(globals, depth, slot);
+            case FLOAT   -> new FloatNode.Read(globals, depth, slot);
+            case BOOLEAN -> new BooleanNode.Read(globals, depth, slot);
+            case OBJECT  -> {
+                if (depth == SymbolTable.GLOBAL) yield new ExprNode.ReadGlobal(globals, slot);
+                if (depth == 0)                  yield new ExprNode.ReadLocal(slot);
+                yield new ExprNode.ReadEnclosing(depth, slot);
+            }
+        };
+    }
+
+    private ExprNode write(final int depth, final int slot, final TypeDescriptor type, final ExprNode value) {
+        return switch (SlotKind.of(type)) {
+            case INT     -> new IntNode.Write(globals, depth, slot, value);
+            case FLOAT   -> new FloatNode.Write(globals, depth, slot, value);
+            case BOOLEAN -> new BooleanNode.Write(globals, depth, slot, value);
+            case OBJECT  -> {
+                if (depth == SymbolTable.GLOBAL) yield new ExprNode.WriteGlobal(globals, slot, value);
+                if (depth == 0)                  yield new ExprNode.WriteLocal(slot, value);
+                yield new ExprNode.WriteEnclosing(depth, slot, value);
+            }
+        };
+    }
+}
@@ -2,11 +2,12 @@ package com.maruseron.zeron.interpret;
 
 import com.maruseron.zeron.scan.Token;
 
+// reported through the token's line only, so the Java stack trace is never filled in
 public final class RuntimeError extends RuntimeException {
     public final Token token;
 
-    RuntimeError(Token token, String message) {
-        super(message);
+    public RuntimeError(Token token, String message) {
+        super(message, null, false, false);
         this.token = token;
     }
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package com.maruseron.zeron.interpret;
+
+import com.maruseron.zeron.domain.BooleanDescriptor;
+import com.maruseron.zeron.domain.FloatDescriptor;
+import com.maruseron.zeron.domain.IntDescriptor;
+import com.maruseron.zeron.domain.TypeDescriptor;
+
+/*
+    How the node backend stores a value of a given static type. Non nullable Int, Float
+    and Boolean binds live unboxed in Environment.primitives and are read and written
+    through ExprNode.evalInt, evalDouble and evalBoolean; every other type is boxed
+    in Environment.slots. The VM (com.maruseron.zeron.vm) splits its stack the same way.
+
+    INT     -> the int, widened to long
+    FLOAT   -> the raw bits of the double
+    BOOLEAN -> 1 or 0
+ */
+public enum SlotKind {
+    OBJECT, INT, FLOAT, BOOLEAN;
+
+    public static SlotKind of(final TypeDescriptor type) {
+        if (type == null || type.isNullable()) return OBJECT;
+        return switch (type) {
+            case IntDescriptor _     -> INT;
+            case FloatDescriptor _   -> FLOAT;
+            case BooleanDescriptor _ -> BOOLEAN;
+            default                  -> OBJECT;
+        };
+    }
+}
@@ -0,0 +1,373 @@
+package com.maruseron.zeron.interpret;
+
+import com.maruseron.zeron.scan.Token;
+import com.maruseron.zeron.scan.TokenType;
+
+/*
+    Self specializing arithmetic and comparison nodes, for operands whose static type
+    isn't a primitive slot kind: nullable or non primitive types (see SlotKind). A
+    binary +, -, *, /, >, >=, < or <= on Int, Float or Boolean operands is translated
+    straight into an IntNode, FloatNode or BooleanNode; on any other operands it's
+    translated into an Uninitialized node. On its first execution that node looks at
+    the operand values and replaces itself in its parent with a node specialized to
+    Int x Int, Float x Float or String concatenation, which from then on does a single
+    type guard per execution. If the guard ever fails the node gives up and replaces
+    itself with the generic ExprNode.Binary for its operator, which handles every
+    operand combination the same way Interpreter.evaluate does.
+
+    Uninitialized -> IntAdd, FloatLess, Concat, ... -> ExprNode.Add, ExprNode.Less, ...
+ */
+abstract class SpecializingNode extends ExprNode {
+    final Token operator;
+    ExprNode left;
+    ExprNode right;
+
+    SpecializingNode(final Token operator, final ExprNode left, final ExprNode right) {
+        this.operator = operator;
+        this.left = adopt(left);
+        this.right = adopt(right);
+    }
+
+    // takes over the operator and the children of the node being rewritten
+    SpecializingNode(final SpecializingNode from) {
+        this(from.operator, from.left, from.right);
+    }
+
+    @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+        if (left  == oldChild) left  = newChild;
+        if (right == oldChild) right = newChild;
+    }
+
+    // computes the result for operands that were already evaluated
+    abstract Object apply(Object l, Object r);
+
+    final Object despecialize(final Object l, final Object r) {
+        // a stale node computes the result without touching the tree or its children
+        if (replaced) return generic(null, null).apply(l, r);
+        return replace(generic(left, right)).apply(l, r);
+    }
+
+    private ExprNode.Binary generic(final ExprNode left, final ExprNode right) {
+        return switch (operator.type()) {
+            case PLUS          -> new ExprNode.Add(operator, left, right);
+            case MINUS         -> new ExprNode.Subtract(operator, left, right);
+            case STAR          -> new ExprNode.Multiply(operator, left, right);
+            case SLASH         -> new ExprNode.Divide(operator, left, right);
+            case GREATER       -> new ExprNode.Greater(operator, left, right);
+            case GREATER_EQUAL -> new ExprNode.GreaterEqual(operator, left, right);
+            case LESS          -> new ExprNode.Less(operator, left, right);
+            case LESS_EQUAL    -> new ExprNode.LessEqual(operator, left, right);
+            default -> throw new RuntimeError(operator, "Invalid binary operator.");
+        };
+    }
+
+    static final class Uninitialized extends SpecializingNode {
+        Uninitialized(final Token operator, final ExprNode left, final ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            final var specialized = replaced ? null : specialize(l, r);
+            if (specialized == null) return despecialize(l, r);
+            return replace(specialized).apply(l, r);
+        }
+
+        private SpecializingNode specialize(final Object l, final Object r) {
+            if (l instanceof Integer && r instanceof Integer) {
+                return switch (operator.type()) {
+                    case PLUS          -> new IntAdd(this);
+                    case MINUS         -> new IntSubtract(this);
+                    case STAR          -> new IntMultiply(this);
+                    case SLASH         -> new IntDivide(this);
+                    case GREATER       -> new IntGreater(this);
+                    case GREATER_EQUAL -> new IntGreaterEqual(this);
+                    case LESS          -> new IntLess(this);
+                    case LESS_EQUAL    -> new IntLessEqual(this);
+                    default -> null;
+                };
+            }
+            if (l instanceof Double && r instanceof Double) {
+                return switch (operator.type()) {
+                    case PLUS          -> new FloatAdd(this);
+                    case MINUS         -> new FloatSubtract(this);
+                    case STAR          -> new FloatMultiply(this);
+                    case SLASH         -> new FloatDivide(this);
+                    case GREATER       -> new FloatGreater(this);
+                    case GREATER_EQUAL -> new FloatGreaterEqual(this);
+                    case LESS          -> new FloatLess(this);
+                    case LESS_EQUAL    -> new FloatLessEqual(this);
+                    default -> null;
+                };
+            }
+            if (l instanceof String && r instanceof String && operator.type() == TokenType.PLUS) {
+                return new Concat(this);
+            }
+            return null;
+        }
+    }
+
+    // Int x Int
+
+    static final class IntAdd extends SpecializingNode {
+        IntAdd(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Integer a && r instanceof Integer b) return a + b;
+            return despecialize(l, r);
+        }
+    }
+
+    static final class IntSubtract extends SpecializingNode {
+        IntSubtract(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Integer a && r instanceof Integer b) return a - b;
+            return despecialize(l, r);
+        }
+    }
+
+    static final class IntMultiply extends SpecializingNode {
+        IntMultiply(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Integer a && r instanceof Integer b) return a * b;
+            return despecialize(l, r);
+        }
+    }
+
+    static final class IntDivide extends SpecializingNode {
+        IntDivide(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Integer a && r instanceof Integer b) return a / b;
+            return despecialize(l, r);
+        }
+    }
+
+    static final class IntGreater extends SpecializingNode {
+        IntGreater(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Integer a && r instanceof Integer b) return a > b;
+            return despecialize(l, r);
+        }
+    }
+
+    static final class IntGreaterEqual extends SpecializingNode {
+        IntGreaterEqual(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Integer a && r instanceof Integer b) return a >= b;
+            return despecialize(l, r);
+        }
+    }
+
+    static final class IntLess extends SpecializingNode {
+        IntLess(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Integer a && r instanceof Integer b) return a < b;
+            return despecialize(l, r);
+        }
+    }
+
+    static final class IntLessEqual extends SpecializingNode {
+        IntLessEqual(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Integer a && r instanceof Integer b) return a <= b;
+            return despecialize(l, r);
+        }
+    }
+
+    // Float x Float
+
+    static final class FloatAdd extends SpecializingNode {
+        FloatAdd(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Double a && r instanceof Double b) return a + b;
+            return despecialize(l, r);
+        }
+    }
+
+    static final class FloatSubtract extends SpecializingNode {
+        FloatSubtract(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Double a && r instanceof Double b) return a - b;
+            return despecialize(l, r);
+        }
+    }
+
+    static final class FloatMultiply extends SpecializingNode {
+        FloatMultiply(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Double a && r instanceof Double b) return a * b;
+            return despecialize(l, r);
+        }
+    }
+
+    static final class FloatDivide extends SpecializingNode {
+        FloatDivide(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Double a && r instanceof Double b) return a / b;
+            return despecialize(l, r);
+        }
+    }
+
+    static final class FloatGreater extends SpecializingNode {
+        FloatGreater(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Double a && r instanceof Double b) return a > b;
+            return despecialize(l, r);
+        }
+    }
+
+    static final class FloatGreaterEqual extends SpecializingNode {
+        FloatGreaterEqual(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Double a && r instanceof Double b) return a >= b;
+            return despecialize(l, r);
+        }
+    }
+
+    static final class FloatLess extends SpecializingNode {
+        FloatLess(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Double a && r instanceof Double b) return a < b;
+            return despecialize(l, r);
+        }
+    }
+
+    static final class FloatLessEqual extends SpecializingNode {
+        FloatLessEqual(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof Double a && r instanceof Double b) return a <= b;
+            return despecialize(l, r);
+        }
+    }
+
+    // String x String
+
+    static final class Concat extends SpecializingNode {
+        Concat(final SpecializingNode from) {
+            super(from);
+        }
+
+        @Override Object execute(final Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        @Override Object apply(final Object l, final Object r) {
+            if (l instanceof String a && r instanceof String b) return a + b;
+            return despecialize(l, r);
+        }
+    }
+}
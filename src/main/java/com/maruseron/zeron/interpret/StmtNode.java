@@ -0,0 +1,249 @@
+package com.maruseron.zeron.interpret;
+
+import com.maruseron.zeron.IntRangeLiteral;
+import com.maruseron.zeron.ast.Expr;
+import com.maruseron.zeron.scan.Token;
+
+/*
+    Executable statement nodes, the statement half of the NodeTranslator output.
+    Declarations have no node of their own: a Stmt.Var becomes a write to its slot and
+    a Stmt.Function becomes a NodeFunction. Every node reports how it finished with a
+    Completion, loops and functions consume the ones meant for them. Conditions are
+    always Boolean typed nodes (see NodeTranslator.condition) and are run through
+    evalBoolean.
+ */
+abstract class StmtNode extends Node {
+    abstract Completion execute(Environment frame);
+
+    static final class Block extends StmtNode {
+        private final StmtNode[] statements;
+
+        Block(final StmtNode[] statements) {
+            this.statements = statements;
+            for (final var statement : statements) adopt(statement);
+        }
+
+        @Override Completion execute(final Environment frame) {
+            for (final var statement : statements) {
+                final var completion = statement.execute(frame);
+                if (completion != Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class Expression extends StmtNode {
+        private ExprNode expression;
+
+        Expression(final ExprNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (expression == oldChild) expression = newChild;
+        }
+
+        @Override Completion execute(final Environment frame) {
+            expression.executeVoid(frame);
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class Print extends StmtNode {
+        private ExprNode expression;
+
+        Print(final ExprNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (expression == oldChild) expression = newChild;
+        }
+
+        @Override Completion execute(final Environment frame) {
+            System.out.println(expression.execute(frame));
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class If extends StmtNode {
+        private ExprNode condition;
+        private final StmtNode thenBranch;
+        private final StmtNode elseBranch;
+
+        If(final ExprNode condition, final StmtNode thenBranch, final StmtNode elseBranch) {
+            this.condition = adopt(condition);
+            this.thenBranch = adopt(thenBranch);
+            this.elseBranch = adopt(elseBranch);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (condition == oldChild) condition = newChild;
+        }
+
+        @Override Completion execute(final Environment frame) {
+            if (condition.evalBoolean(frame)) {
+                return thenBranch.execute(frame);
+            } else if (elseBranch != null) {
+                return elseBranch.execute(frame);
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class While extends StmtNode {
+        private ExprNode condition;
+        private final StmtNode body;
+
+        While(final ExprNode condition, final StmtNode body) {
+            this.condition = adopt(condition);
+            this.body = adopt(body);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (condition == oldChild) condition = newChild;
+        }
+
+        @Override Completion execute(final Environment frame) {
+            while (condition.evalBoolean(frame)) {
+                final var completion = body.execute(frame);
+                if (completion == Completion.BREAK)  break;
+                if (completion.leavesFunction()) return completion;
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class Loop extends StmtNode {
+        private final StmtNode body;
+
+        Loop(final StmtNode body) {
+            this.body = adopt(body);
+        }
+
+        @Override Completion execute(final Environment frame) {
+            while (true) {
+                final var completion = body.execute(frame);
+                if (completion == Completion.BREAK)  return Completion.NORMAL;
+                if (completion.leavesFunction()) return completion;
+            }
+        }
+    }
+
+    // the iteration bind is an Int, so it lives in the primitive half of the frame
+    static final class ForRange extends StmtNode {
+        private final Token in;
+        private ExprNode iterable;
+        private final int slot;
+        private final StmtNode body;
+
+        ForRange(final Token in, final ExprNode iterable, final int slot, final StmtNode body) {
+            this.in = in;
+            this.iterable = adopt(iterable);
+            this.slot = slot;
+            this.body = adopt(body);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (iterable == oldChild) iterable = newChild;
+        }
+
+        @Override Completion execute(final Environment frame) {
+            if (!(iterable.execute(frame) instanceof IntRangeLiteral range))
+                throw new RuntimeError(in, "Only ranges can be iterated.");
+
+            // counted loop over a primitive counter, nothing is allocated per iteration
+            final var step = range.step();
+            var i = range.start();
+            for (var remaining = range.count(); remaining > 0; remaining--, i += step) {
+                frame.primitives[slot] = i;
+                final var completion = body.execute(frame);
+                if (completion == Completion.BREAK)  break;
+                if (completion.leavesFunction()) return completion;
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class Break extends StmtNode {
+        static final Break BREAK = new Break();
+
+        private Break() {}
+
+        @Override Completion execute(final Environment frame) {
+            return Completion.BREAK;
+        }
+    }
+
+    static final class Return extends StmtNode {
+        private ExprNode value;
+
+        Return(final ExprNode value) {
+            this.value = adopt(value);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (value == oldChild) value = newChild;
+        }
+
+        @Override Completion execute(final Environment frame) {
+            frame.returnValue = value.execute(frame);
+            return Completion.RETURN;
+        }
+    }
+
+    // a self tail call, see NodeFunction.reenter
+    static final class TailCall extends StmtNode {
+        private final NodeFunction target;
+        private final ExprNode[] arguments;
+
+        TailCall(final NodeFunction target, final ExprNode[] arguments) {
+            this.target = target;
+            this.arguments = arguments;
+            for (final var argument : arguments) adopt(argument);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            for (var i = 0; i < arguments.length; i++) {
+                if (arguments[i] == oldChild) arguments[i] = newChild;
+            }
+        }
+
+        @Override Completion execute(final Environment frame) {
+            target.reenter(arguments, frame);
+            return Completion.TAIL_CALL;
+        }
+    }
+
+    // a returned match, split into one return per arm so an arm can be a tail call
+    static final class Match extends StmtNode {
+        private final Expr.Match match;
+        private ExprNode subject;
+        private final StmtNode[] arms;
+
+        Match(final Expr.Match match, final ExprNode subject, final StmtNode[] arms) {
+            this.match = match;
+            this.subject = adopt(subject);
+            this.arms = arms;
+            for (final var arm : arms) adopt(arm);
+        }
+
+        @Override void replaceChild(final ExprNode oldChild, final ExprNode newChild) {
+            if (subject == oldChild) subject = newChild;
+        }
+
+        @Override Completion execute(final Environment frame) {
+            return arms[match.armOf(subject.execute(frame))].execute(frame);
+        }
+    }
+
+    static final class Empty extends StmtNode {
+        static final Empty EMPTY = new Empty();
+
+        private Empty() {}
+
+        @Override Completion execute(final Environment frame) {
+            return Completion.NORMAL;
+        }
+    }
+}
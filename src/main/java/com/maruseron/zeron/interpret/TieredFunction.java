@@ -0,0 +1,134 @@
+package com.maruseron.zeron.interpret;
+
+import com.maruseron.zeron.ast.Stmt;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    A function of the tiered engine. Every call goes through a MutableCallSite of type
+    (Interpreter, Object...)Object that starts out bound to the interpreter. Calls and
+    loop back edges taken while running the function add to its heat; once it passes
+    HOT_THRESHOLD the function is handed to the compiler, and on success the site is
+    retargeted to the compiled handle, so every caller switches over on its next call.
+    Compiled callers included: their calls to other functions are linked to these same
+    sites (see linkedTo). There is no on stack replacement: an activation already running
+    stays interpreted.
+ */
+final class TieredFunction extends ZeronFunction {
+    static final int HOT_THRESHOLD = 1_000;
+
+    private static final MethodHandle INTERPRET;
+    static {
+        try {
+            INTERPRET = MethodHandles.lookup().findVirtual(
+                    TieredFunction.class,
+                    "interpret",
+                    MethodType.methodType(Object.class, Interpreter.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final FunctionCompiler compiler;
+    private final MutableCallSite site;
+    private final MethodHandle invoker;
+    private final MethodHandle spreader;
+    private int heat = 0;
+    private boolean tried = false;
+
+    TieredFunction(final Stmt.Function declaration,
+                   final int frameSize,
+                   final FunctionCompiler compiler) {
+        super(declaration, frameSize);
+        this.compiler = compiler;
+        this.site = new MutableCallSite(
+                INTERPRET.bindTo(this).asCollector(Object[].class, arity()));
+        this.invoker = site.dynamicInvoker();
+        this.spreader = invoker.asSpreader(Object[].class, arity());
+    }
+
+    @Override public Object call(Interpreter interpreter, List<Object> arguments) {
+        try {
+            return (Object) spreader.invokeExact(interpreter, arguments.toArray());
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override public Object call0(Interpreter interpreter) {
+        try {
+            return (Object) invoker.invokeExact(interpreter);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override public Object call1(Interpreter interpreter, Object a) {
+        try {
+            return (Object) invoker.invokeExact(interpreter, a);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override public Object call2(Interpreter interpreter, Object a, Object b) {
+        try {
+            return (Object) invoker.invokeExact(interpreter, a, b);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // the call site as compiled code calls it, (Object...)Object. it follows every
+    // retarget of the site
+    MethodHandle linkedTo(final Interpreter interpreter) {
+        return invoker.bindTo(interpreter);
+    }
+
+    // the interpreted tier. back edges are counted by the interpreter per activation:
+    // the caller's count is set aside while this one runs, so a nested call only heats
+    // up its own function
+    private Object interpret(final Interpreter interpreter, final Object[] arguments) {
+        final var outer = interpreter.backEdges;
+        interpreter.backEdges = 0;
+        try {
+            return super.call(interpreter, Arrays.asList(arguments));
+        } finally {
+            heat += 1 + interpreter.backEdges;
+            interpreter.backEdges = outer;
+            if (heat >= HOT_THRESHOLD && !tried) tierUp(interpreter);
+        }
+    }
+
+    private void tierUp(final Interpreter interpreter) {
+        tried = true;
+        final MethodHandle compiled;
+        try {
+            compiled = compiler.compile(declaration, name ->
+                    interpreter.functions.get(name) instanceof TieredFunction callee
+                            ? callee.linkedTo(interpreter)
+                            : null);
+        } catch (RuntimeException | LinkageError | ReflectiveOperationException e) {
+            // something the compiler doesn't support yet: stay in the interpreter
+            return;
+        }
+
+        // box and unbox at the edge, and ignore the interpreter the site passes along
+        site.setTarget(MethodHandles.dropArguments(
+                compiled.asType(MethodType.genericMethodType(arity())),
+                0,
+                Interpreter.class));
+        MutableCallSite.syncAll(new MutableCallSite[] { site });
+    }
+
+    private static RuntimeException rethrow(final Throwable t) {
+        if (t instanceof RuntimeException e) throw e;
+        if (t instanceof Error e) throw e;
+        throw new IllegalStateException(t);
+    }
+}
@@ -1,8 +1,23 @@
 package com.maruseron.zeron.interpret;
 
+import java.util.Arrays;
 import java.util.List;
 
 public interface ZeronCallable {
     int arity();
     Object call(final Interpreter interpreter, final List<Object> arguments);
+
+    // arity specialized entry points for cached call sites, so calls with up to two
+    // arguments don't have to collect them into a list first
+    default Object call0(final Interpreter interpreter) {
+        return call(interpreter, List.of());
+    }
+
+    default Object call1(final Interpreter interpreter, final Object a) {
+        return call(interpreter, Arrays.asList(a));
+    }
+
+    default Object call2(final Interpreter interpreter, final Object a, final Object b) {
+        return call(interpreter, Arrays.asList(a, b));
+    }
 }
@@ -2,22 +2,73 @@ package com.maruseron.zeron.interpret;
 
 import com.maruseron.zeron.ast.Stmt;
 
+import java.util.Arrays;
 import java.util.List;
 
 public class ZeronFunction implements ZeronCallable {
-    private final Stmt.Function declaration;
+    final Stmt.Function declaration;
+    private final int frameSize;
+    // parameters are the first locals of the frame, but Float takes two lvt slots
+    private final int[] parameterSlots;
 
-    public ZeronFunction(final Stmt.Function declaration) {
+    public ZeronFunction(final Stmt.Function declaration, final int frameSize) {
         this.declaration = declaration;
+        this.frameSize = frameSize;
+
+        final var parameterTypes = declaration.typeDescriptor().parameters();
+        this.parameterSlots = new int[parameterTypes.size()];
+        var slot = 0;
+        for (var i = 0; i < parameterSlots.length; i++) {
+            parameterSlots[i] = slot;
+            slot += parameterTypes.get(i).isDoubleWidth() ? 2 : 1;
+        }
     }
 
     @Override public int arity() { return declaration.parameters().size(); }
 
     @Override public Object call(Interpreter interpreter, List<Object> arguments) {
-        final var environment = new Environment(interpreter.globals);
-        for (var i = 0; i < declaration.parameters().size(); i++) {
+        final var environment = new Environment(frameSize);
+        for (var i = 0; i < parameterSlots.length; i++) {
+            environment.slots[parameterSlots[i]] = arguments.get(i);
+        }
+        return invoke(interpreter, environment);
+    }
+
+    @Override public Object call0(Interpreter interpreter) {
+        return invoke(interpreter, new Environment(frameSize));
+    }
+
+    @Override public Object call1(Interpreter interpreter, Object a) {
+        final var environment = new Environment(frameSize);
+        environment.slots[parameterSlots[0]] = a;
+        return invoke(interpreter, environment);
+    }
+
+    @Override public Object call2(Interpreter interpreter, Object a, Object b) {
+        final var environment = new Environment(frameSize);
+        environment.slots[parameterSlots[0]] = a;
+        environment.slots[parameterSlots[1]] = b;
+        return invoke(interpreter, environment);
+    }
+
+    // a self tail call runs the body again here, in the same frame: the arguments go
+    // in the parameter slots and every other local is cleared. lambdas capture a
+    // snapshot of the frame, so none of them sees it change. it counts as a loop back
+    // edge for tiering
+    private Object invoke(final Interpreter interpreter, final Environment environment) {
+        while (true) {
+            final var completion = interpreter.executeBlock(declaration.body(), environment);
+            if (completion != Completion.TAIL_CALL) {
+                return completion == Completion.RETURN ? environment.returnValue : null;
+            }
 
+            final var arguments = environment.tailArguments;
+            environment.tailArguments = null;
+            Arrays.fill(environment.slots, null);
+            for (var i = 0; i < parameterSlots.length; i++) {
+                environment.slots[parameterSlots[i]] = arguments[i];
+            }
+            interpreter.backEdges++;
         }
-        return null;
     }
 }
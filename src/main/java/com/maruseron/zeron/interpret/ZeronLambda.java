@@ -0,0 +1,51 @@
+package com.maruseron.zeron.interpret;
+
+import com.maruseron.zeron.ast.Expr;
+
+import java.util.List;
+
+/*
+    A lambda value: the lambda plus a snapshot of the frame it was created in (see
+    Environment.snapshot), so captures are by value. Every call runs the body in a fresh
+    frame whose parent is the snapshot, and the body reaches the binds it captures
+    through the depth the resolver gave them.
+ */
+public final class ZeronLambda implements ZeronCallable {
+    private final Expr.Lambda declaration;
+    private final Environment closure;
+
+    ZeronLambda(final Expr.Lambda declaration, final Environment closure) {
+        this.declaration = declaration;
+        this.closure = closure;
+    }
+
+    @Override public int arity() { return declaration.param == null ? 0 : 1; }
+
+    @Override public Object call(Interpreter interpreter, List<Object> arguments) {
+        return arguments.isEmpty()
+                ? call0(interpreter)
+                : call1(interpreter, arguments.getFirst());
+    }
+
+    @Override public Object call0(Interpreter interpreter) {
+        return invoke(interpreter, new Environment(closure, declaration.getFrameSize()));
+    }
+
+    // the parameter is the first local of the frame
+    @Override public Object call1(Interpreter interpreter, Object a) {
+        final var environment = new Environment(closure, declaration.getFrameSize());
+        environment.slots[0] = a;
+        return invoke(interpreter, environment);
+    }
+
+    private Object invoke(final Interpreter interpreter, final Environment environment) {
+        return interpreter.executeBlock(declaration.body, environment) == Completion.RETURN
+                ? environment.returnValue
+                : null;
+    }
+
+    @Override
+    public String toString() {
+        return "<lambda>";
+    }
+}
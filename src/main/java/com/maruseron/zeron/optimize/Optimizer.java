@@ -0,0 +1,375 @@
+package com.maruseron.zeron.optimize;
+
+import com.maruseron.zeron.IntRangeLiteral;
+import com.maruseron.zeron.ast.Expr;
+import com.maruseron.zeron.ast.Stmt;
+import com.maruseron.zeron.domain.BooleanDescriptor;
+import com.maruseron.zeron.domain.FloatDescriptor;
+import com.maruseron.zeron.domain.IntDescriptor;
+import com.maruseron.zeron.domain.StringDescriptor;
+import com.maruseron.zeron.domain.TypeDescriptor;
+import com.maruseron.zeron.scan.TokenType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Rewrites a resolved program once, before any backend sees it, so no engine repeats
+    work that can be done at load time:
+
+    folding     -> unary, binary, comparison, logical and if expressions over literals
+                   become a single literal, with the semantics the interpreter has
+    propagation -> reads of a final bind whose initializer folds to a literal become
+                   that literal, for globals and locals alike
+    dead code   -> ifs and whiles with a constant condition lose the branch that never
+                   runs, ranges that are empty lose their loop, and statements after a
+                   return or break in the same block are dropped
+    purity      -> expression statements that can neither fail nor have an effect are
+                   dropped
+
+    Nodes that carry resolver output (frame addresses, types) are rebuilt with it, and
+    declarations are never dropped from a live block, so frame layouts stay as the
+    resolver computed them.
+ */
+public final class Optimizer {
+    // constant value of every bind in scope, innermost scope first. a bind that isn't
+    // a constant maps to null, so it hides a constant of the same name further out
+    private final Deque<Map<String, Expr.Literal>> scopes = new ArrayDeque<>();
+
+    public List<Stmt> optimize(final List<Stmt> statements) {
+        scopes.push(new HashMap<>());
+
+        // globals first, in declaration order, so every function body sees all of the
+        // top level constants no matter where it's declared
+        final var globals = new HashMap<Stmt, Stmt>();
+        for (final var statement : statements) {
+            if (statement instanceof Stmt.Var var) {
+                globals.put(statement, optimize(var));
+            }
+        }
+
+        final var optimized = new ArrayList<Stmt>(statements.size());
+        for (final var statement : statements) {
+            final var result = globals.containsKey(statement)
+                    ? globals.get(statement)
+                    : optimize(statement);
+            if (result != null) optimized.add(result);
+        }
+
+        scopes.pop();
+        return optimized;
+    }
+
+    // returns null when the statement can go
+    private Stmt optimize(final Stmt stmt) {
+        return switch (stmt) {
+            case Stmt.Block(List<Stmt> statements) -> {
+                scopes.push(new HashMap<>());
+                final var block = new Stmt.Block(optimizeAll(statements));
+                scopes.pop();
+                yield block;
+            }
+            case Stmt.Break _ ->
+                    stmt;
+            case Stmt.Expression(Expr expression) -> {
+                final var optimized = optimize(expression);
+                yield isPure(optimized) ? null : new Stmt.Expression(optimized);
+            }
+            case Stmt.For loop -> {
+                final var iterable = optimize(loop.iterable());
+                if (iterable instanceof Expr.Literal literal
+                        && literal.value instanceof IntRangeLiteral range
+                        && range.count() == 0) {
+                    yield null;
+                }
+
+                scopes.push(new HashMap<>());
+                scopes.peek().put(loop.iterationBind().lexeme(), null);
+                final var body = orEmpty(optimize(loop.body()));
+                scopes.pop();
+
+                final var optimized = new Stmt.For(loop.iterationBind(), loop.in(), iterable, body);
+                optimized.setSlot(loop.getSlot());
+                yield optimized;
+            }
+            case Stmt.Function function -> {
+                scopes.push(new HashMap<>());
+                for (final var parameter : function.parameters()) {
+                    scopes.peek().put(parameter.lexeme(), null);
+                }
+                final var body = optimizeAll(function.body());
+                scopes.pop();
+                yield new Stmt.Function(function.name(), function.parameters(),
+                        function.typeDescriptor(), body);
+            }
+            case Stmt.If(var paren, Expr condition, Stmt thenBranch, Stmt elseBranch) -> {
+                final var optimized = optimize(condition);
+                if (optimized instanceof Expr.Literal literal && literal.value instanceof Boolean b) {
+                    if (b) yield optimize(thenBranch);
+                    yield elseBranch == null ? null : optimize(elseBranch);
+                }
+                yield new Stmt.If(paren, optimized,
+                        orEmpty(optimize(thenBranch)),
+                        elseBranch == null ? null : optimize(elseBranch));
+            }
+            case Stmt.Print(Expr expression) ->
+                    new Stmt.Print(optimize(expression));
+            case Stmt.Return(Expr value) ->
+                    new Stmt.Return(value == null ? null : optimize(value));
+            case Stmt.Var var ->
+                    optimize(var);
+            case Stmt.While(var keyword, Expr condition, Stmt body) -> {
+                final var optimized = optimize(condition);
+                if (optimized instanceof Expr.Literal literal && Boolean.FALSE.equals(literal.value)) {
+                    yield null;
+                }
+                yield new Stmt.While(keyword, optimized, orEmpty(optimize(body)));
+            }
+        };
+    }
+
+    private List<Stmt> optimizeAll(final List<Stmt> statements) {
+        final var optimized = new ArrayList<Stmt>(statements.size());
+        for (final var statement : statements) {
+            final var result = optimize(statement);
+            if (result == null) continue;
+            optimized.add(result);
+            // nothing after these runs
+            if (result instanceof Stmt.Return || result instanceof Stmt.Break) break;
+        }
+        return optimized;
+    }
+
+    private Stmt.Var optimize(final Stmt.Var var) {
+        final var initializer = var.initializer() == null ? null : optimize(var.initializer());
+        final var constant = var.isFinal()
+                && !var.type().isNullable()
+                && initializer instanceof Expr.Literal literal
+                && isFoldable(literal.value);
+        scopes.peek().put(var.name().lexeme(), constant ? (Expr.Literal) initializer : null);
+
+        final var optimized = new Stmt.Var(var.name(), var.type(), initializer, var.isFinal());
+        optimized.setAddress(var.getDepth(), var.getSlot());
+        return optimized;
+    }
+
+    private Expr optimize(final Expr expr) {
+        return switch (expr) {
+            case Expr.Assignment assignment -> {
+                final var optimized = new Expr.Assignment(
+                        assignment.name, optimize(assignment.value), assignment.getType());
+                optimized.setAddress(assignment.getDepth(), assignment.getSlot());
+                yield optimized;
+            }
+            case Expr.Binary binary -> {
+                final var left = optimize(binary.left);
+                final var right = optimize(binary.right);
+                if (left instanceof Expr.Literal l && right instanceof Expr.Literal r) {
+                    final var folded = fold(binary.operator.type(), l.value, r.value);
+                    if (folded != null) yield literal(folded);
+                }
+                yield new Expr.Binary(left, binary.operator, right, binary.getType());
+            }
+            case Expr.Call call -> {
+                final var optimized = new Expr.Call(call.callee, call.paren,
+                        call.arguments.stream().map(this::optimize).toList(),
+                        call.getType());
+                optimized.setAddress(call.getDepth(), call.getSlot());
+                optimized.setTailCall(call.isTailCall());
+                yield optimized;
+            }
+            // groupings only matter to the parser
+            case Expr.Grouping grouping ->
+                    optimize(grouping.expression);
+            case Expr.If iff -> {
+                final var condition = optimize(iff.condition);
+                if (condition instanceof Expr.Literal literal && literal.value instanceof Boolean b) {
+                    yield optimize(b ? iff.thenExpr : iff.elseExpr);
+                }
+                yield new Expr.If(iff.paren, condition,
+                        optimize(iff.thenExpr), optimize(iff.elseExpr), iff.getType());
+            }
+            // a constant subject already knows its arm
+            case Expr.Match match -> {
+                final var subject = optimize(match.subject);
+                if (subject instanceof Expr.Literal literal) {
+                    yield optimize(match.bodyOf(match.armOf(literal.value)));
+                }
+                yield new Expr.Match(match.keyword, subject,
+                        match.arms.stream()
+                                .map(arm -> new Expr.Match.Arm(arm.patterns(), optimize(arm.body())))
+                                .toList(),
+                        optimize(match.otherwise), match.getType());
+            }
+            case Expr.Lambda _ ->
+                    expr;
+            case Expr.Literal _ ->
+                    expr;
+            case Expr.Logical logical -> {
+                final var left = optimize(logical.left);
+                final var right = optimize(logical.right);
+                // or is settled by a true left side and and by a false one; otherwise
+                // the result is whatever the right side is
+                if (left instanceof Expr.Literal literal && literal.value instanceof Boolean b) {
+                    final var settles = switch (logical.operator.type()) {
+                        case OR  -> b;
+                        case AND -> !b;
+                        default  -> throw new IllegalStateException("Invalid logical operator.");
+                    };
+                    yield settles ? literal(b) : right;
+                }
+                yield new Expr.Logical(left, logical.operator, right);
+            }
+            // typeof looks at the shape of its operand (a variable reports its static
+            // type), so it is left exactly as written
+            case Expr.Unary unary when unary.operator.type() == TokenType.TYPEOF ->
+                    unary;
+            case Expr.Unary unary -> {
+                final var right = optimize(unary.right);
+                if (right instanceof Expr.Literal literal) {
+                    final Object folded = switch (unary.operator.type()) {
+                        case MINUS -> switch (literal.value) {
+                            case Integer i -> -i;
+                            case Double d  -> -d;
+                            default        -> null;
+                        };
+                        case NOT -> literal.value instanceof Boolean b ? !b : null;
+                        default  -> null;
+                    };
+                    if (folded != null) yield literal(folded);
+                }
+                yield new Expr.Unary(unary.operator, right, unary.getType());
+            }
+            case Expr.Variable variable -> {
+                for (final var scope : scopes) {
+                    if (!scope.containsKey(variable.name.lexeme())) continue;
+                    final var constant = scope.get(variable.name.lexeme());
+                    yield constant == null ? variable : literal(constant.value);
+                }
+                yield variable;
+            }
+        };
+    }
+
+    // the value of `left operator right` as the interpreter computes it, or null when it
+    // can't be folded: mixed operand types, integer division by zero, anything that
+    // would be a runtime error
+    private static Object fold(final TokenType operator,
+                               final Object left,
+                               final Object right) {
+        if (!isFoldable(left) || !isFoldable(right)) return null;
+
+        return switch (operator) {
+            case PLUS -> {
+                if (left instanceof String || right instanceof String) yield left.toString() + right.toString();
+                if (left instanceof Integer l && right instanceof Integer r) yield l + r;
+                if (left instanceof Double l && right instanceof Double r) yield l + r;
+                yield null;
+            }
+            case MINUS -> {
+                if (left instanceof Integer l && right instanceof Integer r) yield l - r;
+                if (left instanceof Double l && right instanceof Double r) yield l - r;
+                yield null;
+            }
+            case STAR -> {
+                if (left instanceof Integer l && right instanceof Integer r) yield l * r;
+                if (left instanceof Double l && right instanceof Double r) yield l * r;
+                yield null;
+            }
+            case SLASH -> {
+                if (left instanceof Integer l && right instanceof Integer r && r != 0) yield l / r;
+                if (left instanceof Double l && right instanceof Double r) yield l / r;
+                yield null;
+            }
+            case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> {
+                if (left instanceof Integer l && right instanceof Integer r) yield compare(operator, l, r);
+                if (left instanceof Double l && right instanceof Double r) yield compare(operator, l, r);
+                yield null;
+            }
+            case EQUAL_EQUAL, BANG_EQUAL -> {
+                // the typed engines compare doubles with ==, the interpreter with equals:
+                // they only disagree on NaN and signed zeros, so those are left alone
+                if (left instanceof Double l && (l.isNaN() || l == 0.0)) yield null;
+                if (right instanceof Double r && (r.isNaN() || r == 0.0)) yield null;
+                final var equal = left.equals(right);
+                yield operator == TokenType.EQUAL_EQUAL ? equal : !equal;
+            }
+            default -> null;
+        };
+    }
+
+    // ints widen to double exactly, and NaN fails every comparison like it does at runtime
+    private static boolean compare(final TokenType operator, final double left, final double right) {
+        return switch (operator) {
+            case LESS       -> left <  right;
+            case LESS_EQUAL -> left <= right;
+            case GREATER    -> left >  right;
+            default         -> left >= right;
+        };
+    }
+
+    private static boolean isFoldable(final Object value) {
+        return value instanceof Integer || value instanceof Double
+                || value instanceof Boolean || value instanceof String;
+    }
+
+    private static Expr.Literal literal(final Object value) {
+        return new Expr.Literal(value, switch (value) {
+            case Integer _ -> TypeDescriptor.ofInt();
+            case Double _  -> TypeDescriptor.ofFloat();
+            case Boolean _ -> TypeDescriptor.ofBoolean();
+            case String _  -> TypeDescriptor.ofString();
+            default -> throw new IllegalStateException("Not a foldable value.");
+        });
+    }
+
+    private static Stmt orEmpty(final Stmt stmt) {
+        return stmt == null ? new Stmt.Block(List.of()) : stmt;
+    }
+
+    /*
+        An expression with no effect that can't fail at runtime: literals, reads, and
+    operators whose operands are statically typed so that no operand check can throw.
+    Integer division is out, since it can still divide by zero.
+     */
+    private static boolean isPure(final Expr expr) {
+        return switch (expr) {
+            case Expr.Literal _, Expr.Variable _ -> true;
+            case Expr.Grouping grouping -> isPure(grouping.expression);
+            case Expr.Logical logical -> isPure(logical.left) && isPure(logical.right);
+            case Expr.Unary unary -> isPure(unary.right) && switch (unary.operator.type()) {
+                case MINUS -> isNumber(unary.right.getType());
+                case NOT   -> isBoolean(unary.right.getType());
+                default    -> false;
+            };
+            case Expr.Binary binary -> {
+                final var left = binary.left.getType();
+                final var right = binary.right.getType();
+                if (!isPure(binary.left) || !isPure(binary.right)) yield false;
+                yield switch (binary.operator.type()) {
+                    case EQUAL_EQUAL, BANG_EQUAL -> true;
+                    case PLUS -> left instanceof StringDescriptor && !left.isNullable()
+                            || isNumber(left) && isNumber(right);
+                    case MINUS, STAR, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL ->
+                            isNumber(left) && isNumber(right);
+                    case SLASH -> left instanceof FloatDescriptor && isNumber(left) && isNumber(right);
+                    default -> false;
+                };
+            }
+            default -> false;
+        };
+    }
+
+    private static boolean isNumber(final TypeDescriptor type) {
+        return (type instanceof IntDescriptor || type instanceof FloatDescriptor)
+                && !type.isNullable();
+    }
+
+    private static boolean isBoolean(final TypeDescriptor type) {
+        return type instanceof BooleanDescriptor && !type.isNullable();
+    }
+}
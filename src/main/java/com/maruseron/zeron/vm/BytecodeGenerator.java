@@ -0,0 +1,605 @@
+package com.maruseron.zeron.vm;
+
+import com.maruseron.zeron.ast.Expr;
+import com.maruseron.zeron.ast.Stmt;
+import com.maruseron.zeron.domain.InferDescriptor;
+import com.maruseron.zeron.domain.Native;
+import com.maruseron.zeron.domain.Natives;
+import com.maruseron.zeron.domain.StringDescriptor;
+import com.maruseron.zeron.domain.SymbolTable;
+import com.maruseron.zeron.interpret.RuntimeError;
+import com.maruseron.zeron.interpret.SlotKind;
+import com.maruseron.zeron.scan.Token;
+import com.maruseron.zeron.scan.TokenType;
+
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.maruseron.zeron.vm.Opcode.*;
+
+/*
+    Emits VM bytecode from a resolved program. Every expression leaves its value on
+    the half of the stack its static type calls for (SlotKind.of(expr.getType())), and
+    the generator inserts BOX and UNBOX instructions wherever a value crosses from one
+    half to the other, so the VM itself never looks at types.
+ */
+final class BytecodeGenerator {
+    private final SymbolTable symbols;
+    private final Map<String, VmFunction> functions = new HashMap<>();
+    private final List<VmFunction> table = new ArrayList<>();
+
+    // state of the function being generated
+    private Assembler asm;
+    private VmFunction function;
+    private Deque<List<Integer>> breaks = new ArrayDeque<>();
+
+    BytecodeGenerator(final SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    VmFunction generate(final List<Stmt> statements) {
+        final var script = new VmFunction("<script>", -1, SlotKind.OBJECT);
+        asm = new Assembler(0);
+        function = script;
+        statements.forEach(this::generate);
+        defaultReturn(SlotKind.OBJECT);
+        asm.finish(script);
+        return script;
+    }
+
+    VmFunction function(final String name) {
+        return functions.get(name);
+    }
+
+    VmFunction[] functionTable() {
+        return table.toArray(VmFunction[]::new);
+    }
+
+    private void generate(final Stmt stmt) {
+        switch (stmt) {
+            case Stmt.Block(List<Stmt> statements) ->
+                    statements.forEach(this::generate);
+            case Stmt.Break _ ->
+                    breaks.getFirst().add(asm.jump(JMP));
+            case Stmt.Expression(Expr expression) -> {
+                if (expression instanceof Expr.Assignment assignment) {
+                    assign(assignment, false);
+                } else {
+                    emit(expression);
+                    asm.emit(POP);
+                }
+            }
+            case Stmt.For loop -> {
+                emit(loop.iterable(), SlotKind.OBJECT);
+                final var hidden = asm.allocate(3);
+                asm.emit(RANGE_PREP, hidden, asm.constant(loop.in()));
+                final var head = asm.here();
+                final var exit = asm.jump(RANGE_NEXT, hidden, loop.getSlot());
+                loop(head, loop.body(), exit);
+                asm.release(3);
+            }
+            case Stmt.Function fn ->
+                    function(fn);
+            case Stmt.If(Token paren, Expr condition, Stmt thenBranch, Stmt elseBranch) -> {
+                final var otherwise = jumpUnless(paren, condition);
+                generate(thenBranch);
+                if (elseBranch == null) {
+                    asm.patch(otherwise);
+                } else {
+                    final var end = asm.jump(JMP);
+                    asm.patch(otherwise);
+                    generate(elseBranch);
+                    asm.patch(end);
+                }
+            }
+            case Stmt.Print(Expr expression) -> {
+                emit(expression, SlotKind.OBJECT);
+                asm.emit(PRINT);
+            }
+            case Stmt.Return(Expr value) -> {
+                emit(value, function.returnKind);
+                asm.emit(RET);
+            }
+            case Stmt.Var var -> {
+                // binds without an initializer are nullable, so they are always boxed
+                if (var.initializer() == null) {
+                    asm.emit(ACONST, asm.constant(null));
+                    store(var.getDepth(), var.getSlot(), SlotKind.OBJECT);
+                    return;
+                }
+
+                final var kind = SlotKind.of(var.type() instanceof InferDescriptor
+                        ? var.initializer().getType()
+                        : var.type());
+                emit(var.initializer(), kind);
+                store(var.getDepth(), var.getSlot(), kind);
+            }
+            case Stmt.While(Token keyword, Expr condition, Stmt body) -> {
+                final var head = asm.here();
+                // loop gets a literal true condition from the parser, nothing to test
+                final var exit = condition instanceof Expr.Literal literal && Boolean.TRUE.equals(literal.value)
+                        ? -1
+                        : jumpUnless(keyword, condition);
+                loop(head, body, exit);
+            }
+        }
+    }
+
+    private void function(final Stmt.Function fn) {
+        final var returnKind = SlotKind.of(symbols.getFunctionType(fn.name()).returnType());
+        final var target = new VmFunction(fn, table.size(), returnKind);
+        // register before generating the body so self calls bind to it
+        table.add(target);
+        functions.put(target.name, target);
+
+        final var enclosingAsm = asm;
+        final var enclosingFunction = function;
+        final var enclosingBreaks = breaks;
+        asm = new Assembler(symbols.frameSize(fn.name()));
+        function = target;
+        breaks = new ArrayDeque<>();
+
+        fn.body().forEach(this::generate);
+        defaultReturn(returnKind);
+        asm.finish(target);
+
+        asm = enclosingAsm;
+        function = enclosingFunction;
+        breaks = enclosingBreaks;
+    }
+
+    // the body of a lambda, generated on the side like a function of its own
+    private VmFunction lambda(final Expr.Lambda lambda) {
+        final var target = new VmFunction(lambda);
+
+        final var enclosingAsm = asm;
+        final var enclosingFunction = function;
+        final var enclosingBreaks = breaks;
+        asm = new Assembler(lambda.getFrameSize());
+        function = target;
+        breaks = new ArrayDeque<>();
+
+        lambda.body.forEach(this::generate);
+        defaultReturn(SlotKind.OBJECT);
+        asm.finish(target);
+
+        asm = enclosingAsm;
+        function = enclosingFunction;
+        breaks = enclosingBreaks;
+        return target;
+    }
+
+    // the value a function produces when control runs off the end of its body
+    private void defaultReturn(final SlotKind kind) {
+        if (kind == SlotKind.OBJECT) asm.emit(ACONST, asm.constant(null));
+        else                         asm.emit(ICONST, 0);
+        asm.emit(RET);
+    }
+
+    // body, back edge to head, and every break plus the exit jump (if any) patched to the end
+    private void loop(final int head, final Stmt body, final int exit) {
+        breaks.push(new ArrayList<>());
+        generate(body);
+        asm.emit(JMP, head);
+
+        final var end = asm.here();
+        if (exit >= 0) asm.patch(exit, end);
+        for (final var jump : breaks.pop()) asm.patch(jump, end);
+    }
+
+    // emits a test of the condition and returns the jump taken when it is false.
+    // Int comparisons fuse with the jump, so `while (i < n)` is a single instruction
+    private int jumpUnless(final Token where, final Expr condition) {
+        if (condition instanceof Expr.Grouping grouping) return jumpUnless(where, grouping.expression);
+
+        if (condition instanceof Expr.Binary binary && kindOf(binary.left) == SlotKind.INT) {
+            final var fused = switch (binary.operator.type()) {
+                case LESS          -> IFNOT_ILT;
+                case LESS_EQUAL    -> IFNOT_ILE;
+                case GREATER       -> IFNOT_IGT;
+                case GREATER_EQUAL -> IFNOT_IGE;
+                case EQUAL_EQUAL   -> IFNOT_IEQ;
+                case BANG_EQUAL    -> IFNOT_INE;
+                default            -> -1;
+            };
+            if (fused >= 0) {
+                emit(binary.left, SlotKind.INT);
+                emit(binary.right, SlotKind.INT);
+                return asm.jump(fused);
+            }
+        }
+
+        condition(where, condition);
+        return asm.jump(JF);
+    }
+
+    // leaves a boolean on the primitive half. the resolver does not reject non Boolean
+    // conditions yet, so those are checked when they run
+    private void condition(final Token where, final Expr expr) {
+        if (kindOf(expr) == SlotKind.BOOLEAN) {
+            emit(expr, SlotKind.BOOLEAN);
+        } else {
+            emit(expr, SlotKind.OBJECT);
+            asm.emit(CHECKBOOL, asm.constant(where));
+        }
+    }
+
+    // Float math natives run on the primitive half, anything else boxes its arguments
+    private SlotKind nativeCall(final Native target, final List<Expr> arguments) {
+        final var type = target.handle().type();
+        if (type.equals(MethodType.methodType(double.class, double.class))) {
+            emit(arguments.getFirst(), SlotKind.FLOAT);
+            asm.emit(DMATH1, asm.constant(target));
+            return SlotKind.FLOAT;
+        }
+        if (type.equals(MethodType.methodType(double.class, double.class, double.class))) {
+            emit(arguments.get(0), SlotKind.FLOAT);
+            emit(arguments.get(1), SlotKind.FLOAT);
+            asm.emit(DMATH2, asm.constant(target));
+            return SlotKind.FLOAT;
+        }
+
+        for (final var argument : arguments) {
+            emit(argument, SlotKind.OBJECT);
+        }
+        asm.emit(NATIVE, asm.constant(target));
+        asm.adjust(-target.arity());
+        return SlotKind.OBJECT;
+    }
+
+    private void emit(final Expr expr, final SlotKind wanted) {
+        convert(emit(expr), wanted);
+    }
+
+    // emits the expression and returns the half of the stack its value was left on
+    private SlotKind emit(final Expr expr) {
+        return switch (expr) {
+            case Expr.Assignment assignment ->
+                    assign(assignment, true);
+            case Expr.Binary binary ->
+                    binary(binary);
+            // a lambda in a bind: arguments go boxed, the callee sorts them out
+            case Expr.Call call when call.callsBind() -> {
+                for (final var argument : call.arguments) {
+                    emit(argument, SlotKind.OBJECT);
+                }
+                load(call.getDepth(), call.getSlot(), SlotKind.OBJECT);
+                asm.emit(CALLV, call.arguments.size(), asm.constant(call.paren));
+                asm.adjust(-call.arguments.size());
+                yield SlotKind.OBJECT;
+            }
+            case Expr.Call call -> {
+                final var target = functions.get(call.callee.lexeme());
+                if (target == null) {
+                    final var builtin = Natives.get(call.callee.lexeme());
+                    if (builtin == null) {
+                        throw new RuntimeError(call.paren, "Callee must be a function.");
+                    }
+                    yield nativeCall(builtin, call.arguments);
+                }
+
+                for (var i = 0; i < target.arity(); i++) {
+                    emit(call.arguments.get(i), target.parameterKinds[i]);
+                }
+                asm.emit(CALL, target.index);
+                asm.adjust(-target.arity());
+                yield target.returnKind;
+            }
+            case Expr.Grouping grouping ->
+                    emit(grouping.expression);
+            case Expr.If iff -> {
+                final var kind = kindOf(iff);
+                final var otherwise = jumpUnless(iff.paren, iff.condition);
+                emit(iff.thenExpr, kind);
+                final var end = asm.jump(JMP);
+                // only one of the branches runs
+                asm.adjust(-1);
+                asm.patch(otherwise);
+                emit(iff.elseExpr, kind);
+                asm.patch(end);
+                yield kind;
+            }
+            case Expr.Match match -> {
+                final var kind = kindOf(match);
+                emit(match.subject, SlotKind.OBJECT);
+                // the entry of every arm, else last, filled in as they're emitted
+                final var targets = new int[match.arms.size() + 1];
+                asm.emit(MATCH, asm.constant(match), asm.constant(targets));
+                final var ends = new ArrayList<Integer>();
+                for (int i = 0; i < targets.length; i++) {
+                    targets[i] = asm.here();
+                    emit(match.bodyOf(i), kind);
+                    if (i < targets.length - 1) {
+                        ends.add(asm.jump(JMP));
+                        // only one of the arms runs
+                        asm.adjust(-1);
+                    }
+                }
+                for (final var end : ends) asm.patch(end);
+                yield kind;
+            }
+            case Expr.Lambda lambda -> {
+                asm.emit(LAMBDA, asm.constant(lambda(lambda)));
+                yield SlotKind.OBJECT;
+            }
+            case Expr.Literal literal -> {
+                final var kind = kindOf(literal);
+                switch (kind) {
+                    case INT     -> asm.emit(ICONST, (Integer) literal.value);
+                    case FLOAT   -> {
+                        final var bits = Double.doubleToRawLongBits((Double) literal.value);
+                        asm.emit(DCONST, (int) (bits >>> 32), (int) bits);
+                    }
+                    case BOOLEAN -> asm.emit(ICONST, (Boolean) literal.value ? 1 : 0);
+                    case OBJECT  -> asm.emit(ACONST, asm.constant(literal.value));
+                }
+                yield kind;
+            }
+            case Expr.Logical logical -> {
+                final var operator = logical.operator;
+                final var and = switch (operator.type()) {
+                    case AND -> true;
+                    case OR  -> false;
+                    default  -> throw new RuntimeError(operator, "Invalid logical operator.");
+                };
+
+                // a and b ::= if a then b else false; a or b ::= if a then true else b
+                condition(operator, logical.left);
+                final var shortCircuit = asm.jump(and ? JF : JT);
+                condition(operator, logical.right);
+                final var end = asm.jump(JMP);
+                asm.adjust(-1);
+                asm.patch(shortCircuit);
+                asm.emit(ICONST, and ? 0 : 1);
+                asm.patch(end);
+                yield SlotKind.BOOLEAN;
+            }
+            case Expr.Unary unary -> switch (unary.operator.type()) {
+                case MINUS -> switch (kindOf(unary.right)) {
+                    case INT   -> { emit(unary.right, SlotKind.INT);   asm.emit(INEG); yield SlotKind.INT; }
+                    case FLOAT -> { emit(unary.right, SlotKind.FLOAT); asm.emit(DNEG); yield SlotKind.FLOAT; }
+                    default    -> {
+                        emit(unary.right, SlotKind.OBJECT);
+                        asm.emit(GNEG, asm.constant(unary.operator));
+                        yield SlotKind.OBJECT;
+                    }
+                };
+                case NOT -> {
+                    condition(unary.operator, unary.right);
+                    asm.emit(NOT);
+                    yield SlotKind.BOOLEAN;
+                }
+                // the static type of a variable is known here, no need to look at the value
+                case TYPEOF -> {
+                    if (unary.right instanceof Expr.Variable variable) {
+                        asm.emit(ACONST, asm.constant(variable.getType().descriptor()));
+                    } else {
+                        emit(unary.right, SlotKind.OBJECT);
+                        asm.emit(TYPEOF);
+                    }
+                    yield SlotKind.OBJECT;
+                }
+                default -> throw new IllegalStateException("Unsupported unary operator.");
+            };
+            case Expr.Variable variable -> {
+                final var kind = kindOf(variable);
+                load(variable.getDepth(), variable.getSlot(), kind);
+                yield kind;
+            }
+        };
+    }
+
+    private SlotKind assign(final Expr.Assignment assignment, final boolean keepValue) {
+        final var kind = kindOf(assignment);
+        final var depth = assignment.getDepth();
+        final var slot = assignment.getSlot();
+
+        // x = x + c and x = x - c on an Int local become a single IINC
+        if (!keepValue
+                && kind == SlotKind.INT
+                && depth == 0
+                && assignment.value instanceof Expr.Binary binary
+                && binary.left instanceof Expr.Variable variable
+                && variable.getDepth() == 0
+                && variable.getSlot() == slot
+                && binary.right instanceof Expr.Literal literal
+                && literal.value instanceof Integer increment) {
+            switch (binary.operator.type()) {
+                case PLUS  -> { asm.emit(IINC, slot, increment);  return kind; }
+                case MINUS -> { asm.emit(IINC, slot, -increment); return kind; }
+                default    -> {}
+            }
+        }
+
+        emit(assignment.value, kind);
+        store(depth, slot, kind);
+        if (keepValue) load(depth, slot, kind);
+        return kind;
+    }
+
+    private SlotKind binary(final Expr.Binary binary) {
+        final var operator = binary.operator;
+        // both operands have the same static type, the resolver made sure of it
+        final var operands = kindOf(binary.left);
+
+        if (operands == SlotKind.INT || operands == SlotKind.FLOAT) {
+            final var isInt = operands == SlotKind.INT;
+            emit(binary.left, operands);
+            emit(binary.right, operands);
+            final var op = switch (operator.type()) {
+                case PLUS          -> isInt ? IADD : DADD;
+                case MINUS         -> isInt ? ISUB : DSUB;
+                case STAR          -> isInt ? IMUL : DMUL;
+                case SLASH         -> isInt ? IDIV : DDIV;
+                case LESS          -> isInt ? ILT  : DLT;
+                case LESS_EQUAL    -> isInt ? ILE  : DLE;
+                case GREATER       -> isInt ? IGT  : DGT;
+                case GREATER_EQUAL -> isInt ? IGE  : DGE;
+                case EQUAL_EQUAL   -> isInt ? IEQ  : DEQ;
+                case BANG_EQUAL    -> isInt ? INE  : DNE;
+                default -> throw new RuntimeError(operator, "Invalid binary operator.");
+            };
+            asm.emit(op);
+            return switch (operator.type()) {
+                case PLUS, MINUS, STAR, SLASH -> operands;
+                default                       -> SlotKind.BOOLEAN;
+            };
+        }
+
+        final var equality = switch (operator.type()) {
+            case EQUAL_EQUAL -> true;
+            case BANG_EQUAL  -> true;
+            default          -> false;
+        };
+
+        // booleans are 1 and 0 on the primitive half, int equality compares them
+        if (operands == SlotKind.BOOLEAN && equality) {
+            emit(binary.left, SlotKind.BOOLEAN);
+            emit(binary.right, SlotKind.BOOLEAN);
+            asm.emit(operator.type() == TokenType.EQUAL_EQUAL ? IEQ : INE);
+            return SlotKind.BOOLEAN;
+        }
+
+        emit(binary.left, SlotKind.OBJECT);
+        emit(binary.right, SlotKind.OBJECT);
+        if (equality) {
+            asm.emit(operator.type() == TokenType.EQUAL_EQUAL ? AEQ : ANE);
+            return SlotKind.BOOLEAN;
+        }
+        if (binary.left.getType() instanceof StringDescriptor
+                && binary.right.getType() instanceof StringDescriptor
+                && operator.type() == TokenType.PLUS) {
+            asm.emit(CONCAT);
+            return SlotKind.OBJECT;
+        }
+        asm.emit(GBINARY, asm.constant(operator));
+        return SlotKind.OBJECT;
+    }
+
+    // binds at a depth past 0 were captured by the running lambda
+    private void load(final int depth, final int slot, final SlotKind kind) {
+        if (depth != 0 && depth != SymbolTable.GLOBAL) {
+            asm.emit(kind == SlotKind.OBJECT ? ACLOAD : PCLOAD, depth, slot);
+            return;
+        }
+        final var global = depth == SymbolTable.GLOBAL;
+        if (kind == SlotKind.OBJECT) asm.emit(global ? AGLOAD : ALOAD, slot);
+        else                         asm.emit(global ? PGLOAD : PLOAD, slot);
+    }
+
+    private void store(final int depth, final int slot, final SlotKind kind) {
+        if (depth != 0 && depth != SymbolTable.GLOBAL) {
+            asm.emit(kind == SlotKind.OBJECT ? ACSTORE : PCSTORE, depth, slot);
+            return;
+        }
+        final var global = depth == SymbolTable.GLOBAL;
+        if (kind == SlotKind.OBJECT) asm.emit(global ? AGSTORE : ASTORE, slot);
+        else                         asm.emit(global ? PGSTORE : PSTORE, slot);
+    }
+
+    // moves the top of the stack to the half `to` expects
+    private void convert(final SlotKind from, final SlotKind to) {
+        if (from == to) return;
+
+        if (to == SlotKind.OBJECT) {
+            asm.emit(switch (from) {
+                case INT   -> BOXI;
+                case FLOAT -> BOXD;
+                default    -> BOXZ;
+            });
+        } else if (from == SlotKind.OBJECT) {
+            asm.emit(switch (to) {
+                case INT   -> UNBOXI;
+                case FLOAT -> UNBOXD;
+                default    -> UNBOXZ;
+            });
+        } else {
+            throw new IllegalStateException("Cannot convert " + from + " to " + to + ".");
+        }
+    }
+
+    private static SlotKind kindOf(final Expr expr) {
+        return SlotKind.of(expr.getType());
+    }
+
+    // growable code buffer for one function, tracking the operand stack depth and the
+    // frame slots taken by range loops on top of the locals the resolver assigned
+    private static final class Assembler {
+        private int[] code = new int[64];
+        private int size = 0;
+        private final List<Object> constants = new ArrayList<>();
+        private int depth = 0;
+        private int maxDepth = 0;
+        private int locals;
+        private int maxLocals;
+
+        Assembler(final int locals) {
+            this.locals = locals;
+            this.maxLocals = locals;
+        }
+
+        void emit(final int op, final int... operands) {
+            if (size + operands.length + 1 > code.length) {
+                code = Arrays.copyOf(code, Math.max(code.length * 2, size + operands.length + 1));
+            }
+            code[size++] = op;
+            for (final var operand : operands) code[size++] = operand;
+            adjust(Opcode.EFFECT[op]);
+        }
+
+        // emits a jump whose target is its last operand, to be patched later
+        int jump(final int op, final int... operands) {
+            final var withTarget = Arrays.copyOf(operands, operands.length + 1);
+            emit(op, withTarget);
+            return size - 1;
+        }
+
+        void patch(final int jump) {
+            patch(jump, size);
+        }
+
+        void patch(final int jump, final int target) {
+            code[jump] = target;
+        }
+
+        int here() {
+            return size;
+        }
+
+        void adjust(final int delta) {
+            depth += delta;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        int constant(final Object value) {
+            final var index = constants.indexOf(value);
+            if (index >= 0) return index;
+            constants.add(value);
+            return constants.size() - 1;
+        }
+
+        int allocate(final int slots) {
+            final var first = locals;
+            locals += slots;
+            maxLocals = Math.max(maxLocals, locals);
+            return first;
+        }
+
+        void release(final int slots) {
+            locals -= slots;
+        }
+
+        void finish(final VmFunction function) {
+            function.code = Arrays.copyOf(code, size);
+            function.constants = constants.toArray();
+            function.frameSize = maxLocals;
+            function.maxStack = maxDepth;
+        }
+    }
+}
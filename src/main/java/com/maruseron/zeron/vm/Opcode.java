@@ -0,0 +1,166 @@
+package com.maruseron.zeron.vm;
+
+/*
+    Instruction set of the Zeron VM. Code is a flat int[]: an opcode followed by its
+    operands, all of them ints. The operand stack and the frames are split in two
+    halves indexed by the same stack pointer (see VirtualMachine), so an instruction
+    either works on the primitive half (Int as long, Float as raw double bits, Boolean
+    as 1/0) or on the reference half, never on both.
+
+    |  opcode      | operands   | stack                                           |
+    | ------------ | ---------- | ----------------------------------------------- |
+    | ICONST       | v          | -> v  (Int and Boolean constants)               |
+    | DCONST       | hi lo      | -> the double with raw bits hi:lo               |
+    | ACONST       | k          | -> constants[k]                                 |
+    | PLOAD/ALOAD  | s          | -> frame slot s                                 |
+    | PSTORE/ASTORE| s          | v ->  (into frame slot s)                       |
+    | PGLOAD/AGLOAD| g          | -> global g                                     |
+    | PGSTORE/...  | g          | v ->  (into global g)                           |
+    | PCLOAD/ACLOAD| d s        | -> slot s captured at depth d, see VmLambda     |
+    | PCSTORE/...  | d s        | v ->  (into slot s captured at depth d)         |
+    | POP          |            | v ->                                            |
+    | IADD ... INE |            | int int -> int or boolean                       |
+    | DADD ... DNE |            | double double -> double or boolean              |
+    | INEG DNEG NOT|            | v -> -v, !v                                     |
+    | CONCAT       |            | String String -> String                         |
+    | AEQ ANE      |            | ref ref -> boolean (Objects.equals)             |
+    | GBINARY      | t          | ref ref -> ref  (generic operator constants[t]) |
+    | GNEG         | t          | ref -> ref                                      |
+    | TYPEOF       |            | ref -> String                                   |
+    | CHECKBOOL    | t          | ref -> boolean, error at constants[t] otherwise |
+    | BOX* UNBOX*  |            | moves the top between halves                    |
+    | JMP          | target     |                                                 |
+    | JF JT        | target     | boolean ->  (jump if false / true)              |
+    | MATCH        | m t        | ref ->  jump to constants[t][arm selected by    |
+    |              |            |         the match expression constants[m]]      |
+    | CALL         | f          | args -> result                                  |
+    | LAMBDA       | k          | -> a VmLambda running constants[k]              |
+    | CALLV        | n t        | boxed args lambda -> result  (boxed; error at   |
+    |              |            |         constants[t] if it isn't a lambda)      |
+    | RET          |            | v ->  (to the caller)                           |
+    | PRINT        |            | ref ->                                          |
+
+    Super-instructions, emitted for the shapes that dominate loops:
+
+    | IINC         | s v        | frame slot s += v, for `x = x + 1;` statements  |
+    | IFNOT_ILT .. | target     | int int ->  jump unless the comparison holds    |
+    | RANGE_PREP   | h t        | range ->  sets up the hidden slots h, h+1, h+2  |
+    | RANGE_NEXT   | h s target | writes the next value to s, jumps when done     |
+
+    Natives (constants[k] is the registry entry):
+
+    | NATIVE       | k          | refs -> ref  (boxed, any signature)             |
+    | DMATH1       | k          | double -> double  (exact (D)D handle)           |
+    | DMATH2       | k          | double double -> double  (exact (DD)D handle)   |
+ */
+final class Opcode {
+    private Opcode() {}
+
+    static final int ICONST  = 0;
+    static final int DCONST  = 1;
+    static final int ACONST  = 2;
+    static final int PLOAD   = 3;
+    static final int ALOAD   = 4;
+    static final int PSTORE  = 5;
+    static final int ASTORE  = 6;
+    static final int PGLOAD  = 7;
+    static final int AGLOAD  = 8;
+    static final int PGSTORE = 9;
+    static final int AGSTORE = 10;
+    static final int POP     = 11;
+
+    static final int IADD = 12;
+    static final int ISUB = 13;
+    static final int IMUL = 14;
+    static final int IDIV = 15;
+    static final int INEG = 16;
+    static final int ILT  = 17;
+    static final int ILE  = 18;
+    static final int IGT  = 19;
+    static final int IGE  = 20;
+    static final int IEQ  = 21;
+    static final int INE  = 22;
+
+    static final int DADD = 23;
+    static final int DSUB = 24;
+    static final int DMUL = 25;
+    static final int DDIV = 26;
+    static final int DNEG = 27;
+    static final int DLT  = 28;
+    static final int DLE  = 29;
+    static final int DGT  = 30;
+    static final int DGE  = 31;
+    static final int DEQ  = 32;
+    static final int DNE  = 33;
+
+    static final int NOT       = 34;
+    static final int CONCAT    = 35;
+    static final int AEQ       = 36;
+    static final int ANE       = 37;
+    static final int GBINARY   = 38;
+    static final int GNEG      = 39;
+    static final int TYPEOF    = 40;
+    static final int CHECKBOOL = 41;
+
+    static final int BOXI   = 42;
+    static final int BOXD   = 43;
+    static final int BOXZ   = 44;
+    static final int UNBOXI = 45;
+    static final int UNBOXD = 46;
+    static final int UNBOXZ = 47;
+
+    static final int JMP   = 48;
+    static final int JF    = 49;
+    static final int JT    = 50;
+    static final int CALL  = 51;
+    static final int RET   = 52;
+    static final int PRINT = 53;
+
+    static final int IINC       = 54;
+    static final int IFNOT_ILT  = 55;
+    static final int IFNOT_ILE  = 56;
+    static final int IFNOT_IGT  = 57;
+    static final int IFNOT_IGE  = 58;
+    static final int IFNOT_IEQ  = 59;
+    static final int IFNOT_INE  = 60;
+    static final int RANGE_PREP = 61;
+    static final int RANGE_NEXT = 62;
+
+    static final int NATIVE = 63;
+    static final int DMATH1 = 64;
+    static final int DMATH2 = 65;
+
+    static final int MATCH = 66;
+
+    static final int LAMBDA  = 67;
+    static final int PCLOAD  = 68;
+    static final int ACLOAD  = 69;
+    static final int PCSTORE = 70;
+    static final int ACSTORE = 71;
+    static final int CALLV   = 72;
+
+    static final int COUNT = 73;
+
+    // net effect of each instruction on the stack depth. CALL, CALLV and NATIVE also pop
+    // their arguments, which the generator accounts for since the arity is not part of
+    // the instruction (CALLV's callee is, it replaces the result)
+    static final int[] EFFECT = new int[COUNT];
+
+    static {
+        for (final var op : new int[] {
+                ICONST, DCONST, ACONST, PLOAD, ALOAD, PGLOAD, AGLOAD, CALL, NATIVE,
+                LAMBDA, PCLOAD, ACLOAD })
+            EFFECT[op] = 1;
+        for (final var op : new int[] {
+                PSTORE, ASTORE, PGSTORE, AGSTORE, POP,
+                IADD, ISUB, IMUL, IDIV, ILT, ILE, IGT, IGE, IEQ, INE,
+                DADD, DSUB, DMUL, DDIV, DLT, DLE, DGT, DGE, DEQ, DNE,
+                CONCAT, AEQ, ANE, GBINARY, JF, JT, RET, PRINT, RANGE_PREP, DMATH2, MATCH,
+                PCSTORE, ACSTORE })
+            EFFECT[op] = -1;
+        for (final var op : new int[] {
+                IFNOT_ILT, IFNOT_ILE, IFNOT_IGT, IFNOT_IGE, IFNOT_IEQ, IFNOT_INE })
+            EFFECT[op] = -2;
+        // everything else replaces the top or leaves the stack alone
+    }
+}
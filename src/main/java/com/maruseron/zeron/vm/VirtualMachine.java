@@ -0,0 +1,427 @@
+package com.maruseron.zeron.vm;
+
+import com.maruseron.zeron.IntRangeLiteral;
+import com.maruseron.zeron.Zeron;
+import com.maruseron.zeron.ast.Expr;
+import com.maruseron.zeron.ast.Stmt;
+import com.maruseron.zeron.domain.Native;
+import com.maruseron.zeron.domain.SymbolTable;
+import com.maruseron.zeron.interpret.RuntimeError;
+import com.maruseron.zeron.scan.Token;
+import com.maruseron.zeron.scan.TokenType;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static com.maruseron.zeron.vm.Opcode.*;
+
+/*
+    Bytecode engine: the resolved program is turned into compact int[] code by the
+    BytecodeGenerator, which is far cheaper than generating and loading JVM classes,
+    and run by a single dispatch loop.
+
+    The stack is two parallel arrays indexed by the same stack pointer, `primitives`
+    for Int, Float and Boolean values and `references` for everything else, so typed
+    code never allocates. A call frame is a window of that stack: its locals start at
+    the frame pointer and its operand stack sits right on top of them. Arguments are
+    pushed by the caller and become the first locals of the callee, and the return
+    value replaces them when the callee returns.
+ */
+public final class VirtualMachine {
+    private final SymbolTable symbols;
+    private final long[] globalPrimitives;
+    private final Object[] globalReferences;
+
+    private long[] primitives = new long[1024];
+    private Object[] references = new Object[1024];
+
+    // return addresses, one entry per active call
+    private int[] returnPcs = new int[64];
+    private int[] returnFps = new int[64];
+    private VmFunction[] returnFunctions = new VmFunction[64];
+    private VmLambda[] returnClosures = new VmLambda[64];
+
+    private VmFunction[] functions;
+
+    public VirtualMachine(final SymbolTable symbols) {
+        this.symbols = symbols;
+        this.globalPrimitives = new long[symbols.globalCount()];
+        this.globalReferences = new Object[symbols.globalCount()];
+    }
+
+    public void interpret(final List<Stmt> statements) {
+        try {
+            final var generator = new BytecodeGenerator(symbols);
+            final var script = generator.generate(statements);
+            functions = generator.functionTable();
+
+            run(script);
+
+            final var main = generator.function("main");
+            if (main != null) {
+                run(main);
+            }
+        } catch (RuntimeError error) {
+            Zeron.runtimeError(error);
+        }
+    }
+
+    // runs a function that takes no arguments until it returns to this call
+    private void run(final VmFunction entry) {
+        var function = entry;
+        var code = function.code;
+        var constants = function.constants;
+        var pc = 0;
+        var fp = 0;
+        var sp = function.frameSize;
+        var calls = 0;
+        // the lambda whose body is running, null in functions
+        VmLambda closure = null;
+
+        ensureCapacity(sp + function.maxStack);
+        var primitives = this.primitives;
+        var references = this.references;
+        final var globalPrimitives = this.globalPrimitives;
+        final var globalReferences = this.globalReferences;
+
+        while (true) {
+            switch (code[pc++]) {
+                case ICONST -> primitives[sp++] = code[pc++];
+                case DCONST -> {
+                    primitives[sp++] = ((long) code[pc] << 32) | (code[pc + 1] & 0xFFFFFFFFL);
+                    pc += 2;
+                }
+                case ACONST -> references[sp++] = constants[code[pc++]];
+
+                case PLOAD   -> primitives[sp++] = primitives[fp + code[pc++]];
+                case ALOAD   -> references[sp++] = references[fp + code[pc++]];
+                case PSTORE  -> primitives[fp + code[pc++]] = primitives[--sp];
+                case ASTORE  -> references[fp + code[pc++]] = references[--sp];
+                case PGLOAD  -> primitives[sp++] = globalPrimitives[code[pc++]];
+                case AGLOAD  -> references[sp++] = globalReferences[code[pc++]];
+                case PGSTORE -> globalPrimitives[code[pc++]] = primitives[--sp];
+                case AGSTORE -> globalReferences[code[pc++]] = references[--sp];
+                case POP     -> sp--;
+
+                case PCLOAD  -> { primitives[sp++] = closure.at(code[pc]).primitives[code[pc + 1]]; pc += 2; }
+                case ACLOAD  -> { references[sp++] = closure.at(code[pc]).references[code[pc + 1]]; pc += 2; }
+                case PCSTORE -> { closure.at(code[pc]).primitives[code[pc + 1]] = primitives[--sp]; pc += 2; }
+                case ACSTORE -> { closure.at(code[pc]).references[code[pc + 1]] = references[--sp]; pc += 2; }
+
+                // ints are kept sign extended, so every result is narrowed back to int
+                case IADD -> { sp--; primitives[sp - 1] = (int) (primitives[sp - 1] + primitives[sp]); }
+                case ISUB -> { sp--; primitives[sp - 1] = (int) (primitives[sp - 1] - primitives[sp]); }
+                case IMUL -> { sp--; primitives[sp - 1] = (int) (primitives[sp - 1] * primitives[sp]); }
+                case IDIV -> { sp--; primitives[sp - 1] = (int) primitives[sp - 1] / (int) primitives[sp]; }
+                case INEG -> primitives[sp - 1] = (int) -primitives[sp - 1];
+                case ILT  -> { sp--; primitives[sp - 1] = primitives[sp - 1] <  primitives[sp] ? 1 : 0; }
+                case ILE  -> { sp--; primitives[sp - 1] = primitives[sp - 1] <= primitives[sp] ? 1 : 0; }
+                case IGT  -> { sp--; primitives[sp - 1] = primitives[sp - 1] >  primitives[sp] ? 1 : 0; }
+                case IGE  -> { sp--; primitives[sp - 1] = primitives[sp - 1] >= primitives[sp] ? 1 : 0; }
+                case IEQ  -> { sp--; primitives[sp - 1] = primitives[sp - 1] == primitives[sp] ? 1 : 0; }
+                case INE  -> { sp--; primitives[sp - 1] = primitives[sp - 1] != primitives[sp] ? 1 : 0; }
+
+                case DADD -> { sp--; primitives[sp - 1] = bits(real(primitives[sp - 1]) + real(primitives[sp])); }
+                case DSUB -> { sp--; primitives[sp - 1] = bits(real(primitives[sp - 1]) - real(primitives[sp])); }
+                case DMUL -> { sp--; primitives[sp - 1] = bits(real(primitives[sp - 1]) * real(primitives[sp])); }
+                case DDIV -> { sp--; primitives[sp - 1] = bits(real(primitives[sp - 1]) / real(primitives[sp])); }
+                case DNEG -> primitives[sp - 1] = bits(-real(primitives[sp - 1]));
+                case DLT  -> { sp--; primitives[sp - 1] = real(primitives[sp - 1]) <  real(primitives[sp]) ? 1 : 0; }
+                case DLE  -> { sp--; primitives[sp - 1] = real(primitives[sp - 1]) <= real(primitives[sp]) ? 1 : 0; }
+                case DGT  -> { sp--; primitives[sp - 1] = real(primitives[sp - 1]) >  real(primitives[sp]) ? 1 : 0; }
+                case DGE  -> { sp--; primitives[sp - 1] = real(primitives[sp - 1]) >= real(primitives[sp]) ? 1 : 0; }
+                case DEQ  -> { sp--; primitives[sp - 1] = real(primitives[sp - 1]) == real(primitives[sp]) ? 1 : 0; }
+                case DNE  -> { sp--; primitives[sp - 1] = real(primitives[sp - 1]) != real(primitives[sp]) ? 1 : 0; }
+
+                case NOT -> primitives[sp - 1] ^= 1;
+                case CONCAT -> {
+                    sp--;
+                    references[sp - 1] = (String) references[sp - 1] + references[sp];
+                }
+                case AEQ -> {
+                    sp--;
+                    primitives[sp - 1] = Objects.equals(references[sp - 1], references[sp]) ? 1 : 0;
+                }
+                case ANE -> {
+                    sp--;
+                    primitives[sp - 1] = Objects.equals(references[sp - 1], references[sp]) ? 0 : 1;
+                }
+                case GBINARY -> {
+                    sp--;
+                    final var operator = (Token) constants[code[pc++]];
+                    references[sp - 1] = binary(operator, references[sp - 1], references[sp]);
+                }
+                case GNEG -> {
+                    final var operator = (Token) constants[code[pc++]];
+                    references[sp - 1] = switch (references[sp - 1]) {
+                        case Double d  -> -d;
+                        case Integer i -> -i;
+                        case null, default -> throw new RuntimeError(operator, "Operand must be a number.");
+                    };
+                }
+                case TYPEOF -> references[sp - 1] = references[sp - 1].getClass().getSimpleName();
+                case CHECKBOOL -> {
+                    final var where = (Token) constants[code[pc++]];
+                    if (!(references[sp - 1] instanceof Boolean b))
+                        throw new RuntimeError(where, "Operand must be a boolean.");
+                    primitives[sp - 1] = b ? 1 : 0;
+                }
+
+                case BOXI   -> references[sp - 1] = (int) primitives[sp - 1];
+                case BOXD   -> references[sp - 1] = real(primitives[sp - 1]);
+                case BOXZ   -> references[sp - 1] = primitives[sp - 1] != 0;
+                case UNBOXI -> primitives[sp - 1] = (Integer) references[sp - 1];
+                case UNBOXD -> primitives[sp - 1] = bits((Double) references[sp - 1]);
+                case UNBOXZ -> primitives[sp - 1] = (Boolean) references[sp - 1] ? 1 : 0;
+
+                case JMP -> pc = code[pc];
+                case JF  -> pc = primitives[--sp] == 0 ? code[pc] : pc + 1;
+                case JT  -> pc = primitives[--sp] != 0 ? code[pc] : pc + 1;
+                case MATCH -> {
+                    final var match = (Expr.Match) constants[code[pc]];
+                    final var targets = (int[]) constants[code[pc + 1]];
+                    pc = targets[match.armOf(references[--sp])];
+                }
+
+                case CALL -> {
+                    final var callee = functions[code[pc++]];
+                    final var base = sp - callee.arity();
+
+                    if (calls == returnPcs.length) growCallStack();
+                    returnPcs[calls] = pc;
+                    returnFps[calls] = fp;
+                    returnFunctions[calls] = function;
+                    returnClosures[calls] = closure;
+                    calls++;
+
+                    // arguments were pushed one per stack slot, parameters follow the
+                    // lvt where a Float takes two. moving the last one first never
+                    // overwrites an argument that has not been moved yet
+                    final var slots = callee.parameterSlots;
+                    for (var i = slots.length - 1; i >= 0; i--) {
+                        primitives[base + slots[i]] = primitives[base + i];
+                        references[base + slots[i]] = references[base + i];
+                    }
+
+                    function = callee;
+                    closure = null;
+                    code = callee.code;
+                    constants = callee.constants;
+                    pc = 0;
+                    fp = base;
+                    sp = base + callee.frameSize;
+
+                    if (sp + callee.maxStack > primitives.length) {
+                        ensureCapacity(sp + callee.maxStack);
+                        primitives = this.primitives;
+                        references = this.references;
+                    }
+                }
+                case LAMBDA -> {
+                    final var body = (VmFunction) constants[code[pc++]];
+                    references[sp] = new VmLambda(
+                            body,
+                            Arrays.copyOfRange(primitives, fp, fp + function.frameSize),
+                            Arrays.copyOfRange(references, fp, fp + function.frameSize),
+                            closure);
+                    sp++;
+                }
+                case CALLV -> {
+                    if (!(references[--sp] instanceof VmLambda lambda)) {
+                        throw new RuntimeError((Token) constants[code[pc + 1]], "Callee must be a function.");
+                    }
+                    final var callee = lambda.function;
+                    final var base = sp - code[pc];
+                    pc += 2;
+
+                    if (calls == returnPcs.length) growCallStack();
+                    returnPcs[calls] = pc;
+                    returnFps[calls] = fp;
+                    returnFunctions[calls] = function;
+                    returnClosures[calls] = closure;
+                    calls++;
+
+                    // the caller didn't know the lambda, so arguments come boxed: each
+                    // goes to the half its parameter calls for. a lambda takes at most
+                    // one, and it's always in slot 0
+                    for (var i = 0; i < callee.arity(); i++) {
+                        final var argument = references[base + i];
+                        switch (callee.parameterKinds[i]) {
+                            case INT     -> primitives[base + i] = (Integer) argument;
+                            case FLOAT   -> primitives[base + i] = bits((Double) argument);
+                            case BOOLEAN -> primitives[base + i] = (Boolean) argument ? 1 : 0;
+                            case OBJECT  -> {}
+                        }
+                    }
+
+                    function = callee;
+                    closure = lambda;
+                    code = callee.code;
+                    constants = callee.constants;
+                    pc = 0;
+                    fp = base;
+                    sp = base + callee.frameSize;
+
+                    if (sp + callee.maxStack > primitives.length) {
+                        ensureCapacity(sp + callee.maxStack);
+                        primitives = this.primitives;
+                        references = this.references;
+                    }
+                }
+                case RET -> {
+                    // the result takes the place of the first argument in the caller
+                    primitives[fp] = primitives[sp - 1];
+                    references[fp] = references[sp - 1];
+                    sp = fp + 1;
+
+                    if (calls == 0) return;
+
+                    calls--;
+                    pc = returnPcs[calls];
+                    fp = returnFps[calls];
+                    function = returnFunctions[calls];
+                    returnFunctions[calls] = null;
+                    closure = returnClosures[calls];
+                    returnClosures[calls] = null;
+                    code = function.code;
+                    constants = function.constants;
+                }
+                case PRINT -> System.out.println(references[--sp]);
+
+                case IINC -> {
+                    primitives[fp + code[pc]] = (int) (primitives[fp + code[pc]] + code[pc + 1]);
+                    pc += 2;
+                }
+                case IFNOT_ILT -> { sp -= 2; pc = primitives[sp] <  primitives[sp + 1] ? pc + 1 : code[pc]; }
+                case IFNOT_ILE -> { sp -= 2; pc = primitives[sp] <= primitives[sp + 1] ? pc + 1 : code[pc]; }
+                case IFNOT_IGT -> { sp -= 2; pc = primitives[sp] >  primitives[sp + 1] ? pc + 1 : code[pc]; }
+                case IFNOT_IGE -> { sp -= 2; pc = primitives[sp] >= primitives[sp + 1] ? pc + 1 : code[pc]; }
+                case IFNOT_IEQ -> { sp -= 2; pc = primitives[sp] == primitives[sp + 1] ? pc + 1 : code[pc]; }
+                case IFNOT_INE -> { sp -= 2; pc = primitives[sp] != primitives[sp + 1] ? pc + 1 : code[pc]; }
+
+                // hidden slots: h = values left, h + 1 = next value, h + 2 = step
+                case RANGE_PREP -> {
+                    final var hidden = fp + code[pc];
+                    if (!(references[--sp] instanceof IntRangeLiteral range))
+                        throw new RuntimeError((Token) constants[code[pc + 1]], "Only ranges can be iterated.");
+                    primitives[hidden]     = range.count();
+                    primitives[hidden + 1] = range.start();
+                    primitives[hidden + 2] = range.step();
+                    pc += 2;
+                }
+                case RANGE_NEXT -> {
+                    final var hidden = fp + code[pc];
+                    if (primitives[hidden] <= 0) {
+                        pc = code[pc + 2];
+                    } else {
+                        primitives[hidden]--;
+                        final var next = primitives[hidden + 1];
+                        primitives[fp + code[pc + 1]] = next;
+                        primitives[hidden + 1] = (int) (next + primitives[hidden + 2]);
+                        pc += 3;
+                    }
+                }
+
+                case NATIVE -> {
+                    final var target = (Native) constants[code[pc++]];
+                    final var base = sp - target.arity();
+                    references[base] = switch (target.arity()) {
+                        case 0 -> target.invoke0();
+                        case 1 -> target.invoke1(references[base]);
+                        case 2 -> target.invoke2(references[base], references[base + 1]);
+                        default -> target.invoke(Arrays.copyOfRange(references, base, sp));
+                    };
+                    sp = base + 1;
+                }
+                case DMATH1 -> {
+                    final var handle = ((Native) constants[code[pc++]]).handle();
+                    primitives[sp - 1] = bits(math(handle, real(primitives[sp - 1])));
+                }
+                case DMATH2 -> {
+                    sp--;
+                    final var handle = ((Native) constants[code[pc++]]).handle();
+                    primitives[sp - 1] = bits(math(handle, real(primitives[sp - 1]), real(primitives[sp])));
+                }
+
+                default -> throw new IllegalStateException("Unknown opcode " + code[pc - 1] + ".");
+            }
+        }
+    }
+
+    private void ensureCapacity(final int size) {
+        if (size <= primitives.length) return;
+        final var capacity = Math.max(size, primitives.length * 2);
+        primitives = Arrays.copyOf(primitives, capacity);
+        references = Arrays.copyOf(references, capacity);
+    }
+
+    private void growCallStack() {
+        final var capacity = returnPcs.length * 2;
+        returnPcs = Arrays.copyOf(returnPcs, capacity);
+        returnFps = Arrays.copyOf(returnFps, capacity);
+        returnFunctions = Arrays.copyOf(returnFunctions, capacity);
+        returnClosures = Arrays.copyOf(returnClosures, capacity);
+    }
+
+    private static double real(final long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static long bits(final double value) {
+        return Double.doubleToRawLongBits(value);
+    }
+
+    // exact invocations of the Float natives, see DMATH1 and DMATH2
+    private static double math(final MethodHandle handle, final double a) {
+        try {
+            return (double) handle.invokeExact(a);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private static double math(final MethodHandle handle, final double a, final double b) {
+        try {
+            return (double) handle.invokeExact(a, b);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    // operators on values without a primitive static type, same rules as Interpreter.evaluate
+    private static Object binary(final Token operator, final Object left, final Object right) {
+        if (operator.type() == TokenType.PLUS
+                && (left instanceof String || right instanceof String)) {
+            return String.valueOf(left) + right;
+        }
+        if (left instanceof Integer l && right instanceof Integer r) {
+            return switch (operator.type()) {
+                case PLUS          -> l + r;
+                case MINUS         -> l - r;
+                case STAR          -> l * r;
+                case SLASH         -> l / r;
+                case GREATER       -> l > r;
+                case GREATER_EQUAL -> l >= r;
+                case LESS          -> l < r;
+                case LESS_EQUAL    -> l <= r;
+                default -> throw new RuntimeError(operator, "Invalid binary operator.");
+            };
+        }
+        if (left instanceof Double l && right instanceof Double r) {
+            return switch (operator.type()) {
+                case PLUS          -> l + r;
+                case MINUS         -> l - r;
+                case STAR          -> l * r;
+                case SLASH         -> l / r;
+                case GREATER       -> l > r;
+                case GREATER_EQUAL -> l >= r;
+                case LESS          -> l < r;
+                case LESS_EQUAL    -> l <= r;
+                default -> throw new RuntimeError(operator, "Invalid binary operator.");
+            };
+        }
+        throw new RuntimeError(operator, "Invalid operands.");
+    }
+}
@@ -0,0 +1,74 @@
+package com.maruseron.zeron.vm;
+
+import com.maruseron.zeron.ast.Expr;
+import com.maruseron.zeron.ast.Stmt;
+import com.maruseron.zeron.domain.FunctionDescriptor;
+import com.maruseron.zeron.interpret.SlotKind;
+
+// a unit of bytecode: a top level function, the body of a lambda, or the script that
+// initializes globals. the code is filled in by BytecodeGenerator after the function is
+// registered, so recursive calls can refer to it by index
+final class VmFunction {
+    final String name;
+    final int index;
+    final int[] parameterSlots;
+    final SlotKind[] parameterKinds;
+    final SlotKind returnKind;
+
+    int[] code;
+    Object[] constants;
+    // locals including the hidden slots of range loops, and the deepest operand stack
+    int frameSize;
+    int maxStack;
+
+    VmFunction(final String name, final int index, final SlotKind returnKind) {
+        this.name = name;
+        this.index = index;
+        this.parameterSlots = new int[0];
+        this.parameterKinds = new SlotKind[0];
+        this.returnKind = returnKind;
+    }
+
+    // lambdas aren't in the function table, and return boxed since their callers only
+    // know them as a reference
+    VmFunction(final Expr.Lambda lambda) {
+        this.name = "<lambda>";
+        this.index = -1;
+        this.returnKind = SlotKind.OBJECT;
+
+        final var parameterTypes = ((FunctionDescriptor) lambda.getType()).parameters();
+        this.parameterSlots = new int[parameterTypes.size()];
+        this.parameterKinds = new SlotKind[parameterTypes.size()];
+        var slot = 0;
+        for (var i = 0; i < parameterSlots.length; i++) {
+            parameterSlots[i] = slot;
+            parameterKinds[i] = SlotKind.of(parameterTypes.get(i));
+            slot += parameterTypes.get(i).isDoubleWidth() ? 2 : 1;
+        }
+    }
+
+    VmFunction(final Stmt.Function declaration, final int index, final SlotKind returnKind) {
+        this.name = declaration.name().lexeme();
+        this.index = index;
+        this.returnKind = returnKind;
+
+        final var parameterTypes = declaration.typeDescriptor().parameters();
+        this.parameterSlots = new int[parameterTypes.size()];
+        this.parameterKinds = new SlotKind[parameterTypes.size()];
+        var slot = 0;
+        for (var i = 0; i < parameterSlots.length; i++) {
+            parameterSlots[i] = slot;
+            parameterKinds[i] = SlotKind.of(parameterTypes.get(i));
+            slot += parameterTypes.get(i).isDoubleWidth() ? 2 : 1;
+        }
+    }
+
+    int arity() {
+        return parameterSlots.length;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name + ">";
+    }
+}
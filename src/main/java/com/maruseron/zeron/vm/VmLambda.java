@@ -0,0 +1,39 @@
+package com.maruseron.zeron.vm;
+
+/*
+    A lambda value of the VM: its code plus a copy of both halves of the frame it was
+    created in, so captures are by value as in the other engines. A bind the body reads
+    at depth 1 is in that copy; at depth 2 it's in the copy the creating lambda carried,
+    `enclosing`, and so on outwards (see CPLOAD).
+ */
+final class VmLambda {
+    final VmFunction function;
+    final long[] primitives;
+    final Object[] references;
+    // the lambda whose frame this one was created in, null for a function's frame
+    final VmLambda enclosing;
+
+    VmLambda(final VmFunction function,
+             final long[] primitives,
+             final Object[] references,
+             final VmLambda enclosing) {
+        this.function = function;
+        this.primitives = primitives;
+        this.references = references;
+        this.enclosing = enclosing;
+    }
+
+    // the copy that holds the binds at the given depth, seen from this lambda's body
+    VmLambda at(final int depth) {
+        var lambda = this;
+        for (var i = 1; i < depth; i++) {
+            lambda = lambda.enclosing;
+        }
+        return lambda;
+    }
+
+    @Override
+    public String toString() {
+        return "<lambda>";
+    }
+}